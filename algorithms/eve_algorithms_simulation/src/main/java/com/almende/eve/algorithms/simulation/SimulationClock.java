@@ -7,20 +7,31 @@ package com.almende.eve.algorithms.simulation;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
 
+import com.almende.eve.scheduling.clock.Clock;
 import com.almende.eve.scheduling.clock.ClockEntry;
-import com.almende.eve.scheduling.clock.RunnableClock;
+import com.almende.util.threads.ThreadPool;
 
 /**
- * The Class SimulationClock.
+ * The Class SimulationClock, time only progresses when all active triggers are
+ * done, jumping to the due time of the next trigger on the timeline.
  */
-public class SimulationClock extends RunnableClock {
-	private DateTime	now				= null;
-	private Set<String>	activeTriggers	= new HashSet<String>();
-	private boolean		paused			= false;
+public class SimulationClock implements Runnable, Clock {
+	private static final Logger								LOG				= Logger.getLogger(SimulationClock.class
+																					.getName());
+	protected final NavigableMap<ClockEntry, ClockEntry>	TIMELINE		= new ConcurrentSkipListMap<ClockEntry, ClockEntry>();
+	protected static final Executor							RUNNER			= ThreadPool
+																					.getPool();
+	private DateTime										now				= null;
+	private Set<String>										activeTriggers	= new HashSet<String>();
+	private boolean											paused			= false;
 
 	/**
 	 * Instantiates a new simulation clock.
@@ -29,10 +40,48 @@ public class SimulationClock extends RunnableClock {
 	 *            the init millis
 	 */
 	public SimulationClock(final long initMillis) {
-		super();
 		this.now = new DateTime(initMillis);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.eve.scheduler.clock.Clock#requestTrigger(java.lang.String,
+	 * org.joda.time.DateTime, java.lang.Runnable)
+	 */
+	@Override
+	public void requestTrigger(final String triggerId, final DateTime due,
+			final Runnable callback) {
+		final ClockEntry ce = new ClockEntry(triggerId, due, callback);
+		final ClockEntry oldVal = TIMELINE.get(ce);
+		if (oldVal == null || oldVal.getDue().isAfter(due)) {
+			TIMELINE.put(ce, ce);
+		} else {
+			LOG.warning(ce.getTriggerId()
+					+ ": Skip adding ce, because has old value earlier than current. "
+					+ oldVal.getTriggerId());
+		}
+		RUNNER.execute(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.scheduling.clock.Clock#cancel(java.lang.String)
+	 */
+	@Override
+	public void cancel(final String triggerId) {
+		TIMELINE.remove(new ClockEntry(triggerId, null, null));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.scheduling.clock.Clock#clear()
+	 */
+	@Override
+	public void clear() {
+		TIMELINE.clear();
+	}
+
 	@Override
 	public DateTime nowDateTime() {
 		return this.now;
@@ -24,11 +24,13 @@ import com.almende.eve.protocol.jsonrpc.annotation.Name;
 import com.almende.eve.protocol.jsonrpc.annotation.Optional;
 import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
 import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
 import com.almende.eve.protocol.jsonrpc.formats.Params;
 import com.almende.eve.scheduling.Scheduler;
 import com.almende.util.TypeUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.CallbackFuture;
 import com.almende.util.callback.SyncCallback;
 import com.almende.util.jackson.JOM;
 import com.almende.util.uuid.UUID;
@@ -137,6 +139,23 @@ public class Agent extends AgentCore implements AgentInterface {
 		caller.call(url, request);
 	}
 
+	/**
+	 * Send a JSON-RPC 2.0 batch of requests and/or notifications to a single
+	 * agent, as one message. Responses are delivered to the callbacks of the
+	 * individual requests.
+	 *
+	 * @param url
+	 *            the address of the other agent
+	 * @param batch
+	 *            the batch of RPC requests
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void call(final URI url, final JSONBatch batch)
+			throws IOException {
+		caller.call(url, batch);
+	}
+
 	/**
 	 * Send async, expecting a response through the given callback.
 	 * 
@@ -335,6 +354,112 @@ public class Agent extends AgentCore implements AgentInterface {
 		return caller.callSync(url, method, params, type);
 	}
 
+	/**
+	 * Send asynchronous request, returning a future for the response. Unlike
+	 * callSync(), this doesn't block the calling thread. The result can be
+	 * handled by chaining callbacks to the future, or by calling get() on it.
+	 *
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param type
+	 *            the expected result type, in the form of a Java Type.
+	 * @return the future result, cast/converted to the given type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected <T> CallbackFuture<T> callAsync(final URI url,
+			final String method, final ObjectNode params, final Type type)
+			throws IOException {
+		final TypeUtil<T> typeUtil = TypeUtil.get(type);
+		return caller.callAsync(url, method, params, typeUtil);
+	}
+
+	/**
+	 * Send asynchronous request, returning a future for the response. Unlike
+	 * callSync(), this doesn't block the calling thread. The result can be
+	 * handled by chaining callbacks to the future, or by calling get() on it.
+	 *
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param type
+	 *            the expected result type, in the form of a Jackson JavaType.
+	 * @return the future result, cast/converted to the given type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected <T> CallbackFuture<T> callAsync(final URI url,
+			final String method, final ObjectNode params, final JavaType type)
+			throws IOException {
+		final TypeUtil<T> typeUtil = TypeUtil.get(type);
+		return caller.callAsync(url, method, params, typeUtil);
+	}
+
+	/**
+	 * Send asynchronous request, returning a future for the response. Unlike
+	 * callSync(), this doesn't block the calling thread. The result can be
+	 * handled by chaining callbacks to the future, or by calling get() on it.
+	 *
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param clazz
+	 *            the expected result type, in the form of a class.
+	 * @return the future result, cast/converted to the given type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected <T> CallbackFuture<T> callAsync(final URI url,
+			final String method, final ObjectNode params, final Class<T> clazz)
+			throws IOException {
+		return caller.callAsync(url, method, params, TypeUtil.get(clazz));
+	}
+
+	/**
+	 * Send asynchronous request, returning a future for the response. Unlike
+	 * callSync(), this doesn't block the calling thread. The result can be
+	 * handled by chaining callbacks to the future, or by calling get() on it.
+	 *
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param type
+	 *            the expected result type, in the form of a TypeUtil injector.
+	 * @return the future result, cast/converted to the given type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected <T> CallbackFuture<T> callAsync(final URI url,
+			final String method, final ObjectNode params, final TypeUtil<T> type)
+			throws IOException {
+		return caller.callAsync(url, method, params, type);
+	}
+
 	/**
 	 * Send synchronous request to multiple agents, waiting for a response from
 	 * each. This method returns with a map of results, after the final agent
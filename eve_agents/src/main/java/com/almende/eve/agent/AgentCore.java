@@ -52,6 +52,7 @@ import com.almende.eve.transport.TransportBuilder;
 import com.almende.eve.transport.TransportConfig;
 import com.almende.util.TypeUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.CallbackFuture;
 import com.almende.util.callback.SyncCallback;
 import com.almende.util.jackson.JOM;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -757,6 +758,15 @@ public class AgentCore implements Receiver, Configurable, Authorizor {
 			}
 		}
 
+		@Override
+		public <T> CallbackFuture<T> callAsync(final URI url,
+				final String method, final ObjectNode params,
+				final TypeUtil<T> type) throws IOException {
+			final CallbackFuture<T> future = new CallbackFuture<T>(type);
+			call(url, method, params, future);
+			return future;
+		}
+
 		@Override
 		public List<URI> getSenderUrls() {
 			return transport.getAddresses();
@@ -7,11 +7,14 @@ package com.almende.eve.agent;
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.almende.eve.protocol.jsonrpc.annotation.NoReply;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
@@ -20,7 +23,9 @@ import com.almende.util.AnnotationUtil;
 import com.almende.util.AnnotationUtil.AnnotatedClass;
 import com.almende.util.AnnotationUtil.AnnotatedMethod;
 import com.almende.util.TypeUtil;
+import com.almende.util.callback.CallbackFuture;
 import com.almende.util.callback.SyncCallback;
+import com.almende.util.jackson.JOM;
 import com.fasterxml.jackson.databind.JsonNode;
 
 /**
@@ -32,7 +37,10 @@ public final class AgentProxyFactory {
 	private AgentProxyFactory() {}
 
 	/**
-	 * Gen proxy.
+	 * Gen proxy. Interface methods returning a {@link Future} (or
+	 * {@link CallbackFuture}) return immediately, the future is completed when
+	 * the response arrives. Other methods block until the response arrives,
+	 * unless annotated with {@link NoReply}.
 	 * 
 	 * @param <T>
 	 *            the generic type
@@ -80,6 +88,20 @@ public final class AgentProxyFactory {
 							}
 							cache.put(method, doSync);
 						}
+						if (doSync && isFuture(method.getReturnType())) {
+							final CallbackFuture<Object> future = new CallbackFuture<Object>(
+									TypeUtil.get(JOM.getTypeFactory()
+											.constructType(getFutureType(method))));
+							try {
+								sender.caller.call(receiverUrl, method, args,
+										future);
+							} catch (final IOException e) {
+								future.onFailure(new JSONRPCException(
+										CODE.REMOTE_EXCEPTION, e
+												.getLocalizedMessage(), e));
+							}
+							return future;
+						}
 						SyncCallback<JsonNode> callback = null;
 						if (doSync) {
 							callback = new SyncCallback<JsonNode>(JSONNODETYPE) {};
@@ -106,4 +128,17 @@ public final class AgentProxyFactory {
 				});
 		return proxy;
 	}
+
+	private static boolean isFuture(final Class<?> returnType) {
+		return returnType.equals(Future.class)
+				|| returnType.equals(CallbackFuture.class);
+	}
+
+	private static Type getFutureType(final Method method) {
+		final Type type = method.getGenericReturnType();
+		if (type instanceof ParameterizedType) {
+			return ((ParameterizedType) type).getActualTypeArguments()[0];
+		}
+		return JsonNode.class;
+	}
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.callback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.TypeUtil;
+import com.almende.util.threads.ThreadPool;
+
+/**
+ * The Class CallbackFuture, an AsyncCallback which can be used as a Future.
+ * Other callbacks can be chained to it through
+ * {@link #addCallback(AsyncCallback)}, these are called from the thread
+ * completing the future, so many outstanding calls can be handled without
+ * parking a thread per call. Only {@link #get()} blocks.
+ *
+ * @param <T>
+ *            the generic type
+ */
+public class CallbackFuture<T> extends AsyncCallback<T> implements Future<T> {
+	private static final Logger						LOG			= Logger.getLogger(CallbackFuture.class
+																		.getName());
+	private final ReentrantLock						lock		= new ReentrantLock();
+	private final Condition							condition	= lock.newCondition();
+	private List<AsyncCallback<? super T>>			callbacks	= new ArrayList<AsyncCallback<? super T>>(
+																		1);
+	private T										response	= null;
+	private Exception								exception	= null;
+	private volatile boolean						done		= false;
+
+	/**
+	 * Instantiates a new callback future.
+	 *
+	 * @param type
+	 *            the type
+	 */
+	public CallbackFuture(final TypeUtil<T> type) {
+		super(type);
+	}
+
+	/**
+	 * Instantiates a new callback future.
+	 */
+	public CallbackFuture() {
+		super();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.util.callback.AsyncCallback#onSuccess(java.lang.Object)
+	 */
+	@Override
+	public void onSuccess(final T result) {
+		complete(result, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.almende.util.callback.AsyncCallback#onFailure(java.lang.Exception)
+	 */
+	@Override
+	public void onFailure(final Exception exception) {
+		complete(null, exception);
+	}
+
+	private boolean complete(final T result, final Exception error) {
+		final List<AsyncCallback<? super T>> todo;
+		lock.lock();
+		try {
+			if (done) {
+				return false;
+			}
+			this.response = result;
+			this.exception = error;
+			this.done = true;
+			condition.signalAll();
+			todo = callbacks;
+			callbacks = null;
+		} finally {
+			lock.unlock();
+		}
+		for (final AsyncCallback<? super T> callback : todo) {
+			notify(callback);
+		}
+		return true;
+	}
+
+	private void notify(final AsyncCallback<? super T> callback) {
+		try {
+			if (exception != null) {
+				callback.onFailure(exception);
+			} else {
+				callback.onSuccess(response);
+			}
+		} catch (final RuntimeException e) {
+			LOG.log(Level.WARNING, "Chained callback threw exception", e);
+		}
+	}
+
+	/**
+	 * Add a callback, which is called once this future completes. If the
+	 * future is already done, the callback is called directly.
+	 *
+	 * @param callback
+	 *            the callback
+	 * @return this future
+	 */
+	public CallbackFuture<T> addCallback(final AsyncCallback<? super T> callback) {
+		lock.lock();
+		try {
+			if (!done) {
+				callbacks.add(callback);
+				return this;
+			}
+		} finally {
+			lock.unlock();
+		}
+		notify(callback);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		return complete(null, new CancellationException());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	@Override
+	public boolean isCancelled() {
+		return done && exception instanceof CancellationException;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		if (!done) {
+			lock.lock();
+			ThreadPool.beginBlocking();
+			try {
+				while (!done) {
+					condition.await();
+				}
+			} finally {
+				ThreadPool.endBlocking();
+				lock.unlock();
+			}
+		}
+		return result();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public T get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done) {
+			long nanos = unit.toNanos(timeout);
+			lock.lock();
+			ThreadPool.beginBlocking();
+			try {
+				while (!done) {
+					if (nanos <= 0) {
+						throw new TimeoutException();
+					}
+					nanos = condition.awaitNanos(nanos);
+				}
+			} finally {
+				ThreadPool.endBlocking();
+				lock.unlock();
+			}
+		}
+		return result();
+	}
+
+	private T result() throws ExecutionException {
+		if (exception instanceof CancellationException) {
+			throw (CancellationException) exception;
+		}
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return response;
+	}
+}
@@ -8,6 +8,7 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.almende.util.TypeUtil;
+import com.almende.util.threads.ThreadPool;
 
 /**
  * The Class SyncCallback.
@@ -101,8 +102,15 @@ public class SyncCallback<T> extends AsyncCallback<T> {
 	public T get() throws Exception {
 		lock.lock();
 		waiting = true;
-		while (!done) {
-			condition.await();
+		if (!done) {
+			ThreadPool.beginBlocking();
+			try {
+				while (!done) {
+					condition.await();
+				}
+			} finally {
+				ThreadPool.endBlocking();
+			}
 		}
 		lock.unlock();
 		waiting = false;
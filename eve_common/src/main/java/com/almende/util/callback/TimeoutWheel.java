@@ -0,0 +1,131 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.callback;
+
+import java.util.concurrent.TimeUnit;
+
+import com.almende.util.threads.AbstractWheel;
+
+/**
+ * The Class TimeoutWheel, a hashed timing wheel which handles the timeouts of
+ * all AsyncCallbackStores with a single thread. Adding, cancelling and
+ * expiring a timeout are O(1); the resolution equals the tick duration.
+ * Timeouts further ahead than one rotation stay in their bucket until their
+ * deadline has passed.
+ */
+public final class TimeoutWheel extends AbstractWheel {
+	private static final TimeoutWheel	INSTANCE	= new TimeoutWheel(100,
+															512);
+
+	private final long					tickDuration;
+	private final Slot[]				wheel;
+	private final int					mask;
+	private long						tick		= 0;
+
+	/**
+	 * A timeout in the wheel. Subclasses implement the expire() method, which
+	 * is run on the ThreadPool.
+	 */
+	public abstract static class Timeout extends AbstractWheel.Entry {}
+
+	/**
+	 * Instantiates a new timeout wheel.
+	 *
+	 * @param tickDuration
+	 *            the tick duration in milliseconds
+	 * @param ticksPerWheel
+	 *            the ticks per wheel, rounded up to a power of two.
+	 */
+	public TimeoutWheel(final long tickDuration, final int ticksPerWheel) {
+		super("TimeoutWheel");
+		this.tickDuration = tickDuration;
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Slot();
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return the instance
+	 */
+	public static TimeoutWheel getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Schedule the timeout to expire after the given delay.
+	 *
+	 * @param timeout
+	 *            the timeout
+	 * @param delay
+	 *            the delay in milliseconds
+	 */
+	public void add(final Timeout timeout, final long delay) {
+		schedule(timeout, System.currentTimeMillis() + delay);
+	}
+
+	@Override
+	protected void loop() {
+		for (;;) {
+			final long deadline = getStartTime() + (tick + 1) * tickDuration;
+			long sleep = deadline - System.currentTimeMillis();
+			while (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {}
+				sleep = deadline - System.currentTimeMillis();
+			}
+			processCancelled();
+			transferAdded();
+			expire(wheel[(int) (tick & mask)], deadline);
+			tick++;
+		}
+	}
+
+	@Override
+	protected void place(final Entry entry) {
+		final long calculated = Math.max(0,
+				(entry.getDeadline() - getStartTime() + tickDuration - 1)
+						/ tickDuration);
+		// Never schedule into the past.
+		final long ticks = Math.max(calculated, tick);
+		wheel[(int) (ticks & mask)].add(entry);
+	}
+
+	private static void expire(final Slot bucket, final long now) {
+		if (bucket.isEmpty()) {
+			return;
+		}
+		final Slot entries = bucket.detach();
+		Entry entry = entries.poll();
+		while (entry != null) {
+			if (entry.getDeadline() <= now) {
+				expire(entry);
+			} else {
+				// Due in a later rotation.
+				bucket.add(entry);
+			}
+			entry = entries.poll();
+		}
+	}
+
+	/**
+	 * Gets the tick duration.
+	 *
+	 * @param unit
+	 *            the unit
+	 * @return the tick duration
+	 */
+	public long getTickDuration(final TimeUnit unit) {
+		return unit.convert(tickDuration, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class AbstractWheel, the common base of the timer wheels: the timer
+ * entries and their state, the slot lists and the handoff between the
+ * scheduling threads and the single ticker thread. Only the ticker thread
+ * touches the slots, other threads hand over new and cancelled entries through
+ * lock-free queues. The ticker thread is started on the first schedule.
+ */
+public abstract class AbstractWheel {
+	private static final Logger	LOG			= Logger.getLogger(AbstractWheel.class
+													.getName());
+	private static final int	MAXTRANSFER	= 100000;
+
+	private final Queue<Entry>	added		= new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry>	cancelled	= new ConcurrentLinkedQueue<Entry>();
+	private final Thread		ticker;
+	private volatile boolean	started		= false;
+	private long				startTime	= 0;
+
+	/**
+	 * An entry in a wheel. Subclasses implement the expire() method, which is
+	 * run on the ThreadPool.
+	 */
+	public abstract static class Entry implements Runnable {
+		private static final int		INIT		= 0;
+		private static final int		CANCELLED	= 1;
+		private static final int		EXPIRED		= 2;
+
+		private final AtomicInteger		state		= new AtomicInteger(INIT);
+		private long					deadline;
+		private Entry					next;
+		private Entry					prev;
+		private Slot					slot;
+		private volatile AbstractWheel	wheel;
+
+		/**
+		 * Cancel this entry.
+		 *
+		 * @return true, if the entry was cancelled before it expired.
+		 */
+		public boolean cancel() {
+			if (state.compareAndSet(INIT, CANCELLED)) {
+				final AbstractWheel wheel = this.wheel;
+				if (wheel != null) {
+					wheel.cancelled.add(this);
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Checks if this entry is cancelled.
+		 *
+		 * @return true, if is cancelled
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * Checks if this entry has expired.
+		 *
+		 * @return true, if is expired
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		/**
+		 * Gets the deadline.
+		 *
+		 * @return the deadline, in milliseconds since the epoch.
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Called once when the entry expires.
+		 */
+		public abstract void expire();
+
+		@Override
+		public void run() {
+			try {
+				expire();
+			} catch (final RuntimeException e) {
+				LOG.log(Level.WARNING, "Timer handler threw exception", e);
+			}
+		}
+	}
+
+	/**
+	 * A slot of a wheel, an intrusive doubly linked list of entries.
+	 */
+	protected static final class Slot {
+		private Entry	head;
+		private Entry	tail;
+
+		/**
+		 * Instantiates a new, empty slot.
+		 */
+		public Slot() {}
+
+		/**
+		 * Checks if the slot is empty.
+		 *
+		 * @return true, if is empty
+		 */
+		public boolean isEmpty() {
+			return head == null;
+		}
+
+		/**
+		 * Adds the entry at the end of the slot.
+		 *
+		 * @param entry
+		 *            the entry
+		 */
+		public void add(final Entry entry) {
+			entry.slot = this;
+			if (head == null) {
+				head = tail = entry;
+			} else {
+				tail.next = entry;
+				entry.prev = tail;
+				tail = entry;
+			}
+		}
+
+		/**
+		 * Removes the entry from the slot.
+		 *
+		 * @param entry
+		 *            the entry
+		 */
+		public void remove(final Entry entry) {
+			if (entry.prev != null) {
+				entry.prev.next = entry.next;
+			} else {
+				head = entry.next;
+			}
+			if (entry.next != null) {
+				entry.next.prev = entry.prev;
+			} else {
+				tail = entry.prev;
+			}
+			entry.prev = null;
+			entry.next = null;
+			entry.slot = null;
+		}
+
+		/**
+		 * Removes the first entry of the slot.
+		 *
+		 * @return the entry, or null if the slot is empty.
+		 */
+		public Entry poll() {
+			final Entry entry = head;
+			if (entry != null) {
+				remove(entry);
+			}
+			return entry;
+		}
+
+		/**
+		 * Moves all entries of this slot into a new slot, e.g. to re-place
+		 * them without seeing them twice.
+		 *
+		 * @return the new slot
+		 */
+		public Slot detach() {
+			final Slot result = new Slot();
+			for (Entry entry = head; entry != null; entry = entry.next) {
+				entry.slot = result;
+			}
+			result.head = head;
+			result.tail = tail;
+			head = tail = null;
+			return result;
+		}
+	}
+
+	/**
+	 * Instantiates a new wheel.
+	 *
+	 * @param name
+	 *            the name of the ticker thread
+	 */
+	protected AbstractWheel(final String name) {
+		this.ticker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		this.ticker.setDaemon(true);
+	}
+
+	/**
+	 * The ticker loop, run by the ticker thread.
+	 */
+	protected abstract void loop();
+
+	/**
+	 * Place a new entry in the wheel, called by the ticker thread.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	protected abstract void place(Entry entry);
+
+	private void start() {
+		if (!started) {
+			synchronized (ticker) {
+				if (!started) {
+					startTime = System.currentTimeMillis();
+					ticker.start();
+					started = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hand the entry over to the ticker thread, to expire at the given
+	 * deadline.
+	 *
+	 * @param entry
+	 *            the entry
+	 * @param deadline
+	 *            the deadline, in milliseconds since the epoch.
+	 */
+	protected final void schedule(final Entry entry, final long deadline) {
+		if (entry.wheel != null) {
+			throw new IllegalStateException("Timer already scheduled.");
+		}
+		start();
+		entry.deadline = deadline;
+		entry.wheel = this;
+		added.add(entry);
+	}
+
+	/**
+	 * Remove the cancelled entries from their slots.
+	 *
+	 * @return the number of entries removed from a slot.
+	 */
+	protected final int processCancelled() {
+		int count = 0;
+		Entry entry = cancelled.poll();
+		while (entry != null) {
+			if (entry.slot != null) {
+				entry.slot.remove(entry);
+				count++;
+			}
+			entry = cancelled.poll();
+		}
+		return count;
+	}
+
+	/**
+	 * Place the newly scheduled entries, skipping those already cancelled.
+	 *
+	 * @return the number of entries placed.
+	 */
+	protected final int transferAdded() {
+		int count = 0;
+		for (int i = 0; i < MAXTRANSFER; i++) {
+			final Entry entry = added.poll();
+			if (entry == null) {
+				break;
+			}
+			if (entry.isCancelled()) {
+				continue;
+			}
+			place(entry);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Checks for newly scheduled entries.
+	 *
+	 * @return true, if entries are waiting to be placed.
+	 */
+	protected final boolean hasAdded() {
+		return !added.isEmpty();
+	}
+
+	/**
+	 * Expire the entry (already removed from its slot), by running it on the
+	 * ThreadPool.
+	 *
+	 * @param entry
+	 *            the entry
+	 */
+	protected static void expire(final Entry entry) {
+		if (entry.state.compareAndSet(Entry.INIT, Entry.EXPIRED)) {
+			ThreadPool.getPool().execute(entry);
+		}
+	}
+
+	/**
+	 * Gets the time the ticker thread was started.
+	 *
+	 * @return the start time, in milliseconds since the epoch.
+	 */
+	protected final long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Gets the ticker thread.
+	 *
+	 * @return the ticker
+	 */
+	protected final Thread getTicker() {
+		return ticker;
+	}
+}
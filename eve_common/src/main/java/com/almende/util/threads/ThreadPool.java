@@ -7,6 +7,7 @@ package com.almende.util.threads;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -22,7 +23,8 @@ public class ThreadPool {
 	private static ThreadFactory				factory			= Executors
 																		.defaultThreadFactory();
 	private static ScheduledThreadPoolExecutor	scheduledPool	= null;
-	private static RunQueue						queue			= null;
+	private static ExecutorService				queue			= null;
+	private static boolean						workStealing	= false;
 
 	static {
 		initPools();
@@ -55,7 +57,7 @@ public class ThreadPool {
 			}
 		}, 1000, 1000, TimeUnit.MILLISECONDS);
 
-		queue = new RunQueue();
+		queue = workStealing ? new WorkStealingQueue() : new RunQueue();
 		for (Runnable task : openTasks) {
 			if (task instanceof RunnableScheduledFuture) {
 				final RunnableScheduledFuture<?> futureTask = (RunnableScheduledFuture<?>) task;
@@ -88,7 +90,51 @@ public class ThreadPool {
 	 *            the new max tasks
 	 */
 	public static void setMaxTasks(final int maxtasks) {
-		queue.setMaxTasks(maxtasks);
+		if (queue instanceof RunQueue) {
+			((RunQueue) queue).setMaxTasks(maxtasks);
+		}
+	}
+
+	/**
+	 * Select the WorkStealingQueue instead of the RunQueue as the pool returned
+	 * by getPool(). The WorkStealingQueue only compensates for blocked workers
+	 * that report their blocking through beginBlocking()/endBlocking().
+	 *
+	 * @param workStealing
+	 *            true to use the WorkStealingQueue
+	 */
+	public static void setWorkStealing(final boolean workStealing) {
+		if (ThreadPool.workStealing != workStealing) {
+			ThreadPool.workStealing = workStealing;
+			initPools();
+		}
+	}
+
+	/**
+	 * Checks if the WorkStealingQueue is used.
+	 *
+	 * @return true, if the WorkStealingQueue is used
+	 */
+	public static boolean isWorkStealing() {
+		return workStealing;
+	}
+
+	/**
+	 * Report that the current thread is about to block (e.g. waiting for a
+	 * reply or a lock). If the current thread is a pool worker, the pool can
+	 * activate a replacement worker. Must be matched by a call to
+	 * endBlocking(), preferably in a finally block.
+	 */
+	public static void beginBlocking() {
+		WorkStealingQueue.beginBlocking();
+	}
+
+	/**
+	 * Report that the current thread is no longer blocked, see
+	 * beginBlocking().
+	 */
+	public static void endBlocking() {
+		WorkStealingQueue.endBlocking();
 	}
 
 	/**
@@ -0,0 +1,353 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util.threads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class WorkStealingQueue. An alternative to the RunQueue, with the
+ * following behavior:
+ * -Unlimited queue, spread over per-worker deques
+ * -Idle workers steal tasks from the deques of other workers
+ * -Workers report blocking themselves (through
+ * {@link ThreadPool#beginBlocking()} and {@link ThreadPool#endBlocking()}),
+ * a replacement worker is activated immediately instead of after a scan.
+ * -Approximately nofCPU non-blocked workers.
+ *
+ * Note: tasks that block without reporting it (e.g. a plain Thread.sleep()) are
+ * not compensated for.
+ */
+public class WorkStealingQueue extends AbstractExecutorService {
+	private static final Logger		LOG				= Logger.getLogger(WorkStealingQueue.class
+															.getName());
+	private static final long		KEEPALIVE		= TimeUnit.SECONDS
+															.toNanos(60);
+
+	private final Object			workersLock		= new Object();
+	private volatile Worker[]		workers			= new Worker[0];
+	private final Queue<Worker>		idle			= new ConcurrentLinkedQueue<Worker>();
+	private final AtomicInteger		blocked			= new AtomicInteger(0);
+	private final AtomicInteger		next			= new AtomicInteger(0);
+
+	private int						nofCores;
+
+	private volatile boolean		isShutdown		= false;
+	private final Object			terminationLock	= new Object();
+
+	private class Worker extends Thread {
+		private final ConcurrentLinkedDeque<Runnable>	deque		= new ConcurrentLinkedDeque<Runnable>();
+		private volatile int							blockDepth	= 0;
+		private volatile boolean						isShutdown	= false;
+		private volatile boolean						isRetired	= false;
+
+		public Worker() {
+			this.setName("WorkStealingQueue_Worker");
+		}
+
+		private WorkStealingQueue getQueue() {
+			return WorkStealingQueue.this;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!isShutdown) {
+					Runnable task = deque.pollFirst();
+					if (task == null) {
+						task = steal(this);
+					}
+					if (task == null) {
+						if (WorkStealingQueue.this.isShutdown || !await(this)) {
+							break;
+						}
+						continue;
+					}
+					try {
+						task.run();
+					} catch (final RuntimeException e) {
+						LOG.log(Level.WARNING, "Task threw exception", e);
+					}
+				}
+			} finally {
+				threadTearDown(this);
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a new work stealing queue.
+	 */
+	public WorkStealingQueue() {
+		nofCores = Runtime.getRuntime().availableProcessors();
+		if (nofCores < 4) {
+			// Keep a minimum number of assumed cores, to prevent thread
+			// starvation.
+			nofCores = 4;
+		}
+		for (int i = 0; i < nofCores; i++) {
+			addWorker();
+		}
+	}
+
+	/**
+	 * Marks the current thread as blocked, if it is a worker of a
+	 * WorkStealingQueue. If this leaves less than nofCores runnable workers, a
+	 * replacement worker is activated. Calls may be nested, but must always be
+	 * matched by a call to {@link #endBlocking()}.
+	 */
+	public static void beginBlocking() {
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof Worker) {
+			final Worker worker = (Worker) thread;
+			if (worker.blockDepth++ == 0) {
+				final WorkStealingQueue queue = worker.getQueue();
+				queue.blocked.incrementAndGet();
+				if (queue.hasQueuedTasks()) {
+					queue.signalWork();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the current thread as runnable again, see {@link #beginBlocking()}.
+	 */
+	public static void endBlocking() {
+		final Thread thread = Thread.currentThread();
+		if (thread instanceof Worker) {
+			final Worker worker = (Worker) thread;
+			if (worker.blockDepth > 0 && --worker.blockDepth == 0) {
+				worker.getQueue().blocked.decrementAndGet();
+			}
+		}
+	}
+
+	private Worker addWorker() {
+		final Worker worker = new Worker();
+		synchronized (workersLock) {
+			final Worker[] arr = Arrays.copyOf(workers, workers.length + 1);
+			arr[arr.length - 1] = worker;
+			workers = arr;
+		}
+		worker.start();
+		return worker;
+	}
+
+	private boolean removeWorker(final Worker worker, final boolean onlySurplus) {
+		synchronized (workersLock) {
+			final Worker[] cur = workers;
+			if (onlySurplus && cur.length - blocked.get() <= nofCores) {
+				return false;
+			}
+			final List<Worker> list = new ArrayList<Worker>(Arrays.asList(cur));
+			if (!list.remove(worker)) {
+				return false;
+			}
+			workers = list.toArray(new Worker[list.size()]);
+			return true;
+		}
+	}
+
+	private void signalWork() {
+		final Worker worker = idle.poll();
+		if (worker != null) {
+			LockSupport.unpark(worker);
+			return;
+		}
+		if (!isShutdown && workers.length - blocked.get() < nofCores) {
+			addWorker();
+		}
+	}
+
+	private boolean hasQueuedTasks() {
+		for (final Worker worker : workers) {
+			if (!worker.deque.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Runnable steal(final Worker thief) {
+		final Worker[] arr = workers;
+		final int len = arr.length;
+		if (len == 0) {
+			return null;
+		}
+		final int start = (int) (thief.getId() % len);
+		for (int i = 0; i < len; i++) {
+			final Worker victim = arr[(start + i) % len];
+			if (victim != thief) {
+				final Runnable task = victim.deque.pollLast();
+				if (task != null) {
+					return task;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Park the worker until new work is signaled.
+	 *
+	 * @param worker
+	 *            the worker
+	 * @return false if the worker should retire.
+	 */
+	private boolean await(final Worker worker) {
+		if (removeWorker(worker, true)) {
+			// Surplus worker, e.g. a replacement for a no longer blocked one.
+			return false;
+		}
+		idle.add(worker);
+		if (hasQueuedTasks()) {
+			// Work arrived between our scan and registering as idle.
+			idle.remove(worker);
+			return true;
+		}
+		LockSupport.parkNanos(this, KEEPALIVE);
+		if (idle.remove(worker) && !hasQueuedTasks()) {
+			// Not signaled: timeout, shutdown or spurious wakeup.
+			if (isShutdown || removeWorker(worker, true)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void threadTearDown(final Worker worker) {
+		worker.isRetired = true;
+		removeWorker(worker, false);
+		idle.remove(worker);
+		if (!worker.isShutdown) {
+			// Hand over remaining tasks, e.g. after an Error in a task.
+			Runnable task = worker.deque.pollFirst();
+			while (task != null) {
+				execute(task);
+				task = worker.deque.pollFirst();
+			}
+			if (!isShutdown && workers.length - blocked.get() < nofCores) {
+				addWorker();
+			}
+		}
+		synchronized (terminationLock) {
+			terminationLock.notifyAll();
+		}
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (command == null) {
+			throw new NullPointerException(
+					"Command to execute may never be null.");
+		}
+		if (isShutdown()) {
+			LOG.warning("Execute called after shutdown, dropping command");
+			return;
+		}
+		final Thread thread = Thread.currentThread();
+		Worker target = null;
+		if (thread instanceof Worker && ((Worker) thread).getQueue() == this
+				&& ((Worker) thread).blockDepth == 0
+				&& !((Worker) thread).isRetired) {
+			target = (Worker) thread;
+		} else {
+			final Worker[] arr = workers;
+			final int len = arr.length;
+			if (len == 0) {
+				target = addWorker();
+			} else {
+				final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+				for (int i = 0; i < len; i++) {
+					target = arr[(start + i) % len];
+					if (target.blockDepth == 0) {
+						break;
+					}
+				}
+			}
+		}
+		target.deque.addLast(command);
+		if (target.isRetired && target.deque.removeLastOccurrence(command)) {
+			// Raced with a retiring worker, try again.
+			execute(command);
+			return;
+		}
+		signalWork();
+	}
+
+	@Override
+	public void shutdown() {
+		isShutdown = true;
+		for (final Worker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		isShutdown = true;
+		final List<Runnable> result = new ArrayList<Runnable>();
+		for (final Worker worker : workers) {
+			worker.isShutdown = true;
+			worker.interrupt();
+			Runnable task = worker.deque.pollFirst();
+			while (task != null) {
+				result.add(task);
+				task = worker.deque.pollFirst();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return isShutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return isShutdown && workers.length == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis()
+				+ TimeUnit.MILLISECONDS.convert(timeout, unit);
+		synchronized (terminationLock) {
+			while (!isTerminated()) {
+				final long sleepTime = deadline - System.currentTimeMillis();
+				if (sleepTime <= 0) {
+					break;
+				}
+				terminationLock.wait(sleepTime);
+			}
+		}
+		return isTerminated();
+	}
+
+	@Override
+	public String toString() {
+		int queued = 0;
+		final Worker[] arr = workers;
+		for (final Worker worker : arr) {
+			queued += worker.deque.size();
+		}
+		return this.getClass().getName() + ": wo:" + arr.length + " bl:"
+				+ blocked.get() + " id:" + idle.size() + " t:" + queued
+				+ " nofCores:" + nofCores;
+	}
+}
@@ -7,6 +7,7 @@ package com.almende.eve.instantiation;
 import java.lang.ref.WeakReference;
 
 import com.almende.eve.capabilities.handler.Handler;
+import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
@@ -53,11 +54,18 @@ public class HibernationHandler<T> implements Handler<T> {
 		if (referent.get() == null) {
 			service.init(getWakeKey());
 		}
-		while (referent.get() == null) {
-			synchronized (wakeLock) {
-				try {
-					wakeLock.wait();
-				} catch (final InterruptedException e) {}
+		if (referent.get() == null) {
+			ThreadPool.beginBlocking();
+			try {
+				while (referent.get() == null) {
+					synchronized (wakeLock) {
+						try {
+							wakeLock.wait();
+						} catch (final InterruptedException e) {}
+					}
+				}
+			} finally {
+				ThreadPool.endBlocking();
 			}
 		}
 		return referent.get();
@@ -0,0 +1,219 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.capabilities.handler.Handler;
+import com.almende.eve.protocol.Meta;
+import com.almende.eve.protocol.Protocol;
+import com.almende.eve.protocol.jsonrpc.formats.Codec;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class CodecProtocol, negotiates a binary encoding (Smile or CBOR) per
+ * peer. This protocol should be placed first in the protocol stack, nearest to
+ * the transports.
+ * <p>
+ * As long as the codec of a peer is unknown, outbound messages are send as
+ * JSON text, offering the configured codecs in the "codecs" member of
+ * "extra". A receiving CodecProtocol picks the first codec of the offer it
+ * supports itself and starts sending binary messages to that peer, which in
+ * turn start using that codec once these arrive. Peers without this protocol
+ * never offer codecs and therefore keep receiving JSON text. The negotiated
+ * codec expires after a configurable time without binary traffic from the
+ * peer, to handle peers that have been restarted with another configuration.
+ * </p>
+ */
+public class CodecProtocol implements Protocol {
+	private static final Logger				LOG		= Logger.getLogger(CodecProtocol.class
+															.getName());
+	private static final String				CODECS	= "codecs";
+	private final CodecProtocolConfig		params;
+	private final List<Codec>				codecs;
+	private final long						ttl;
+	private final ConcurrentHashMap<URI, Peer>	peers	= new ConcurrentHashMap<URI, Peer>();
+
+	private static final class Peer {
+		private final Codec	codec;
+		private final long	expires;
+
+		private Peer(final Codec codec, final long expires) {
+			this.codec = codec;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * Instantiates a new codec protocol.
+	 *
+	 * @param params
+	 *            the params
+	 * @param handle
+	 *            the handle
+	 */
+	public CodecProtocol(final ObjectNode params, final Handler<Object> handle) {
+		this.params = CodecProtocolConfig.decorate(params);
+		this.codecs = this.params.getCodecs();
+		this.ttl = this.params.getPeerTtl() * 1000L;
+	}
+
+	@Override
+	public ObjectNode getParams() {
+		return this.params;
+	}
+
+	@Override
+	public void delete() {
+		peers.clear();
+		CodecProtocolBuilder.delete(params.getId());
+	}
+
+	/**
+	 * Gets the codec currently used for the given peer.
+	 *
+	 * @param peer
+	 *            the peer
+	 * @return the codec, or null if no codec has been negotiated (yet).
+	 */
+	public Codec getCodec(final URI peer) {
+		if (peer == null) {
+			return null;
+		}
+		final Peer state = peers.get(peer);
+		if (state == null) {
+			return null;
+		}
+		if (state.expires < System.currentTimeMillis()) {
+			peers.remove(peer, state);
+			return null;
+		}
+		return state.codec;
+	}
+
+	private void setCodec(final URI peer, final Codec codec) {
+		if (peer != null) {
+			peers.put(peer, new Peer(codec, System.currentTimeMillis() + ttl));
+		}
+	}
+
+	private Codec select(final JsonNode offer) {
+		if (offer.isArray()) {
+			for (final JsonNode item : offer) {
+				final Codec codec = Codec.forName(item.asText());
+				if (codec != null && codecs.contains(codec)) {
+					return codec;
+				}
+			}
+		}
+		return Codec.JSON;
+	}
+
+	@Override
+	public boolean inbound(final Meta msg) {
+		final Object message = msg.getMsg();
+		try {
+			if (message instanceof byte[]) {
+				final byte[] data = (byte[]) message;
+				final Codec codec = Codec.detect(data);
+				if (codec.isBinary()) {
+					msg.setMsg(codec.decode(data));
+					setCodec(msg.getPeer(), codecs.contains(codec) ? codec
+							: Codec.JSON);
+					return msg.nextIn();
+				}
+				msg.setMsg(Codec.toMessage(data));
+			} else if (message instanceof String) {
+				final String text = (String) message;
+				final Codec codec = Codec.detect(text);
+				if (codec.isBinary()) {
+					msg.setMsg(codec.decode(text));
+					setCodec(msg.getPeer(), codecs.contains(codec) ? codec
+							: Codec.JSON);
+					return msg.nextIn();
+				}
+			}
+			if (msg.getMsg() instanceof String) {
+				final String text = (String) msg.getMsg();
+				if (!text.contains("\"" + CODECS + "\"")) {
+					// Plain JSON text without offer, peer doesn't negotiate.
+					setCodec(msg.getPeer(), Codec.JSON);
+					return msg.nextIn();
+				}
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't decode message from "
+					+ msg.getPeer(), e);
+			return false;
+		}
+		final JSONMessage json = JSONMessage.jsonConvert(msg.getMsg());
+		if (json != null) {
+			// Don't parse multiple times.
+			msg.setMsg(json);
+			final ObjectNode extra = json.getExtra();
+			final JsonNode offer = extra != null ? extra.remove(CODECS) : null;
+			if (offer != null) {
+				if (extra.size() == 0) {
+					json.setExtra(null);
+				}
+				setCodec(msg.getPeer(), select(offer));
+			} else if (!json.isBatch()) {
+				setCodec(msg.getPeer(), Codec.JSON);
+			}
+		}
+		return msg.nextIn();
+	}
+
+	@Override
+	public boolean outbound(final Meta msg) {
+		if (msg.getMsg() instanceof byte[] || codecs.isEmpty()) {
+			return msg.nextOut();
+		}
+		final Codec codec = getCodec(msg.getPeer());
+		if (Codec.JSON.equals(codec)) {
+			return msg.nextOut();
+		}
+		final JSONMessage message = JSONMessage.jsonConvert(msg.getMsg());
+		if (message == null) {
+			return msg.nextOut();
+		}
+		if (codec == null) {
+			if (!message.isBatch()) {
+				offer(message);
+			}
+			msg.setMsg(message);
+			return msg.nextOut();
+		}
+		try {
+			msg.setMsg(codec.encode(message.toJsonNode()));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't encode message with "
+					+ codec.getName() + ", sending JSON", e);
+			msg.setMsg(message);
+		}
+		return msg.nextOut();
+	}
+
+	private void offer(final JSONMessage message) {
+		ObjectNode extra = message.getExtra();
+		if (extra == null) {
+			extra = JOM.createObjectNode();
+			message.setExtra(extra);
+		}
+		final ArrayNode offer = extra.putArray(CODECS);
+		for (final Codec codec : codecs) {
+			offer.add(codec.getName());
+		}
+	}
+}
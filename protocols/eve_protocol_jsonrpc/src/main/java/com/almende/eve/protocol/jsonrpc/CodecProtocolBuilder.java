@@ -0,0 +1,57 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.almende.eve.capabilities.AbstractCapabilityBuilder;
+import com.almende.util.uuid.UUID;
+
+/**
+ * The Class CodecProtocolBuilder.
+ */
+public class CodecProtocolBuilder extends
+		AbstractCapabilityBuilder<CodecProtocol> {
+	private static final Logger						LOG			= Logger.getLogger(CodecProtocolBuilder.class
+																		.getName());
+	private static final Map<String, CodecProtocol>	INSTANCES	= new HashMap<String, CodecProtocol>();
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.capabilities.AbstractCapabilityBuilder#build()
+	 */
+	@Override
+	public CodecProtocol build() {
+		final CodecProtocolConfig config = CodecProtocolConfig
+				.decorate(getParams());
+		String id = config.getId();
+		if (id == null) {
+			id = new UUID().toString();
+			LOG.warning("Parameter 'id' is required for CodecProtocol. (giving temporary name: "
+					+ id + ")");
+		}
+
+		CodecProtocol result;
+		if (INSTANCES.containsKey(id)) {
+			result = INSTANCES.get(id);
+		} else {
+			result = new CodecProtocol(getParams(), null);
+		}
+		INSTANCES.put(id, result);
+		return result;
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param id
+	 *            the id
+	 */
+	public static void delete(final String id) {
+		INSTANCES.remove(id);
+	}
+}
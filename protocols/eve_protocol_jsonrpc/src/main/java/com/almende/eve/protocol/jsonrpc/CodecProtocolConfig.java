@@ -0,0 +1,113 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.almende.eve.protocol.ProtocolConfig;
+import com.almende.eve.protocol.jsonrpc.formats.Codec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class CodecProtocolConfig.
+ */
+public class CodecProtocolConfig extends ProtocolConfig {
+	private static final String	BUILDER	= CodecProtocolBuilder.class
+												.getName();
+
+	/**
+	 * Instantiates a new codec protocol config.
+	 */
+	protected CodecProtocolConfig() {
+		super();
+	}
+
+	/**
+	 * Instantiates a new codec protocol config.
+	 *
+	 * @return the codec protocol config
+	 */
+	public static CodecProtocolConfig create() {
+		final CodecProtocolConfig res = new CodecProtocolConfig();
+		res.setBuilder(BUILDER);
+		return res;
+	}
+
+	/**
+	 * Instantiates a new codec protocol config.
+	 *
+	 * @param node
+	 *            the node
+	 * @return the codec protocol config
+	 */
+	public static CodecProtocolConfig decorate(final ObjectNode node) {
+		final CodecProtocolConfig res = new CodecProtocolConfig();
+		res.extend(node);
+		return res;
+	}
+
+	/**
+	 * Sets the supported binary codecs, in order of preference. (e.g.
+	 * ["smile","cbor"])
+	 *
+	 * @param codecs
+	 *            the new codecs
+	 */
+	public void setCodecs(final List<String> codecs) {
+		final ArrayNode list = this.putArray("codecs");
+		for (final String codec : codecs) {
+			list.add(codec);
+		}
+	}
+
+	/**
+	 * Gets the supported binary codecs, in order of preference. Unknown
+	 * codecs are skipped.
+	 *
+	 * @return the codecs, defaults to smile and cbor.
+	 */
+	public List<Codec> getCodecs() {
+		final List<Codec> result = new ArrayList<Codec>();
+		if (this.has("codecs") && this.get("codecs").isArray()) {
+			for (final JsonNode item : this.get("codecs")) {
+				final Codec codec = Codec.forName(item.asText());
+				if (codec != null && codec.isBinary()) {
+					result.add(codec);
+				}
+			}
+		} else {
+			result.add(Codec.SMILE);
+			result.add(Codec.CBOR);
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the time a negotiated codec is kept for a peer, without receiving
+	 * binary messages from that peer. (in seconds)
+	 *
+	 * @param ttl
+	 *            the new peer ttl
+	 */
+	public void setPeerTtl(final int ttl) {
+		this.put("peerTtl", ttl);
+	}
+
+	/**
+	 * Gets the time a negotiated codec is kept for a peer, without receiving
+	 * binary messages from that peer. (in seconds)
+	 *
+	 * @return the peer ttl
+	 */
+	public int getPeerTtl() {
+		if (this.has("peerTtl")) {
+			return this.get("peerTtl").asInt();
+		}
+		return 300;
+	}
+}
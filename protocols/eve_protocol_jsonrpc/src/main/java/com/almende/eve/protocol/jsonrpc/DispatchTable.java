@@ -0,0 +1,548 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.protocol.auth.Authorizor;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.annotation.Name;
+import com.almende.eve.protocol.jsonrpc.annotation.Namespace;
+import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
+import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.util.AnnotationUtil;
+import com.almende.util.AnnotationUtil.AnnotatedClass;
+import com.almende.util.AnnotationUtil.AnnotatedMethod;
+import com.almende.util.AnnotationUtil.AnnotatedParam;
+import com.almende.util.AnnotationUtil.CachedAnnotation;
+import com.almende.util.Defines;
+import com.almende.util.TypeUtil;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class DispatchTable, the immutable JSON-RPC view of a single class: its
+ * callable methods (by RPC name) and its namespace getters. Tables are built
+ * once per class and shared between all threads; all reflection, annotation
+ * lookups and access rules are resolved during construction, leaving only
+ * hash lookups, parameter conversion and a MethodHandle call per request.
+ * Where MethodHandles are not available (e.g. on Android), methods are called
+ * through reflection.
+ */
+final class DispatchTable {
+	private static final Logger									LOG			= Logger.getLogger(DispatchTable.class
+																					.getName());
+	private static final ConcurrentMap<Class<?>, DispatchTable>	TABLES		= new ConcurrentHashMap<Class<?>, DispatchTable>();
+	private static final Object[]								NOPARAMS	= new Object[0];
+	private static final Invoker								OVERLOADED	= new Invoker();
+	private static final Object									MISSING		= new Object();
+	private static final boolean								HANDLES		= Defines.HASMETHODHANDLES
+																					|| probeHandles();
+
+	private final Class<?>										clazz;
+	private final Map<String, Invoker>							methods;
+	private final Map<String, Invoker>							namespaces;
+	private final List<Invoker>									wildcards;
+	private final List<String>									paths;
+
+	private DispatchTable(final Class<?> clazz) {
+		this.clazz = clazz;
+		final AnnotatedClass annotated = AnnotationUtil.get(clazz);
+		final CachedAnnotation classAccess = annotated
+				.getAnnotation(Access.class);
+
+		final Map<String, Invoker> methods = new HashMap<String, Invoker>();
+		final List<String> paths = new ArrayList<String>();
+		for (final Map.Entry<String, List<AnnotatedMethod>> entry : annotated
+				.getMethodNames().entrySet()) {
+			final List<AnnotatedMethod> list = entry.getValue();
+			if (list.size() == 1) {
+				final AnnotatedMethod method = list.get(0);
+				methods.put(entry.getKey(), new Invoker(method, classAccess));
+				if (method.getAnnotation(Namespace.class) == null) {
+					final CachedAnnotation name = method
+							.getAnnotation(Name.class);
+					paths.add(name != null ? (String) name.value() : entry
+							.getKey());
+				}
+			} else {
+				methods.put(entry.getKey(), OVERLOADED);
+			}
+		}
+		// @Name aliases, plain method names take precedence.
+		for (final AnnotatedMethod method : annotated
+				.getAnnotatedMethods(Name.class)) {
+			final String alias = (String) method.getAnnotation(Name.class)
+					.value();
+			if (!methods.containsKey(alias)) {
+				methods.put(alias, new Invoker(method, classAccess));
+			}
+		}
+
+		final Map<String, Invoker> namespaces = new HashMap<String, Invoker>();
+		final List<Invoker> wildcards = new ArrayList<Invoker>();
+		for (final AnnotatedMethod method : annotated
+				.getAnnotatedMethods(Namespace.class)) {
+			final String namespace = (String) method.getAnnotation(
+					Namespace.class).value();
+			if (namespace.equals("*")) {
+				// divert namespace labeling to referred class.
+				wildcards.add(new Invoker(method, classAccess));
+			} else {
+				namespaces.put(namespace, new Invoker(method, classAccess));
+			}
+		}
+		this.methods = Collections.unmodifiableMap(methods);
+		this.namespaces = Collections.unmodifiableMap(namespaces);
+		this.wildcards = Collections.unmodifiableList(wildcards);
+		this.paths = Collections.unmodifiableList(paths);
+	}
+
+	/**
+	 * Gets the dispatch table of the given class, building it on first use.
+	 *
+	 * @param clazz
+	 *            the clazz
+	 * @return the dispatch table
+	 */
+	static DispatchTable get(final Class<?> clazz) {
+		DispatchTable table = TABLES.get(clazz);
+		if (table == null) {
+			table = new DispatchTable(clazz);
+			final DispatchTable other = TABLES.putIfAbsent(clazz, table);
+			if (other != null) {
+				table = other;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the invoker for the given (non-namespaced) method name.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the invoker, or null if the class has no such method.
+	 */
+	Invoker getMethod(final String name) {
+		final Invoker result = methods.get(name);
+		if (result != null && result.method == null) {
+			// TODO: If we ever want to support method overloading, this needs
+			// to be fixed to return multiple methods.
+			throw new UnsupportedOperationException(
+					"Method '"
+							+ name
+							+ "' in class '"
+							+ clazz.getName()
+							+ "' is overloaded, which is not supported by this JSON-RPC implementation.");
+		}
+		return result;
+	}
+
+	/**
+	 * Resolve a namespace of the given destination.
+	 *
+	 * @param destination
+	 *            the destination, an instance of this table's class
+	 * @param namespace
+	 *            the namespace
+	 * @return the object handling the namespace, or null if the namespace
+	 *         getter returned null.
+	 * @throws IllegalAccessException
+	 *             the illegal access exception
+	 * @throws InvocationTargetException
+	 *             the invocation target exception
+	 */
+	Object getNamespace(final Object destination, final String namespace)
+			throws IllegalAccessException, InvocationTargetException {
+		final Invoker getter = namespaces.get(namespace);
+		if (getter != null) {
+			return getter.invoke(destination, NOPARAMS);
+		}
+		for (final Invoker wildcard : wildcards) {
+			final Object result = wildcard.invoke(destination, NOPARAMS);
+			if (result != null && namespace.equals(getNamespaceName(result))) {
+				return result;
+			}
+		}
+		throw new IllegalStateException("Non resolveable namespace given:'"
+				+ namespace + "' in class:" + clazz.getName());
+	}
+
+	/**
+	 * Adds the paths of all callable methods of the destination and its
+	 * namespaces to the result.
+	 *
+	 * @param result
+	 *            the result
+	 * @param destination
+	 *            the destination, an instance of this table's class
+	 * @param prefix
+	 *            the namespace prefix
+	 */
+	void addMethodPaths(final List<String> result, final Object destination,
+			final String prefix) {
+		for (final String path : paths) {
+			result.add(prefix + path);
+		}
+		for (final Map.Entry<String, Invoker> namespace : namespaces
+				.entrySet()) {
+			addNamespacePaths(result, destination, namespace.getValue(),
+					prefix, namespace.getKey());
+		}
+		for (final Invoker wildcard : wildcards) {
+			addNamespacePaths(result, destination, wildcard, prefix, null);
+		}
+	}
+
+	private static void addNamespacePaths(final List<String> result,
+			final Object destination, final Invoker getter,
+			final String prefix, final String namespace) {
+		try {
+			final Object newDest = getter.invoke(destination, NOPARAMS);
+			if (newDest != null) {
+				final String name = namespace != null ? namespace
+						: getNamespaceName(newDest);
+				if (name != null) {
+					get(newDest.getClass()).addMethodPaths(result, newDest,
+							prefix + name + ".");
+				}
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Namespace getter ran into trouble", e);
+		}
+	}
+
+	private static boolean probeHandles() {
+		try {
+			return MethodHandleInvoker.create(Object.class
+					.getMethod("hashCode")) != null;
+		} catch (final NoSuchMethodException | LinkageError e) {
+			LOG.log(Level.FINE, "MethodHandles not available", e);
+			return false;
+		}
+	}
+
+	private static String getNamespaceName(final Object destination) {
+		final CachedAnnotation anno = AnnotationUtil.get(
+				destination.getClass()).getAnnotation(Namespace.class);
+		return anno != null ? (String) anno.value() : null;
+	}
+
+	/**
+	 * The Class Invoker, a precompiled method: its MethodHandle (if
+	 * available), access rules and parameter binders.
+	 */
+	static final class Invoker {
+		private final AnnotatedMethod		method;
+		private final MethodHandleInvoker	handle;
+		private final Binder[]				binders;
+		private final Map<String, Binder>	named;
+		private final boolean				passParams;
+		private final boolean				callable;
+		private final CachedAnnotation		access;
+
+		/**
+		 * Placeholder for an overloaded method.
+		 */
+		private Invoker() {
+			this.method = null;
+			this.handle = null;
+			this.binders = new Binder[0];
+			this.named = Collections.emptyMap();
+			this.passParams = false;
+			this.callable = false;
+			this.access = null;
+		}
+
+		private Invoker(final AnnotatedMethod method,
+				final CachedAnnotation classAccess) {
+			this.method = method;
+			this.handle = HANDLES ? MethodHandleInvoker.create(method
+					.getActualMethod()) : null;
+
+			final List<AnnotatedParam> params = method.getParams();
+			boolean allNamed = true;
+			binders = new Binder[params.size()];
+			final Map<String, Binder> named = new HashMap<String, Binder>();
+			for (int i = 0; i < binders.length; i++) {
+				binders[i] = new Binder(params.get(i), i);
+				allNamed &= binders[i].kind != Binder.UNNAMED;
+				if (binders[i].kind == Binder.NAMED) {
+					named.put(binders[i].name, binders[i]);
+				}
+			}
+			this.named = Collections.unmodifiableMap(named);
+			// the method expects one parameter of type JSONObject
+			// feed the params object itself to it.
+			passParams = params.size() == 1
+					&& params.get(0).getType().equals(ObjectNode.class)
+					&& params.get(0).getAnnotations().isEmpty();
+
+			callable = allNamed
+					&& Modifier.isPublic(method.getActualMethod()
+							.getModifiers());
+			final CachedAnnotation methodAccess = method
+					.getAnnotation(Access.class);
+			access = methodAccess != null ? methodAccess : classAccess;
+		}
+
+		/**
+		 * Gets the annotated method.
+		 *
+		 * @return the method
+		 */
+		AnnotatedMethod getMethod() {
+			return method;
+		}
+
+		/**
+		 * Check whether this method is available for JSON-RPC calls. This is
+		 * the case when it is public, has named parameters, and has a public or
+		 * private @Access annotation (on the method or its class).
+		 *
+		 * @param senderUrl
+		 *            the sender url
+		 * @param auth
+		 *            the auth
+		 * @return true, if is available
+		 */
+		boolean isAvailable(final URI senderUrl, final Authorizor auth) {
+			if (!callable || access == null) {
+				// Default: UNAVAILABLE!
+				return false;
+			}
+			final AccessType value = (AccessType) access.value();
+			switch (value) {
+				case PUBLIC:
+					return true;
+				case UNAVAILABLE:
+					return false;
+				case PRIVATE:
+					return auth != null ? auth.onAccess(senderUrl,
+							((Access) access.getAnnotation()).tag()) : false;
+				case SELF:
+					return auth != null ? auth.isSelf(senderUrl) : false;
+				default:
+					return false;
+			}
+		}
+
+		/**
+		 * Convert the JSON-RPC params into the arguments of this method. The
+		 * first element of the result is reserved for the destination.
+		 *
+		 * @param params
+		 *            the params
+		 * @param senderUrl
+		 *            the sender url
+		 * @param requestId
+		 *            the request id
+		 * @return the arguments
+		 */
+		Object[] bind(final ObjectNode params, final URI senderUrl,
+				final JsonNode requestId) {
+			final Object[] objects = new Object[binders.length + 1];
+			if (passParams) {
+				objects[1] = params;
+				return objects;
+			}
+			for (final Binder binder : binders) {
+				objects[binder.index + 1] = binder.bind(
+						binder.name != null ? params.get(binder.name) : null,
+						senderUrl, requestId);
+			}
+			return objects;
+		}
+
+		/**
+		 * Checks if the params of this method can be read directly from a
+		 * parser, through {@link #read(JsonParser)}.
+		 *
+		 * @return true, if successful
+		 */
+		boolean canRead() {
+			return callable && !passParams;
+		}
+
+		/**
+		 * Read the JSON-RPC params object directly from the parser into the
+		 * arguments of this method, without building an intermediate tree.
+		 * The parser must be positioned at the start of the params object.
+		 * The result still needs to be completed through
+		 * {@link #complete(Object[], URI, JsonNode)}.
+		 *
+		 * @param parser
+		 *            the parser
+		 * @return the (incomplete) arguments
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		Object[] read(final JsonParser parser) throws IOException {
+			final Object[] objects = new Object[binders.length + 1];
+			Arrays.fill(objects, 1, objects.length, MISSING);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final Binder binder = named.get(parser.getCurrentName());
+				parser.nextToken();
+				if (binder != null) {
+					objects[binder.index + 1] = binder.read(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return objects;
+		}
+
+		/**
+		 * Complete the arguments obtained through {@link #read(JsonParser)}:
+		 * checks missing parameters and fills in the @Sender and @RequestId
+		 * parameters.
+		 *
+		 * @param objects
+		 *            the objects
+		 * @param senderUrl
+		 *            the sender url
+		 * @param requestId
+		 *            the request id
+		 * @return the arguments
+		 */
+		Object[] complete(final Object[] objects, final URI senderUrl,
+				final JsonNode requestId) {
+			for (final Binder binder : binders) {
+				if (objects[binder.index + 1] == MISSING) {
+					objects[binder.index + 1] = binder.bind(null, senderUrl,
+							requestId);
+				}
+			}
+			return objects;
+		}
+
+		/**
+		 * Invoke the method on the destination, with arguments obtained through
+		 * {@link #bind(ObjectNode, URI, JsonNode)}.
+		 *
+		 * @param destination
+		 *            the destination
+		 * @param args
+		 *            the args, args[0] will be set to the destination.
+		 * @return the result, null for void methods.
+		 * @throws IllegalAccessException
+		 *             the illegal access exception
+		 * @throws InvocationTargetException
+		 *             wrapping any exception thrown by the method itself.
+		 */
+		Object invoke(final Object destination, final Object[] args)
+				throws IllegalAccessException, InvocationTargetException {
+			final Object[] params = args.length == 0 ? new Object[1] : args;
+			params[0] = destination;
+			if (handle == null) {
+				final Object[] reflectParams = new Object[params.length - 1];
+				System.arraycopy(params, 1, reflectParams, 0,
+						reflectParams.length);
+				return method.getActualMethod().invoke(destination,
+						reflectParams);
+			}
+			try {
+				return handle.invoke(params);
+			} catch (final Throwable t) {
+				throw new InvocationTargetException(t);
+			}
+		}
+	}
+
+	/**
+	 * The Class Binder, converts a single parameter.
+	 */
+	private static final class Binder {
+		private static final int	NAMED		= 0;
+		private static final int	SENDER		= 1;
+		private static final int	SENDERSTR	= 2;
+		private static final int	REQUESTID	= 3;
+		private static final int	UNNAMED		= 4;
+
+		private final int			index;
+		private final int			kind;
+		private final String		name;
+		private final Class<?>		rawType;
+		private final JavaType		javaType;
+		private final boolean		required;
+
+		private Binder(final AnnotatedParam param, final int index) {
+			this.index = index;
+			this.name = JSONRpc.getName(param);
+			this.rawType = param.getType();
+			this.javaType = JOM.getTypeFactory().constructType(
+					param.getGenericType());
+			this.required = JSONRpc.isRequired(param);
+			if (name != null) {
+				kind = NAMED;
+			} else if (param.getAnnotation(Sender.class) != null) {
+				kind = rawType.equals(String.class) ? SENDERSTR : SENDER;
+			} else if (param.getAnnotation(RequestId.class) != null) {
+				kind = REQUESTID;
+			} else {
+				kind = UNNAMED;
+			}
+		}
+
+		private Object read(final JsonParser parser) throws IOException {
+			if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+				// Same as TypeUtil.inject(): JsonNode receives the NullNode.
+				return rawType.equals(JsonNode.class) ? NullNode.getInstance()
+						: null;
+			}
+			return JOM.getInstance().readValue(parser, javaType);
+		}
+
+		private Object bind(final JsonNode value, final URI senderUrl,
+				final JsonNode requestId) {
+			switch (kind) {
+				case NAMED:
+					if (value != null) {
+						return TypeUtil.inject(value, javaType);
+					}
+					if (required) {
+						throw new ClassCastException("Required parameter '"
+								+ name + "' missing.");
+					} else if (rawType.isPrimitive()) {
+						throw new ClassCastException("Parameter '" + name
+								+ "' cannot be both optional and "
+								+ "a primitive type ("
+								+ rawType.getSimpleName() + ")");
+					}
+					return null;
+				case SENDER:
+					return senderUrl;
+				case SENDERSTR:
+					LOG.warning("Deprecated parameter usage: @Sender should now by an URI i.s.o. String");
+					return senderUrl.toString();
+				case REQUESTID:
+					return requestId;
+				default:
+					throw new ClassCastException("Name of parameter " + index
+							+ " not defined");
+			}
+		}
+	}
+}
@@ -5,35 +5,34 @@
 package com.almende.eve.protocol.jsonrpc;
 
 import java.io.IOException;
-import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.almende.eve.protocol.auth.Authorizor;
+import com.almende.eve.protocol.jsonrpc.DispatchTable.Invoker;
 import com.almende.eve.protocol.jsonrpc.NamespaceUtil.CallTuple;
-import com.almende.eve.protocol.jsonrpc.annotation.Access;
-import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
 import com.almende.eve.protocol.jsonrpc.annotation.Name;
 import com.almende.eve.protocol.jsonrpc.annotation.Optional;
 import com.almende.eve.protocol.jsonrpc.annotation.RequestId;
 import com.almende.eve.protocol.jsonrpc.annotation.Sender;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
 import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
-import com.almende.util.AnnotationUtil;
-import com.almende.util.AnnotationUtil.AnnotatedMethod;
 import com.almende.util.AnnotationUtil.AnnotatedParam;
 import com.almende.util.AnnotationUtil.CachedAnnotation;
-import com.almende.util.Defines;
 import com.almende.util.TypeUtil;
 import com.almende.util.URIUtil;
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.SyncCallback;
 import com.almende.util.jackson.JOM;
+import com.almende.util.threads.ThreadPool;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -43,22 +42,15 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * The Class JSONRPC.
  */
 public final class JSONRpc {
-	private static final Logger	LOG	= Logger.getLogger(JSONRpc.class.getName());
-
-	static {
-		if (Defines.HASMETHODHANDLES) {
-			LOG.log(Level.FINE, "Using MethodHandle i.s.o. plain reflection!");
-		} else {
-			LOG.log(Level.FINE, "Using plain reflection i.s.o. MethodHandle!");
-		}
-	}
+	private static final Logger					LOG				= Logger.getLogger(JSONRpc.class
+																		.getName());
+	private static final TypeUtil<JSONBatch>	JSONBATCHTYPE	= new TypeUtil<JSONBatch>() {};
 
 	/**
 	 * Instantiates a new jsonrpc.
 	 */
 	private JSONRpc() {}
 
-	// TODO: implement JSONRPC 2.0 Batch
 	/**
 	 * Invoke a method on an object.
 	 * 
@@ -88,17 +80,45 @@ public final class JSONRpc {
 	 *            the sender url
 	 * @param auth
 	 *            the auth
-	 * @return the string
+	 * @return the string, or null if the request is a batch of only
+	 *         notifications.
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	public static String invoke(final Object destination, final String request,
 			final URI senderUrl, final Authorizor auth) throws IOException {
-		JSONRequest jsonRequest = null;
+		if (JSONBatch.isBatch(request)) {
+			final SyncCallback<JSONBatch> callback = new SyncCallback<JSONBatch>(
+					JSONBATCHTYPE);
+			try {
+				final JSONBatch batch = new JSONBatch(request);
+				if (batch.isEmpty()) {
+					throw new JSONRPCException(
+							JSONRPCException.CODE.INVALID_REQUEST,
+							"Empty JSON-RPC batch");
+				}
+				invoke(destination, batch, senderUrl, auth, callback);
+				final JSONBatch result = callback.get();
+				// No empty array is returned for a batch of notifications.
+				return result.isEmpty() ? null : result.toString();
+			} catch (final JSONRPCException err) {
+				return new JSONResponse(err).toString();
+			} catch (final IOException err) {
+				throw err;
+			} catch (final Exception err) {
+				throw new IOException(err);
+			}
+		}
 		JSONResponse jsonResponse = null;
 		try {
-			jsonRequest = new JSONRequest(request);
-			jsonResponse = invoke(destination, jsonRequest, senderUrl, auth);
+			final StreamingRequest streamed = StreamingRequest.read(
+					destination, request, senderUrl, auth);
+			if (streamed != null && streamed.getMessage() instanceof JSONRequest) {
+				jsonResponse = invoke(destination, streamed, senderUrl, auth);
+			} else {
+				jsonResponse = invoke(destination, new JSONRequest(request),
+						senderUrl, auth);
+			}
 		} catch (final JSONRPCException err) {
 			jsonResponse = new JSONResponse(err);
 		}
@@ -138,43 +158,55 @@ public final class JSONRpc {
 	public static JSONResponse invoke(final Object destination,
 			final JSONRequest request, final URI senderUrl,
 			final Authorizor auth) {
+		return invoke(destination, request, null, null, senderUrl, auth);
+	}
+
+	/**
+	 * Invoke a request read by a StreamingRequest, using its bound params if
+	 * available.
+	 *
+	 * @param destination
+	 *            the destination
+	 * @param request
+	 *            the request, its message must be a JSONRequest
+	 * @param senderUrl
+	 *            the sender url
+	 * @param auth
+	 *            the auth
+	 * @return the JSON response
+	 */
+	static JSONResponse invoke(final Object destination,
+			final StreamingRequest request, final URI senderUrl,
+			final Authorizor auth) {
+		return invoke(destination, (JSONRequest) request.getMessage(),
+				request.getTuple(), request.getArgs(), senderUrl, auth);
+	}
+
+	private static JSONResponse invoke(final Object destination,
+			final JSONRequest request, final CallTuple boundTuple,
+			final Object[] boundArgs, final URI senderUrl,
+			final Authorizor auth) {
 		JSONResponse resp = null;
 		final JsonNode id = request.getId();
 		if (id != null && !id.isNull()) {
 			resp = new JSONResponse(id, null);
 		}
 		try {
-			final CallTuple tuple = NamespaceUtil.get(destination,
-					request.getMethod());
+			final CallTuple tuple = boundTuple != null ? boundTuple
+					: NamespaceUtil.get(destination, request.getMethod());
 
-			final Object realDest = tuple.getDestination();
-			final AnnotatedMethod annotatedMethod = tuple.getMethod();
-			if (!isAvailable(annotatedMethod, realDest, senderUrl, auth)) {
+			final Invoker invoker = tuple.getInvoker();
+			if (invoker == null || !invoker.isAvailable(senderUrl, auth)) {
 				throw new JSONRPCException(
 						JSONRPCException.CODE.METHOD_NOT_FOUND,
 						"Method '"
 								+ request.getMethod()
 								+ "' not found. The method does not exist or you are not authorized.");
 			}
-			final MethodHandle methodHandle = annotatedMethod.getMethodHandle();
-			final Method method = annotatedMethod.getActualMethod();
-
-			Object result = null;
-
-			if (Defines.HASMETHODHANDLES) {
-				final Object[] params = castParams(realDest,
-						request.getParams(), annotatedMethod.getParams(),
-						senderUrl, request.getId());
-				if (annotatedMethod.isVoid()) {
-					methodHandle.invokeExact(params);
-				} else {
-					result = methodHandle.invokeExact(params);
-				}
-			} else {
-				final Object[] params = castParams(request.getParams(),
-						annotatedMethod.getParams(), senderUrl, request.getId());
-				result = method.invoke(realDest, params);
-			}
+			final Object[] params = boundArgs != null ? invoker.complete(
+					boundArgs, senderUrl, request.getId()) : invoker.bind(
+					request.getParams(), senderUrl, request.getId());
+			Object result = invoker.invoke(tuple.getDestination(), params);
 			if (resp != null) {
 				if (result == null) {
 					result = JOM.createNullNode();
@@ -222,6 +254,82 @@ public final class JSONRpc {
 		return resp;
 	}
 
+	/**
+	 * Invoke the requests of a JSON-RPC 2.0 batch on an object. The requests
+	 * are invoked concurrently on the ThreadPool; once all are done, the
+	 * callback receives a single batch with their responses. Invalid elements
+	 * are answered with an error, notifications and responses in the batch
+	 * don't generate a response.
+	 *
+	 * @param destination
+	 *            the destination
+	 * @param batch
+	 *            the batch
+	 * @param senderUrl
+	 *            the sender url
+	 * @param auth
+	 *            the auth
+	 * @param callback
+	 *            the callback, receiving the batch of responses
+	 */
+	public static void invoke(final Object destination, final JSONBatch batch,
+			final URI senderUrl, final Authorizor auth,
+			final AsyncCallback<JSONBatch> callback) {
+		final List<JSONMessage> messages = batch.getMessages();
+		final int size = messages.size();
+		final JSONResponse[] responses = new JSONResponse[size];
+		final AtomicInteger todo = new AtomicInteger(size + 1);
+		final Runnable done = new Runnable() {
+			@Override
+			public void run() {
+				if (todo.decrementAndGet() == 0) {
+					final JSONBatch result = new JSONBatch();
+					for (final JSONResponse response : responses) {
+						if (response != null) {
+							result.add(response);
+						}
+					}
+					callback.onSuccess(result);
+				}
+			}
+		};
+		JSONRequest last = null;
+		int lastIndex = -1;
+		for (int i = 0; i < size; i++) {
+			final JSONMessage message = messages.get(i);
+			if (message == null
+					|| !(message.isRequest() || message.isResponse())) {
+				responses[i] = new JSONResponse(new JSONRPCException(
+						JSONRPCException.CODE.INVALID_REQUEST,
+						"Invalid element in JSON-RPC batch"));
+				done.run();
+			} else if (message.isRequest()) {
+				if (last != null) {
+					final JSONRequest request = last;
+					final int index = lastIndex;
+					ThreadPool.getPool().execute(new Runnable() {
+						@Override
+						public void run() {
+							responses[index] = invoke(destination, request,
+									senderUrl, auth);
+							done.run();
+						}
+					});
+				}
+				last = (JSONRequest) message;
+				lastIndex = i;
+			} else {
+				done.run();
+			}
+		}
+		if (last != null) {
+			// Handle the last request in the current thread.
+			responses[lastIndex] = invoke(destination, last, senderUrl, auth);
+			done.run();
+		}
+		done.run();
+	}
+
 	/**
 	 * Describe all JSON-RPC methods of given class.
 	 * Format:
@@ -242,8 +350,9 @@ public final class JSONRpc {
 		for (final String path : NamespaceUtil.getAllMethodPaths(c)) {
 			try {
 				final CallTuple method = NamespaceUtil.get(c, path);
-				if (isAvailable(method.getMethod(), method.getDestination(),
-						URIUtil.create("local:null"), auth)) {
+				if (method.getInvoker() != null
+						&& method.getInvoker().isAvailable(
+								URIUtil.create("local:null"), auth)) {
 					final ObjectNode result = JOM.createObjectNode();
 					result.put("type", "method");
 					result.put("description", typeToString(method.getMethod()
@@ -328,201 +437,6 @@ public final class JSONRpc {
 		return cause.toString();
 	}
 
-	/**
-	 * @param params
-	 * @param annotatedParams
-	 * @param requestParams
-	 * @return the Object[]
-	 */
-	private static Object[] castParams(final ObjectNode params,
-			final List<AnnotatedParam> annotatedParams, final URI senderUrl,
-			final JsonNode requestId) {
-		return castParams(null, params, annotatedParams, senderUrl, requestId);
-	}
-
-	/**
-	 * Cast a JSONArray or JSONObject params to the desired paramTypes.
-	 * 
-	 * @param params
-	 *            the params
-	 * @param annotatedParams
-	 *            the annotated params
-	 * @param requestParams
-	 *            the request params
-	 * @return the object[]
-	 */
-	private static Object[] castParams(final Object realDest,
-			final ObjectNode params,
-			final List<AnnotatedParam> annotatedParams, final URI senderUrl,
-			final JsonNode requestId) {
-
-		switch (annotatedParams.size()) {
-			case 0:
-				if (realDest != null) {
-					return new Object[] { realDest };
-				} else {
-					return new Object[0];
-				}
-				/* -- Unreachable, explicit no break -- */
-			case 1:
-				final AnnotatedParam parm = annotatedParams.get(0);
-				if (parm.getType().equals(ObjectNode.class)
-						&& parm.getAnnotations().isEmpty()) {
-					// the method expects one parameter of type JSONObject
-					// feed the params object itself to it.
-					if (realDest != null) {
-						return new Object[] { realDest, params };
-					} else {
-						return new Object[] { params };
-					}
-				}
-				/* -- Explicit no break -- */
-			default:
-				final ObjectNode paramsObject = (ObjectNode) params;
-				int offset = 0;
-				if (realDest != null) {
-					offset = 1;
-				}
-				final Object[] objects = new Object[annotatedParams.size()
-						+ offset];
-				if (realDest != null) {
-					objects[0] = realDest;
-				}
-				for (int i = 0; i < annotatedParams.size(); i++) {
-					final AnnotatedParam p = annotatedParams.get(i);
-					final String name = getName(p);
-					if (name == null) {
-						CachedAnnotation a = p.getAnnotation(Sender.class);
-						if (a != null) {
-							// this is a systems parameter
-							if (p.getType().equals(String.class)) {
-								LOG.warning("Deprecated parameter usage: @Sender should now by an URI i.s.o. String");
-								objects[i + offset] = senderUrl.toString();
-							} else {
-								objects[i + offset] = senderUrl;
-							}
-						} else {
-							a = p.getAnnotation(RequestId.class);
-							if (a != null) {
-								objects[i + offset] = requestId;
-							} else {
-								// this is a problem
-								throw new ClassCastException(
-										"Name of parameter " + i
-												+ " not defined");
-							}
-						}
-					} else {
-						// this is a named parameter
-						if (paramsObject.has(name)) {
-							objects[i + offset] = TypeUtil.inject(
-									paramsObject.get(name), p.getGenericType());
-						} else {
-							if (isRequired(p)) {
-								throw new ClassCastException(
-										"Required parameter '" + name
-												+ "' missing.");
-							} else if (p.getType().isPrimitive()) {
-								// TODO: should this test be moved to
-								// isAvailable()?
-								throw new ClassCastException("Parameter '"
-										+ name
-										+ "' cannot be both optional and "
-										+ "a primitive type ("
-										+ p.getType().getSimpleName() + ")");
-							} else {
-								objects[i + offset] = null;
-							}
-						}
-					}
-				}
-				return objects;
-		}
-	}
-
-	/**
-	 * Check whether a method is available for JSON-RPC calls. This is the case
-	 * when it is public, has named parameters, and has a public or private @Access
-	 * annotation
-	 * 
-	 * @param method
-	 *            the method
-	 * @param destination
-	 *            the destination
-	 * @param requestParams
-	 *            the request params
-	 * @param auth
-	 *            the auth
-	 * @return available
-	 */
-	private static boolean isAvailable(final AnnotatedMethod method,
-			final Object destination, final URI senderUrl, final Authorizor auth) {
-
-		if (method == null) {
-			return false;
-		}
-		if (destination != null
-				&& !method.getActualMethod().getDeclaringClass()
-						.isAssignableFrom(destination.getClass())) {
-			return false;
-		}
-		final int mod = method.getActualMethod().getModifiers();
-		if (!(Modifier.isPublic(mod) && hasNamedParams(method))) {
-			return false;
-		}
-
-		CachedAnnotation methodAccess = method.getAnnotation(Access.class);
-		if (methodAccess == null) {
-			methodAccess = AnnotationUtil.get(
-					destination != null ? destination.getClass() : method
-							.getActualMethod().getDeclaringClass())
-					.getAnnotation(Access.class);
-		}
-		if (methodAccess == null) {
-			// Default: UNAVAILABLE!
-			return false;
-		}
-		final AccessType value = (AccessType) methodAccess.value();
-		switch (value) {
-			case PUBLIC:
-				return true;
-			case UNAVAILABLE:
-				return false;
-			case PRIVATE:
-				return auth != null ? auth.onAccess(senderUrl,
-						((Access) methodAccess.getAnnotation()).tag()) : false;
-			case SELF:
-				return auth != null ? auth.isSelf(senderUrl) : false;
-			default:
-				return false;
-		}
-	}
-
-	/**
-	 * Test whether a method has named parameters.
-	 * 
-	 * @param method
-	 *            the method
-	 * @param requestParams
-	 *            the request params
-	 * @return hasNamedParams
-	 */
-	private static boolean hasNamedParams(final AnnotatedMethod method) {
-		for (final AnnotatedParam param : method.getParams()) {
-			CachedAnnotation a = param.getAnnotation(Name.class);
-			if (a == null) {
-				a = param.getAnnotation(Sender.class);
-				if (a == null) {
-					a = param.getAnnotation(RequestId.class);
-					if (a == null) {
-						return false;
-					}
-				}
-			}
-		}
-		return true;
-	}
-
 	/**
 	 * Test if a parameter is required Reads the parameter annotation @Required.
 	 * Returns True if the annotation is not provided.
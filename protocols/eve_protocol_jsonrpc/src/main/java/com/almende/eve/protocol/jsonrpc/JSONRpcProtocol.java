@@ -15,6 +15,7 @@ import com.almende.eve.protocol.Meta;
 import com.almende.eve.protocol.auth.Authorizor;
 import com.almende.eve.protocol.auth.DefaultAuthorizor;
 import com.almende.eve.protocol.jsonrpc.formats.Caller;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
 import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRPCException;
 import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
@@ -32,6 +33,7 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 	private static final Logger						LOG					= Logger.getLogger(JSONRpcProtocol.class
 																				.getName());
 	private static final TypeUtil<JSONResponse>		JSONRESPONSETYPE	= new TypeUtil<JSONResponse>() {};
+	private static final TypeUtil<JSONBatch>		JSONBATCHTYPE		= new TypeUtil<JSONBatch>() {};
 	private final AsyncCallbackStore<JSONResponse>	callbacks;
 	private final Handler<Object>					destination;
 	private Handler<Caller>							caller				= null;
@@ -67,7 +69,23 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 
 	@Override
 	public boolean inbound(final Meta input) {
-		final JSONResponse response = invoke(input.getMsg(), input.getPeer());
+		final JSONResponse response;
+		final StreamingRequest streamed = input.getMsg() instanceof String ? StreamingRequest
+				.read(destination.get(), (String) input.getMsg(),
+						input.getPeer(), auth.get()) : null;
+		if (streamed != null && streamed.isBound()) {
+			response = JSONRpc.invoke(destination.get(), streamed,
+					input.getPeer(), auth.get());
+		} else {
+			final JSONMessage jsonMsg = streamed != null ? streamed
+					.getMessage() : JSONMessage.jsonConvert(input.getMsg());
+			if (jsonMsg != null && jsonMsg.isBatch()) {
+				inboundBatch((JSONBatch) jsonMsg, input);
+				return true;
+			}
+			response = invoke(jsonMsg != null ? jsonMsg : input.getMsg(),
+					input.getPeer());
+		}
 		if (response != null) {
 			if (caller == null) {
 				LOG.warning("JSONRpcProtocol has response, but no caller given.");
@@ -93,10 +111,60 @@ public class JSONRpcProtocol implements RpcBasedProtocol {
 		return true;
 	}
 
+	private void inboundBatch(final JSONBatch batch, final Meta input) {
+		if (batch.isEmpty()) {
+			respond(input, new JSONResponse(new JSONRPCException(
+					JSONRPCException.CODE.INVALID_REQUEST,
+					"Empty JSON-RPC batch")));
+			return;
+		}
+		for (final JSONMessage message : batch) {
+			if (message != null && message.isResponse()) {
+				invoke(message, input.getPeer());
+			}
+		}
+		JSONRpc.invoke(destination.get(), batch, input.getPeer(), auth.get(),
+				new AsyncCallback<JSONBatch>(JSONBATCHTYPE) {
+					@Override
+					public void onSuccess(final JSONBatch result) {
+						if (!result.isEmpty()) {
+							respond(input, result);
+						} else if (input.getTag() != null) {
+							respond(input, new JSONResponse());
+						}
+					}
+
+					@Override
+					public void onFailure(final Exception exception) {
+						LOG.log(Level.WARNING, "Failed to handle batch",
+								exception);
+					}
+				});
+	}
+
+	private void respond(final Meta input, final JSONMessage response) {
+		if (caller == null) {
+			LOG.warning("JSONRpcProtocol has response, but no caller given.");
+			return;
+		}
+		try {
+			caller.get().call(input.getPeer(), response, input.getTag());
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Couldn't send response", e);
+		}
+	}
+
 	public boolean outbound(final Meta output) {
 		if (output.getMsg() instanceof JSONRequest) {
 			final JSONRequest request = (JSONRequest) output.getMsg();
 			addCallback(request, request.getCallback());
+		} else if (output.getMsg() instanceof JSONBatch) {
+			for (final JSONMessage message : (JSONBatch) output.getMsg()) {
+				if (message instanceof JSONRequest) {
+					final JSONRequest request = (JSONRequest) message;
+					addCallback(request, request.getCallback());
+				}
+			}
 		}
 		return output.nextOut();
 	}
@@ -0,0 +1,68 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Class MethodHandleInvoker, calls a method through a MethodHandle. All
+ * java.lang.invoke usage of the DispatchTable is kept in this class, so it is
+ * only loaded on platforms which support it (e.g. not on Android).
+ */
+final class MethodHandleInvoker {
+	private static final Logger	LOG	= Logger.getLogger(MethodHandleInvoker.class
+											.getName());
+	private final MethodHandle	handle;
+
+	private MethodHandleInvoker(final MethodHandle handle) {
+		this.handle = handle;
+	}
+
+	/**
+	 * Create an invoker for the given method.
+	 *
+	 * @param method
+	 *            the method
+	 * @return the method handle invoker, or null if no handle could be
+	 *         created.
+	 */
+	static MethodHandleInvoker create(final Method method) {
+		try {
+			MethodHandle handle = MethodHandles.lookup().unreflect(method)
+					.asFixedArity();
+			if (Modifier.isStatic(method.getModifiers())) {
+				handle = MethodHandles.dropArguments(handle, 0, Object.class);
+			}
+			final int arity = method.getParameterTypes().length + 1;
+			return new MethodHandleInvoker(handle.asType(
+					MethodType.genericMethodType(arity)).asSpreader(
+					Object[].class, arity));
+		} catch (final IllegalAccessException | RuntimeException
+				| LinkageError e) {
+			LOG.log(Level.FINE, "Falling back to reflection for method:"
+					+ method, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Invoke the method.
+	 *
+	 * @param params
+	 *            the params, params[0] is the destination.
+	 * @return the result, null for void methods.
+	 * @throws Throwable
+	 *             anything thrown by the method itself.
+	 */
+	Object invoke(final Object[] params) throws Throwable {
+		return (Object) handle.invokeExact(params);
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.protocol.auth.Authorizor;
+import com.almende.eve.protocol.jsonrpc.DispatchTable.Invoker;
+import com.almende.eve.protocol.jsonrpc.NamespaceUtil.CallTuple;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class StreamingRequest, reads an incoming JSON-RPC message with a
+ * streaming parser. If the "method" member precedes the "params" member, the
+ * params are bound directly to the arguments of the target method, instead of
+ * being materialized as an ObjectNode first and converted per parameter
+ * afterwards. Other messages are read into a tree once, giving the same result
+ * as {@link JSONMessage#jsonConvert(Object)}.
+ */
+final class StreamingRequest {
+	private static final Logger	LOG		= Logger.getLogger(StreamingRequest.class
+												.getName());
+	private static final String	METHOD	= "method";
+	private static final String	PARAMS	= "params";
+	private static final String	RESULT	= "result";
+	private static final String	ERROR	= "error";
+
+	private final JSONMessage	message;
+	private final CallTuple		tuple;
+	private final Object[]		args;
+
+	private StreamingRequest(final JSONMessage message, final CallTuple tuple,
+			final Object[] args) {
+		this.message = message;
+		this.tuple = tuple;
+		this.args = args;
+	}
+
+	/**
+	 * Read a JSON-RPC message.
+	 *
+	 * @param destination
+	 *            the destination
+	 * @param json
+	 *            the json
+	 * @param senderUrl
+	 *            the sender url
+	 * @param auth
+	 *            the auth
+	 * @return the streaming request, or null if the message can't be read this
+	 *         way (e.g. batches, invalid json). Use
+	 *         {@link JSONMessage#jsonConvert(Object)} in that case.
+	 */
+	static StreamingRequest read(final Object destination, final String json,
+			final URI senderUrl, final Authorizor auth) {
+		if (destination == null || !json.trim().startsWith("{")) {
+			return null;
+		}
+		try {
+			final JsonParser parser = JOM.getInstance().getFactory()
+					.createParser(json);
+			try {
+				return read(destination, parser, senderUrl, auth);
+			} finally {
+				parser.close();
+			}
+		} catch (final IOException | RuntimeException e) {
+			LOG.log(Level.FINE, "Couldn't stream message, falling back.", e);
+			return null;
+		}
+	}
+
+	private static StreamingRequest read(final Object destination,
+			final JsonParser parser, final URI senderUrl, final Authorizor auth)
+			throws IOException {
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			return null;
+		}
+		final ObjectNode envelope = JOM.createObjectNode();
+		CallTuple tuple = null;
+		Object[] args = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			parser.nextToken();
+			if (args == null && PARAMS.equals(field)
+					&& parser.getCurrentToken() == JsonToken.START_OBJECT) {
+				tuple = resolve(destination, envelope.get(METHOD), senderUrl,
+						auth);
+				if (tuple != null) {
+					args = tuple.getInvoker().read(parser);
+					continue;
+				}
+			}
+			envelope.set(field, (JsonNode) parser.readValueAsTree());
+		}
+		if (parser.nextToken() != null) {
+			// Trailing garbage, let the fallback handle it.
+			return null;
+		}
+		if (args == null) {
+			return new StreamingRequest(JSONMessage.jsonConvert(envelope),
+					null, null);
+		}
+		if (envelope.has(RESULT) || envelope.has(ERROR)) {
+			return null;
+		}
+		return new StreamingRequest(new JSONRequest(envelope), tuple, args);
+	}
+
+	private static CallTuple resolve(final Object destination,
+			final JsonNode method, final URI senderUrl, final Authorizor auth) {
+		if (method == null || !method.isTextual()) {
+			return null;
+		}
+		try {
+			final CallTuple tuple = NamespaceUtil.get(destination,
+					method.asText());
+			final Invoker invoker = tuple.getInvoker();
+			if (invoker != null && invoker.canRead()
+					&& invoker.isAvailable(senderUrl, auth)) {
+				return tuple;
+			}
+		} catch (final Exception e) {
+			// Not resolvable, JSONRpc.invoke() will report the error.
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if the params have been bound to the target method already.
+	 *
+	 * @return true, if is bound
+	 */
+	boolean isBound() {
+		return args != null;
+	}
+
+	/**
+	 * Gets the message. For bound requests, this is a JSONRequest without
+	 * params.
+	 *
+	 * @return the message, null if the message isn't a valid JSON-RPC message.
+	 */
+	JSONMessage getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the resolved destination and method of a bound request.
+	 *
+	 * @return the tuple
+	 */
+	CallTuple getTuple() {
+		return tuple;
+	}
+
+	/**
+	 * Gets the arguments of a bound request, still to be completed by
+	 * {@link Invoker#complete(Object[], URI, JsonNode)}.
+	 *
+	 * @return the args
+	 */
+	Object[] getArgs() {
+		return args;
+	}
+}
@@ -12,6 +12,7 @@ import java.util.List;
 
 import com.almende.util.TypeUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.CallbackFuture;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -231,4 +232,27 @@ public interface Caller {
 	<T> T callSync(URI url, String method, ObjectNode params, Type type)
 			throws IOException;
 
+	/**
+	 * Send async, returning a future for the response. The future is completed
+	 * by the thread handling the response, no thread is waiting for it unless
+	 * {@link CallbackFuture#get()} is called.
+	 *
+	 * @param <T>
+	 *            the generic type of the result, controlled by the TypeUtil
+	 *            injector.
+	 * @param url
+	 *            the address of the other agent
+	 * @param method
+	 *            the remote RPC method
+	 * @param params
+	 *            the remote RPC method's params
+	 * @param type
+	 *            the expected result type, in the form of a TypeUtil injector.
+	 * @return the future result, cast/converted to the given type.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	<T> CallbackFuture<T> callAsync(URI url, String method, ObjectNode params,
+			TypeUtil<T> type) throws IOException;
+
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc.formats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The Enum Codec, the wire formats a JSON-RPC message can be encoded in. Next
+ * to plain JSON text, the binary Smile and CBOR formats are supported. Both
+ * binary formats start with a fixed header, which allows the receiver to
+ * detect the format of a message without any prior agreement. Transports that
+ * can't carry binary data send it Base64 encoded, these headers are detected
+ * in that form as well.
+ */
+public enum Codec {
+	/** Plain JSON text. */
+	JSON("json", null, null, null),
+	/** The Smile binary JSON format. */
+	SMILE("smile", new SmileFactory(), new byte[] { ':', ')', '\n' }, "OikK"),
+	/** The CBOR binary format (RFC 7049), with the self-describe tag. */
+	CBOR("cbor", new CBORFactory()
+			.enable(CBORGenerator.Feature.WRITE_TYPE_HEADER), new byte[] {
+			(byte) 0xD9, (byte) 0xD9, (byte) 0xF7 }, "2dn3");
+
+	private static final Charset	UTF8	= Charset.forName("UTF-8");
+	private final String			name;
+	private final JsonFactory		factory;
+	private final byte[]			header;
+	private final String			base64Header;
+
+	private Codec(final String name, final JsonFactory factory,
+			final byte[] header, final String base64Header) {
+		this.name = name;
+		this.factory = factory;
+		this.header = header;
+		this.base64Header = base64Header;
+	}
+
+	/**
+	 * Gets the name of this codec, as used in configuration and negotiation.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Checks if this is a binary codec.
+	 *
+	 * @return true, if is binary
+	 */
+	public boolean isBinary() {
+		return factory != null;
+	}
+
+	/**
+	 * Get the codec with the given name.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the codec, or null if no codec with this name exists.
+	 */
+	public static Codec forName(final String name) {
+		for (final Codec codec : values()) {
+			if (codec.name.equalsIgnoreCase(name)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Detect the codec of the given data.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the codec, JSON if no binary header is found.
+	 */
+	public static Codec detect(final byte[] data) {
+		for (final Codec codec : values()) {
+			if (codec.header != null && startsWith(data, codec.header)) {
+				return codec;
+			}
+		}
+		return JSON;
+	}
+
+	/**
+	 * Detect the codec of the given, possibly Base64 encoded, message.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the codec, JSON if the message doesn't start with a Base64
+	 *         encoded binary header.
+	 */
+	public static Codec detect(final String message) {
+		for (final Codec codec : values()) {
+			if (codec.base64Header != null
+					&& message.startsWith(codec.base64Header)) {
+				return codec;
+			}
+		}
+		return JSON;
+	}
+
+	private static boolean startsWith(final byte[] data, final byte[] header) {
+		if (data.length < header.length) {
+			return false;
+		}
+		for (int i = 0; i < header.length; i++) {
+			if (data[i] != header[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encode the given JSON tree with this codec.
+	 *
+	 * @param tree
+	 *            the tree
+	 * @return the encoded message
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public byte[] encode(final JsonNode tree) throws IOException {
+		if (factory == null) {
+			return tree.toString().getBytes(UTF8);
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final JsonGenerator generator = factory.createGenerator(out);
+		try {
+			JOM.getInstance().writeTree(generator, tree);
+		} finally {
+			generator.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode the given data with this codec.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the JSON tree
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public JsonNode decode(final byte[] data) throws IOException {
+		if (factory == null) {
+			return JOM.getInstance().readTree(data);
+		}
+		final JsonParser parser = factory.createParser(data);
+		try {
+			return JOM.getInstance().readTree(parser);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Decode the given Base64 encoded data with this codec.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the JSON tree
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public JsonNode decode(final String data) throws IOException {
+		if (factory == null) {
+			return JOM.getInstance().readTree(data);
+		}
+		try {
+			return decode(Base64Variants.getDefaultVariant().decode(data));
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Invalid Base64 encoded " + name
+					+ " message", e);
+		}
+	}
+
+	/**
+	 * Convert the given data to a String, if it's plain JSON, or to a JSON
+	 * tree, if it's encoded with one of the binary codecs.
+	 *
+	 * @param data
+	 *            the data
+	 * @return the message
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public static Object toMessage(final byte[] data) throws IOException {
+		final Codec codec = detect(data);
+		if (codec.isBinary()) {
+			return codec.decode(data);
+		}
+		return new String(data, UTF8);
+	}
+}
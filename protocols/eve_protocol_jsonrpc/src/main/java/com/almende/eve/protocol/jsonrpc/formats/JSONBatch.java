@@ -0,0 +1,173 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.protocol.jsonrpc.formats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * The Class JSONBatch, a JSON-RPC 2.0 batch: an array of requests,
+ * notifications and/or responses, send to the same peer as a single message.
+ * Elements that couldn't be parsed are kept as null entries, to allow the
+ * receiver to answer them with an "Invalid Request" error.
+ */
+public final class JSONBatch extends JSONMessage implements
+		Iterable<JSONMessage> {
+	private static final long		serialVersionUID	= -5327541203358730614L;
+	private final List<JSONMessage>	messages			= new ArrayList<JSONMessage>();
+
+	/**
+	 * Instantiates a new, empty JSON batch.
+	 */
+	public JSONBatch() {}
+
+	/**
+	 * Instantiates a new JSON batch.
+	 *
+	 * @param json
+	 *            the json
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public JSONBatch(final String json) throws IOException {
+		init(JOM.getInstance().readTree(json));
+	}
+
+	/**
+	 * Instantiates a new JSON batch.
+	 *
+	 * @param batch
+	 *            the batch
+	 */
+	public JSONBatch(final JsonNode batch) {
+		init(batch);
+	}
+
+	@Override
+	protected void init(final JsonNode batch) {
+		if (batch == null || !batch.isArray()) {
+			throw new JSONRPCException(JSONRPCException.CODE.INVALID_REQUEST,
+					"JSON-RPC batch is not an array");
+		}
+		for (final JsonNode elem : (ArrayNode) batch) {
+			if (elem.isObject()) {
+				messages.add(JSONMessage.jsonConvert(elem));
+			} else {
+				messages.add(null);
+			}
+		}
+	}
+
+	/**
+	 * Adds a message to this batch.
+	 *
+	 * @param message
+	 *            the message
+	 * @return this batch
+	 */
+	public JSONBatch add(final JSONMessage message) {
+		if (message instanceof JSONBatch) {
+			throw new IllegalArgumentException(
+					"JSON-RPC batches can't be nested");
+		}
+		messages.add(message);
+		return this;
+	}
+
+	/**
+	 * Gets the messages in this batch.
+	 *
+	 * @return the messages
+	 */
+	@JsonValue
+	public List<JSONMessage> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Number of messages in this batch.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return messages.size();
+	}
+
+	/**
+	 * Checks if this batch is empty.
+	 *
+	 * @return true, if is empty
+	 */
+	@JsonIgnore
+	public boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
+	@Override
+	public Iterator<JSONMessage> iterator() {
+		return messages.iterator();
+	}
+
+	@Override
+	@JsonIgnore
+	public boolean isBatch() {
+		return true;
+	}
+
+	/**
+	 * Check if the given String looks like a JSON array, to select between
+	 * single messages and batches without parsing it first.
+	 *
+	 * @param message
+	 *            the message
+	 * @return true, if is batch
+	 */
+	public static boolean isBatch(final String message) {
+		return message.startsWith("[") || message.trim().startsWith("[");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.protocol.jsonrpc.formats.JSONMessage#toJsonNode()
+	 */
+	@Override
+	public JsonNode toJsonNode() {
+		final ArrayNode result = JOM.createArrayNode();
+		for (final JSONMessage message : messages) {
+			if (message == null) {
+				result.addNull();
+			} else {
+				result.add(message.toJsonNode());
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("[");
+		boolean first = true;
+		for (final JSONMessage message : messages) {
+			if (!first) {
+				sb.append(',');
+			}
+			sb.append(message == null ? "null" : message.toString());
+			first = false;
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -122,6 +122,16 @@ public class JSONMessage implements Serializable {
 		return false;
 	}
 
+	/**
+	 * Checks if is a JSON-RPC 2.0 batch.
+	 *
+	 * @return true, if is batch
+	 */
+	@JsonIgnore
+	public boolean isBatch() {
+		return false;
+	}
+
 	/**
 	 * Set extra (non JSON-RPC) data;.
 	 *
@@ -207,6 +217,8 @@ public class JSONMessage implements Serializable {
 		try {
 			if (msg instanceof JSONMessage) {
 				jsonMsg = (JSONMessage) msg;
+			} else if (msg instanceof byte[]) {
+				return jsonConvert(Codec.toMessage((byte[]) msg));
 			} else {
 				ObjectNode json = null;
 				if (msg instanceof String) {
@@ -215,7 +227,15 @@ public class JSONMessage implements Serializable {
 							|| message.trim().startsWith("{")) {
 
 						json = (ObjectNode) JOM.getInstance().readTree(message);
+					} else if (JSONBatch.isBatch(message)) {
+						return new JSONBatch(message);
+					} else if (Codec.detect(message).isBinary()) {
+						return jsonConvert(Codec.detect(message).decode(
+								message));
 					}
+				} else if (msg instanceof JsonNode
+						&& ((JsonNode) msg).isArray()) {
+					return new JSONBatch((JsonNode) msg);
 				} else if (msg instanceof ObjectNode
 						|| (msg instanceof JsonNode && ((JsonNode) msg)
 								.isObject())) {
@@ -250,19 +270,29 @@ public class JSONMessage implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		final ObjectMapper mapper = JOM.getInstance();
 		try {
-			ObjectNode tree = mapper.valueToTree(this);
-			if (tree.get(ID) == null || tree.get(ID).isNull()) {
-				tree.remove(ID);
-			}
-			if (tree.get(EXTRA) == null || tree.get(EXTRA).isNull()) {
-				tree.remove(EXTRA);
-			}
-			return tree.toString();
+			return toJsonNode().toString();
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
 		return null;
 	}
+
+	/**
+	 * Convert this message to a JSON tree, as it is send over the wire (e.g.
+	 * without empty id and extra members).
+	 *
+	 * @return the json node
+	 */
+	public JsonNode toJsonNode() {
+		final ObjectMapper mapper = JOM.getInstance();
+		final ObjectNode tree = mapper.valueToTree(this);
+		if (tree.get(ID) == null || tree.get(ID).isNull()) {
+			tree.remove(ID);
+		}
+		if (tree.get(EXTRA) == null || tree.get(EXTRA).isNull()) {
+			tree.remove(EXTRA);
+		}
+		return tree;
+	}
 }
@@ -8,7 +8,11 @@ import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.almende.eve.capabilities.handler.Handler;
 import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
@@ -21,16 +25,34 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 /**
  * The Class InboxProtocol, provides an easy way to get a single threaded agent,
  * only one inbound message in a single thread at a time.
+ * <p>
+ * By default the inbox is a mailbox: a lock-free queue with a "scheduled"
+ * flag. When a message arrives in an idle mailbox, a drain task is submitted
+ * to the ThreadPool, which handles up to batchSize messages and then yields.
+ * Idle agents therefore don't occupy any thread. Subclasses can still install
+ * their own looper through {@link #chgLooper(Runnable)}, which then takes its
+ * messages from the blocking inbox. Subclasses created through the no init
+ * constructor always use the blocking inbox, which isn't handled until they
+ * install their looper.
+ * </p>
  */
 public class InboxProtocol implements Protocol {
+	private static final Logger		LOG			= Logger.getLogger(InboxProtocol.class
+														.getName());
 
 	/** The inbox. */
-	private BlockingQueue<Meta>	inbox		= new LinkedBlockingQueue<Meta>();
-	private InboxProtocolConfig	params		= null;
-	protected final Boolean[]	stop		= new Boolean[] { false };
-	private Set<String>			callbackIds	= new HashSet<String>(5);
-	final Boolean[]				sequencer	= new Boolean[] { false, false };
-	protected Runnable			loop		= null;
+	private BlockingQueue<Meta>		inbox		= new LinkedBlockingQueue<Meta>();
+	private final Queue<Meta>		mailbox		= new ConcurrentLinkedQueue<Meta>();
+	private final AtomicBoolean		scheduled	= new AtomicBoolean(false);
+	private volatile Drain			current		= null;
+	private volatile boolean		deleted		= false;
+	private InboxProtocolConfig		params		= null;
+	private final int				batchSize;
+	private final boolean			deferred;
+	protected final Boolean[]		stop		= new Boolean[] { false };
+	private Set<String>				callbackIds	= new HashSet<String>(5);
+	final Boolean[]					sequencer	= new Boolean[] { false, false };
+	protected Runnable				loop		= null;
 
 	/**
 	 * Instantiates a new inbox protocol.
@@ -42,7 +64,8 @@ public class InboxProtocol implements Protocol {
 	 */
 	public InboxProtocol(final ObjectNode params, final Handler<Object> handle) {
 		this.params = InboxProtocolConfig.decorate(params);
-		initDefLoop();
+		this.batchSize = Math.max(1, this.params.getBatchSize());
+		this.deferred = false;
 	}
 
 	/**
@@ -53,15 +76,25 @@ public class InboxProtocol implements Protocol {
 	 * @param handle
 	 *            the handle
 	 * @param noInit
-	 *            the no init
+	 *            the no init, messages are queued in the inbox until the
+	 *            subclass installs a looper through {@link #chgLooper(Runnable)}
+	 *            or {@link #initDefLoop()}.
 	 */
 	public InboxProtocol(final ObjectNode params, final Handler<Object> handle, boolean noInit) {
 		this.params = InboxProtocolConfig.decorate(params);
+		this.batchSize = Math.max(1, this.params.getBatchSize());
+		this.deferred = true;
 	}
-	
+
 	/**
-	 * Inits the def loop.
+	 * Inits the def loop: a looper which handles the blocking inbox in a
+	 * thread of its own.
+	 *
+	 * @deprecated The default inbox is a mailbox now, which doesn't occupy a
+	 *             thread while idle. Only kept for subclasses which use the
+	 *             no init constructor.
 	 */
+	@Deprecated
 	protected void initDefLoop() {
 		chgLooper(new Runnable() {
 			// Agent thread
@@ -85,6 +118,76 @@ public class InboxProtocol implements Protocol {
 		});
 	}
 
+	/**
+	 * Checks if the mailbox is used, i.e. no (deferred) custom looper.
+	 *
+	 * @return true, if is mailbox
+	 */
+	private boolean isMailbox() {
+		return loop == null && !deferred;
+	}
+
+	/**
+	 * A drain run of the mailbox. Only one drain owns the mailbox at a time,
+	 * unless the message being handled does a synchronous call, in which case
+	 * the mailbox is released to a new drain.
+	 */
+	private final class Drain implements Runnable {
+		private volatile boolean	released	= false;
+		private Thread				runner		= null;
+
+		@Override
+		public void run() {
+			runner = Thread.currentThread();
+			current = this;
+			int count = 0;
+			while (!released && !deleted && count < batchSize) {
+				final Meta next = mailbox.poll();
+				if (next == null) {
+					break;
+				}
+				try {
+					next.nextIn();
+				} catch (final RuntimeException e) {
+					LOG.log(Level.WARNING, "Inbox message handling failed", e);
+				}
+				count++;
+			}
+			if (released) {
+				// Another drain owns the mailbox now.
+				return;
+			}
+			current = null;
+			scheduled.set(false);
+			if (!mailbox.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
+	private void schedule() {
+		if (!deleted && scheduled.compareAndSet(false, true)) {
+			ThreadPool.getPool().execute(new Drain());
+		}
+	}
+
+	/**
+	 * Release the mailbox, if the current thread is draining it. Called when
+	 * the message being handled does a synchronous call, to allow the reply
+	 * (and other messages) to be handled meanwhile.
+	 */
+	private void release() {
+		final Drain drain = current;
+		if (drain != null && drain.runner == Thread.currentThread()) {
+			drain.released = true;
+			current = null;
+			scheduled.set(false);
+			if (!mailbox.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
 	/**
 	 * Gets the next.
 	 *
@@ -100,7 +203,15 @@ public class InboxProtocol implements Protocol {
 		// sequencer[1] is the flag to skip triggering on the
 		// latch if this is a reply to synchronous call.
 		sequencer[1] = false;
-		final Meta next = inbox.take();
+		Meta next = inbox.poll();
+		if (next == null) {
+			ThreadPool.beginBlocking();
+			try {
+				next = inbox.take();
+			} finally {
+				ThreadPool.endBlocking();
+			}
+		}
 		if (!callbackIds.isEmpty()) {
 			final JSONMessage message = JSONMessage.jsonConvert(next.getMsg());
 			if (message != null) {
@@ -115,7 +226,8 @@ public class InboxProtocol implements Protocol {
 	}
 
 	/**
-	 * Next.
+	 * Next, used by custom loopers to hand the message to the rest of the
+	 * protocol stack.
 	 *
 	 * @param next
 	 *            the next
@@ -141,10 +253,12 @@ public class InboxProtocol implements Protocol {
 	/**
 	 * Gets the inbox.
 	 *
-	 * @return the inbox
+	 * @return the inbox, the blocking inbox if a custom looper is (or will
+	 *         be, see the no init constructor) installed, the mailbox
+	 *         otherwise.
 	 */
 	public Queue<Meta> getInbox() {
-		return inbox;
+		return isMailbox() ? mailbox : inbox;
 	}
 
 	/**
@@ -157,13 +271,14 @@ public class InboxProtocol implements Protocol {
 	 */
 	public void setInbox(BlockingQueue<Meta> inbox, boolean chgLooper) {
 		this.inbox = inbox;
-		if (chgLooper) {
+		if (chgLooper && loop != null) {
 			chgLooper(loop);
 		}
 	}
 
 	/**
-	 * Replaces the inbox send loop;.
+	 * Replaces the mailbox by a custom inbox send loop, which takes its
+	 * messages from the (blocking) inbox.
 	 *
 	 * @param loop
 	 *            the new looper
@@ -175,6 +290,11 @@ public class InboxProtocol implements Protocol {
 			sequencer[0] = true;
 			sequencer.notifyAll();
 		}
+		Meta pending = mailbox.poll();
+		while (pending != null) {
+			inbox.add(pending);
+			pending = mailbox.poll();
+		}
 		ThreadPool.getPool().execute(loop);
 	}
 
@@ -204,7 +324,9 @@ public class InboxProtocol implements Protocol {
 	public void delete() {
 		// empty inbox
 		stop[0] = true;
+		deleted = true;
 		inbox.clear();
+		mailbox.clear();
 		callbackIds.clear();
 	}
 
@@ -215,9 +337,14 @@ public class InboxProtocol implements Protocol {
 	 */
 	@Override
 	public boolean inbound(Meta msg) {
-		try {
-			inbox.put(msg);
-		} catch (InterruptedException e) {}
+		if (isMailbox()) {
+			mailbox.add(msg);
+			schedule();
+		} else {
+			try {
+				inbox.put(msg);
+			} catch (InterruptedException e) {}
+		}
 		// explicitely not calling next on protocol stack from this point.
 		return false;
 	}
@@ -235,10 +362,14 @@ public class InboxProtocol implements Protocol {
 				final JSONRequest request = (JSONRequest) message;
 				AsyncCallback<?> callback = request.getCallback();
 				if (callback != null && callback instanceof SyncCallback<?>) {
-					callbackIds.add(request.getId().asText());
-					synchronized (sequencer) {
-						sequencer[0] = true;
-						sequencer.notifyAll();
+					if (isMailbox()) {
+						release();
+					} else {
+						callbackIds.add(request.getId().asText());
+						synchronized (sequencer) {
+							sequencer[0] = true;
+							sequencer.notifyAll();
+						}
 					}
 				}
 			}
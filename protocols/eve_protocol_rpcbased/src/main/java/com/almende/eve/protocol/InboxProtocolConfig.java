@@ -62,4 +62,28 @@ public class InboxProtocolConfig extends ProtocolConfig {
 		this.put("supportSynccalls", supportSynccalls);
 	}
 
+	/**
+	 * Gets the batch size, the maximum number of messages handled in one go,
+	 * before yielding the thread to other agents.
+	 *
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		if (this.has("batchSize")) {
+			return this.get("batchSize").asInt();
+		}
+		return 16;
+	}
+
+	/**
+	 * Sets the batch size, the maximum number of messages handled in one go,
+	 * before yielding the thread to other agents.
+	 *
+	 * @param batchSize
+	 *            the new batch size
+	 */
+	public void setBatchSize(final int batchSize) {
+		this.put("batchSize", batchSize);
+	}
+
 }
@@ -62,8 +62,8 @@ public class PersistentScheduler extends SimpleScheduler {
 			LOG.warning("Parameter 'state' is required, falling back to SimpleScheduler.");
 		} else {
 			state = new StateBuilder().withConfig(stateConfig).build();
-			for (final String key : state.keySet()) {
-				final TaskEntry entry = state.get(key, TaskEntry.class);
+			for (final TaskEntry entry : state.getAll(state.keySet(),
+					TaskEntry.class).values()) {
 				run(entry);
 			}
 		}
@@ -4,72 +4,36 @@
  */
 package com.almende.eve.scheduling.clock;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.joda.time.DateTime;
-import org.joda.time.Interval;
-
-import com.almende.util.threads.ThreadPool;
 
 /**
- * The Class RunnableClock.
+ * The Class RunnableClock, triggers run in realtime. The triggers of all
+ * RunnableClocks are driven by the shared {@link TimingWheel}, which makes
+ * requesting and cancelling a trigger O(1) and lock free.
  */
-public class RunnableClock implements Runnable, Clock {
-	private static final Logger								LOG			= Logger.getLogger(RunnableClock.class
-																				.getName());
-	protected final NavigableMap<ClockEntry, ClockEntry>	TIMELINE	= new ConcurrentSkipListMap<ClockEntry, ClockEntry>();
-	protected static final ScheduledExecutorService			SCHEDULER	= ThreadPool
-																				.getScheduledPool();
-	protected static final Executor							RUNNER		= ThreadPool
-																				.getPool();
-	protected ScheduledFuture<?>							future		= null;
-	protected ReentrantLock									futureLock	= new ReentrantLock();
+public class RunnableClock implements Clock {
+	private static final Logger						LOG			= Logger.getLogger(RunnableClock.class
+																		.getName());
+	private static final TimingWheel				WHEEL		= TimingWheel
+																		.getInstance();
+	private final ConcurrentHashMap<String, Trigger>	triggers	= new ConcurrentHashMap<String, Trigger>();
 
-	/*
-	 * Non locking task scheduling
-	 */
-	@Override
-	public void run() {
-		final List<Runnable> toRun = new ArrayList<Runnable>();
-		synchronized (TIMELINE) {
-			while (!TIMELINE.isEmpty()) {
-				final ClockEntry ce = TIMELINE.firstEntry().getValue();
-				final DateTime now = DateTime.now();
-				if (ce.getDue().isEqual(now) || ce.getDue().isBefore(now)) {
-					TIMELINE.remove(ce);
-					toRun.add(ce.getCallback());
-					continue;
-				}
-				final long interval = new Interval(now, ce.getDue())
-						.toDurationMillis();
-				if (interval <= 0) {
-					continue;
-				}
-				if (future == null
-						|| future.getDelay(TimeUnit.MILLISECONDS) != interval) {
-					if (future != null) {
-						future.cancel(false);
-					}
-					future = SCHEDULER.schedule(this, interval,
-							TimeUnit.MILLISECONDS);
-				}
-				break;
-			}
-			if (future == null && !TIMELINE.isEmpty()) {
-				LOG.warning("Lost trigger, should never happen!");
-			}
+	private final class Trigger extends TimingWheel.Timer {
+		private final String	triggerId;
+		private final Runnable	callback;
+
+		private Trigger(final String triggerId, final Runnable callback) {
+			this.triggerId = triggerId;
+			this.callback = callback;
 		}
-		for (Runnable run : toRun) {
-			RUNNER.execute(run);
+
+		@Override
+		public void expire() {
+			triggers.remove(triggerId, this);
+			callback.run();
 		}
 	}
 
@@ -82,17 +46,25 @@ public class RunnableClock implements Runnable, Clock {
 	@Override
 	public void requestTrigger(final String triggerId, final DateTime due,
 			final Runnable callback) {
-		final ClockEntry ce = new ClockEntry(triggerId, due, callback);
-
-		final ClockEntry oldVal = TIMELINE.get(ce);
-		if (oldVal == null || oldVal.getDue().isAfter(due)) {
-			TIMELINE.put(ce, ce);
-		} else {
-			LOG.warning(ce.getTriggerId()
-					+ ": Skip adding ce, because has old value earlier than current. "
-					+ oldVal.getTriggerId());
+		final long deadline = due.getMillis();
+		final Trigger trigger = new Trigger(triggerId, callback);
+		while (true) {
+			final Trigger oldVal = triggers.putIfAbsent(triggerId, trigger);
+			if (oldVal == null) {
+				break;
+			}
+			if (!oldVal.isExpired() && oldVal.getDeadline() <= deadline) {
+				LOG.warning(triggerId
+						+ ": Skip adding ce, because has old value earlier than current. "
+						+ oldVal.triggerId);
+				return;
+			}
+			if (triggers.replace(triggerId, oldVal, trigger)) {
+				oldVal.cancel();
+				break;
+			}
 		}
-		RUNNER.execute(this);
+		WHEEL.add(trigger, deadline);
 	}
 
 	/*
@@ -101,8 +73,10 @@ public class RunnableClock implements Runnable, Clock {
 	 */
 	@Override
 	public void cancel(final String triggerId) {
-		final ClockEntry ce = new ClockEntry(triggerId, null, null);
-		TIMELINE.remove(ce);
+		final Trigger trigger = triggers.remove(triggerId);
+		if (trigger != null) {
+			trigger.cancel();
+		}
 	}
 
 	/*
@@ -111,13 +85,11 @@ public class RunnableClock implements Runnable, Clock {
 	 */
 	@Override
 	public void clear() {
-		TIMELINE.clear();
-		futureLock.lock();
-		if (future != null) {
-			future.cancel(false);
-			future = null;
+		for (final Trigger trigger : triggers.values()) {
+			if (triggers.remove(trigger.triggerId, trigger)) {
+				trigger.cancel();
+			}
 		}
-		futureLock.unlock();
 	}
 
 	@Override
@@ -128,7 +100,7 @@ public class RunnableClock implements Runnable, Clock {
 
 	@Override
 	public long now() {
-		return nowDateTime().getMillis();
+		return System.currentTimeMillis();
 	}
 
 	@Override
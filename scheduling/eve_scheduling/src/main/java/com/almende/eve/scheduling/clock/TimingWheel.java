@@ -0,0 +1,197 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.scheduling.clock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.almende.util.threads.AbstractWheel;
+
+/**
+ * The Class TimingWheel, a hierarchical timing wheel with millisecond
+ * resolution, which drives the triggers of all RunnableClocks from a single
+ * thread. Adding and cancelling a timer are O(1), timers are cascaded down to
+ * finer wheels as their deadline approaches.
+ * <p>
+ * The wheel has five levels (256, 64, 64, 64 and 64 slots), which together
+ * cover about 49 days; timers further ahead wait in an overflow list. Only the
+ * ticker thread touches the wheel itself, other threads hand over new and
+ * cancelled timers through lock-free queues. When idle, the ticker parks until
+ * the next non-empty slot or cascade, or until an earlier timer is added.
+ * </p>
+ */
+public final class TimingWheel extends AbstractWheel {
+	private static final int[]			BITS		= new int[] { 8, 6, 6, 6, 6 };
+	private static final TimingWheel	INSTANCE	= new TimingWheel();
+
+	private final Slot[][]				levels		= new Slot[BITS.length][];
+	private final Slot					overflow	= new Slot();
+	private final long					range;
+	private volatile long				wakeup		= Long.MAX_VALUE;
+	private long						current		= 0;
+	private long						size		= 0;
+
+	/**
+	 * A timer in the wheel. Subclasses implement the expire() method, which is
+	 * run on the ThreadPool.
+	 */
+	public abstract static class Timer extends AbstractWheel.Entry {}
+
+	private TimingWheel() {
+		super("TimingWheel");
+		int bits = 0;
+		for (int level = 0; level < BITS.length; level++) {
+			levels[level] = new Slot[1 << BITS[level]];
+			for (int i = 0; i < levels[level].length; i++) {
+				levels[level][i] = new Slot();
+			}
+			bits += BITS[level];
+		}
+		this.range = 1L << bits;
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return the instance
+	 */
+	public static TimingWheel getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Schedule the timer to expire at the given deadline.
+	 *
+	 * @param timer
+	 *            the timer
+	 * @param deadline
+	 *            the deadline, in milliseconds since the epoch.
+	 */
+	public void add(final Timer timer, final long deadline) {
+		schedule(timer, deadline);
+		if (deadline < wakeup) {
+			LockSupport.unpark(getTicker());
+		}
+	}
+
+	@Override
+	protected void loop() {
+		for (;;) {
+			size -= processCancelled();
+			final long startTime = getStartTime();
+			long now = System.currentTimeMillis() - startTime;
+			if (size == 0) {
+				// Nothing to tick while idle, skip the elapsed time before new
+				// timers are placed relative to current.
+				current = Math.max(current, now);
+			}
+			transferAdded();
+			now = System.currentTimeMillis() - startTime;
+			while (current < now) {
+				current++;
+				tick(current);
+			}
+			final long next = size == 0 ? Long.MAX_VALUE : nextTick();
+			wakeup = next == Long.MAX_VALUE ? next : startTime + next;
+			if (hasAdded()) {
+				continue;
+			}
+			if (next == Long.MAX_VALUE) {
+				LockSupport.park(this);
+			} else {
+				final long sleep = startTime + next - System.currentTimeMillis();
+				if (sleep > 0) {
+					LockSupport.parkNanos(this,
+							TimeUnit.MILLISECONDS.toNanos(sleep));
+				}
+			}
+			wakeup = Long.MIN_VALUE;
+			Thread.interrupted();
+		}
+	}
+
+	@Override
+	protected void place(final Entry entry) {
+		place(entry, current + 1);
+		size++;
+	}
+
+	private void place(final Entry entry, final long earliest) {
+		// Never schedule into the past.
+		final long tick = Math.max(entry.getDeadline() - getStartTime(),
+				earliest);
+		final long delta = tick - current;
+		int shift = 0;
+		for (int level = 0; level < BITS.length; level++) {
+			if (delta < 1L << (shift + BITS[level])) {
+				final Slot[] slots = levels[level];
+				slots[(int) ((tick >> shift) & (slots.length - 1))].add(entry);
+				return;
+			}
+			shift += BITS[level];
+		}
+		overflow.add(entry);
+	}
+
+	private void cascade(final Slot slot) {
+		if (slot.isEmpty()) {
+			return;
+		}
+		final Slot entries = slot.detach();
+		Entry entry = entries.poll();
+		while (entry != null) {
+			place(entry, current);
+			entry = entries.poll();
+		}
+	}
+
+	private void tick(final long tick) {
+		int shift = 0;
+		for (int level = 1; level < BITS.length; level++) {
+			shift += BITS[level - 1];
+			if ((tick & ((1L << shift) - 1)) != 0) {
+				break;
+			}
+			final Slot[] slots = levels[level];
+			cascade(slots[(int) ((tick >> shift) & (slots.length - 1))]);
+			if (level == BITS.length - 1) {
+				cascade(overflow);
+			}
+		}
+		final Slot slot = levels[0][(int) (tick & (levels[0].length - 1))];
+		Entry entry = slot.poll();
+		while (entry != null) {
+			size--;
+			expire(entry);
+			entry = slot.poll();
+		}
+	}
+
+	/**
+	 * Gets the next tick at which something needs to be done: the next
+	 * non-empty slot of the finest wheel, or otherwise its next cascade.
+	 */
+	private long nextTick() {
+		final Slot[] slots = levels[0];
+		final long end = (current | (slots.length - 1)) + 1;
+		for (long tick = current + 1; tick < end; tick++) {
+			if (!slots[(int) (tick & (slots.length - 1))].isEmpty()) {
+				return tick;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Gets the range covered by the wheel levels.
+	 *
+	 * @param unit
+	 *            the unit
+	 * @return the range, timers further ahead are kept in an overflow list.
+	 */
+	public long getRange(final TimeUnit unit) {
+		return unit.convert(range, TimeUnit.MILLISECONDS);
+	}
+}
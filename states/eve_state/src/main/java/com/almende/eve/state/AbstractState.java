@@ -6,6 +6,9 @@ package com.almende.eve.state;
 
 import java.io.Serializable;
 import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.almende.util.TypeUtil;
@@ -133,6 +136,57 @@ public abstract class AbstractState<V> implements State {
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.State#putAll(java.util.Map)
+	 */
+	@Override
+	public void putAll(final Map<String, ?> values) {
+		for (final Map.Entry<String, ?> entry : values.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.State#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<String> keys) {
+		for (final String key : keys) {
+			remove(key);
+		}
+	}
+	
+	/**
+	 * Convert the values for putAll to JsonNodes, the same way put() does.
+	 * 
+	 * @param values
+	 *            the values
+	 * @return the json values
+	 */
+	protected static Map<String, JsonNode> toJson(final Map<String, ?> values) {
+		final ObjectMapper om = JOM.getInstance();
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				values.size());
+		for (final Map.Entry<String, ?> entry : values.entrySet()) {
+			final Object value = entry.getValue();
+			if (value == null) {
+				result.put(entry.getKey(), JOM.createNullNode());
+			} else if (value instanceof JsonNode) {
+				result.put(entry.getKey(), (JsonNode) value);
+			} else if (value instanceof Serializable) {
+				result.put(entry.getKey(), (JsonNode) om.valueToTree(value));
+			} else {
+				LOG.severe("Can't handle input that is not Serializable nor JsonNode.");
+				throw new IllegalArgumentException("Can't handle input that is not Serializable nor JsonNode.");
+			}
+		}
+		return result;
+	}
+	
 	/**
 	 * Gets the.
 	 * 
@@ -201,6 +255,60 @@ public abstract class AbstractState<V> implements State {
 		return get(typedKey.getKey(), typedKey.getType());
 	}
 	
+	/**
+	 * Gets the values of the given keys. States which can fetch several keys
+	 * at once are expected to override this, by default the keys are fetched
+	 * one by one.
+	 * 
+	 * @param keys
+	 *            the keys
+	 * @return the values, by key
+	 */
+	@JsonIgnore
+	public Map<String, V> getAll(final Collection<String> keys) {
+		final Map<String, V> result = new HashMap<String, V>(keys.size());
+		for (final String key : keys) {
+			result.put(key, get(key));
+		}
+		return result;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.State#getAll(java.util.Collection,
+	 * java.lang.Class)
+	 */
+	@Override
+	@JsonIgnore
+	public <T> Map<String, T> getAll(final Collection<String> keys,
+			final Class<T> type) {
+		final Map<String, V> values = getAll(keys);
+		final Map<String, T> result = new HashMap<String, T>(keys.size());
+		for (final String key : keys) {
+			result.put(key, TypeUtil.inject(values.get(key), type));
+		}
+		return result;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.State#getAll(java.util.Collection,
+	 * com.almende.util.TypeUtil)
+	 */
+	@Override
+	@JsonIgnore
+	public <T> Map<String, T> getAll(final Collection<String> keys,
+			final TypeUtil<T> type) {
+		final Map<String, V> values = getAll(keys);
+		final Map<String, T> result = new HashMap<String, T>(keys.size());
+		for (final String key : keys) {
+			result.put(key, type.inject(values.get(key)));
+		}
+		return result;
+	}
+	
 	/**
 	 * Loc put.
 	 * 
@@ -5,6 +5,8 @@
 package com.almende.eve.state;
 
 import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import com.almende.eve.capabilities.Capability;
@@ -64,6 +66,24 @@ public interface State extends Capability {
 	 */
 	boolean putIfUnchanged(String key, Object newVal, Object oldVal);
 
+	/**
+	 * Put all given values, in a single operation where the backend supports
+	 * it.
+	 * 
+	 * @param values
+	 *            the values, by key
+	 */
+	void putAll(Map<String, ?> values);
+
+	/**
+	 * Remove all given keys, in a single operation where the backend supports
+	 * it.
+	 * 
+	 * @param keys
+	 *            the keys
+	 */
+	void removeAll(Collection<String> keys);
+
 	/**
 	 * Contains key.
 	 * 
@@ -144,6 +164,34 @@ public interface State extends Capability {
 	 */
 	<T> T get(String key, TypeUtil<T> type);
 
+	/**
+	 * Gets the values of the given keys, in a single operation where the
+	 * backend supports it. Keys without a value map to null.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param keys
+	 *            the keys
+	 * @param type
+	 *            the type
+	 * @return the values, by key
+	 */
+	<T> Map<String, T> getAll(Collection<String> keys, Class<T> type);
+
+	/**
+	 * Gets the values of the given keys, in a single operation where the
+	 * backend supports it. Keys without a value map to null.
+	 * 
+	 * @param <T>
+	 *            the generic type
+	 * @param keys
+	 *            the keys
+	 * @param type
+	 *            the type
+	 * @return the values, by key
+	 */
+	<T> Map<String, T> getAll(Collection<String> keys, TypeUtil<T> type);
+
 	/**
 	 * Gets the.
 	 * 
@@ -9,18 +9,19 @@ import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +58,10 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  *        All operations on this FileState are thread-safe. It also provides two
  *        aditional methods: PutIfNotChanged() and PutAllIfNotChanged().
  * 
+ *        Reading operations take a shared lock on the file, and reuse the last
+ *        parsed map as long as the file's modification time and length haven't
+ *        changed. Only writing operations take an exclusive lock.
+ * 
  *        Usage:<br>
  *        AgentHost factory = AgentHost.getInstance(config);<br>
  *        ConcurrentFileState state = new
@@ -65,21 +70,33 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  *        System.out.println(state.get("key")); // "value"<br>
  */
 public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
-	private class Lock {
-		private boolean	locked	= false;
+	/**
+	 * The locks and cached contents of a single file, shared by all states on
+	 * that file. File locks are held by the whole JVM, so readers within this
+	 * JVM share a single shared file lock, taken by the first and released by
+	 * the last reader.
+	 */
+	private static final class Guard {
+		private final ReentrantReadWriteLock	rw			= new ReentrantReadWriteLock();
+		private FileChannel						channel		= null;
+		private FileLock						lock		= null;
+		private int								users		= 0;
+		private Map<String, JsonNode>			cache		= null;
+		private long							modified	= -1;
+		private long							length		= -1;
+		private long							cachedAt	= 0;
 	}
 	
 	private static final Logger				LOG			= Logger.getLogger("ConcurrentFileState");
+	/**
+	 * Modification times are not more precise than this, a file which is
+	 * changed again within this time may keep its modification time.
+	 */
+	private static final long				RACY		= 2000;
 	private String							filename	= null;
-	private FileChannel						channel		= null;
-	private FileLock						lock		= null;
-	private InputStream						fis			= null;
-	private OutputStream					fos			= null;
 	private ObjectMapper					om			= null;
 	private ObjectWriter					writer		= null;
-	private static final Map<String, Lock>	LOCKED		= new ConcurrentHashMap<String, Lock>();
-	private Map<String, JsonNode>			properties	= Collections
-																.synchronizedMap(new HashMap<String, JsonNode>());
+	private static final Map<String, Guard>	GUARDS		= new ConcurrentHashMap<String, Guard>();
 	private static final JavaType			MAPTYPE		= JOM.getTypeFactory()
 																.constructMapLikeType(
 																		HashMap.class,
@@ -106,154 +123,172 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 		writer = om.writerFor(new TypeUtil<Map<String,JsonNode>>(){}.getJavaType());
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * TODO: Get rid of these, they are a performance hazard!:)
-	 * 
-	 * @see java.lang.Object#finalize()
-	 */
-	@Override
-	public void finalize() throws Throwable {
-		closeFile();
-		super.finalize();
+	private Guard getGuard() {
+		Guard guard = GUARDS.get(filename);
+		if (guard == null) {
+			synchronized (GUARDS) {
+				guard = GUARDS.get(filename);
+				if (guard == null) {
+					guard = new Guard();
+					GUARDS.put(filename, guard);
+				}
+			}
+		}
+		return guard;
 	}
 	
 	/**
 	 * Open file.
 	 * 
+	 * @param shared
+	 *            true for reading operations, false for writing operations.
+	 * @return the guard of the file
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
 	@SuppressWarnings("resource")
-	protected void openFile() throws IOException {
-		Lock llock = null;
-		synchronized (LOCKED) {
-			llock = LOCKED.get(filename);
-			if (llock == null) {
-				llock = new Lock();
-				LOCKED.put(filename, llock);
-			}
+	protected Guard openFile(final boolean shared) throws IOException {
+		final Guard guard = getGuard();
+		if (shared) {
+			guard.rw.readLock().lock();
+		} else {
+			guard.rw.writeLock().lock();
 		}
-		synchronized (llock) {
-			while (llock.locked) {
+		synchronized (guard) {
+			if (guard.users == 0) {
+				final File file = new File(filename);
+				if (!file.exists()) {
+					unlock(guard, shared);
+					throw new IllegalStateException(
+							"Warning: File doesn't exist (anymore):'"
+									+ filename + "'");
+				}
+				guard.channel = new RandomAccessFile(file, "rw").getChannel();
 				try {
-					llock.wait();
-				} catch (final InterruptedException e) {
+					guard.lock = guard.channel.lock(0, Long.MAX_VALUE, shared);
+				} catch (final Exception e) {
+					guard.channel.close();
+					guard.channel = null;
+					guard.lock = null;
+					unlock(guard, shared);
+					throw new IllegalStateException(
+							"error, couldn't obtain file lock on:" + filename,
+							e);
 				}
 			}
-			llock.locked = true;
-			
-			final File file = new File(filename);
-			if (!file.exists()) {
-				llock.locked = false;
-				llock.notifyAll();
-				throw new IllegalStateException(
-						"Warning: File doesn't exist (anymore):'" + filename
-								+ "'");
-			}
-			
-			channel = new RandomAccessFile(file, "rw").getChannel();
-			try {
-				// TODO: add support for shared locks, allowing parallel reading
-				// operations.
-				lock = channel.lock();
-				
-			} catch (final Exception e) {
-				channel.close();
-				channel = null;
-				lock = null;
-				llock.locked = false;
-				llock.notifyAll();
-				throw new IllegalStateException(
-						"error, couldn't obtain file lock on:" + filename, e);
-			}
-			fis = new BufferedInputStream(Channels.newInputStream(channel));
-			fos = new BufferedOutputStream(Channels.newOutputStream(channel));
+			guard.users++;
 		}
+		return guard;
 	}
 	
 	/**
 	 * Close file.
+	 * 
+	 * @param guard
+	 *            the guard returned by openFile
+	 * @param shared
+	 *            as given to openFile
 	 */
-	protected void closeFile() {
-		final Lock llock = LOCKED.get(filename);
-		if (llock == null) {
-			return;
-		}
-		synchronized (llock) {
-			
-			if (lock != null && lock.isValid()) {
+	protected void closeFile(final Guard guard, final boolean shared) {
+		synchronized (guard) {
+			if (--guard.users == 0) {
+				if (guard.lock != null && guard.lock.isValid()) {
+					try {
+						guard.lock.release();
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "", e);
+					}
+				}
 				try {
-					lock.release();
+					if (guard.channel != null) {
+						guard.channel.close();
+					}
 				} catch (final IOException e) {
 					LOG.log(Level.WARNING, "", e);
 				}
+				guard.channel = null;
+				guard.lock = null;
 			}
-			try {
-				if (fos != null) {
-					fos.close();
-				}
-				if (fis != null) {
-					fis.close();
-				}
-				
-				if (channel != null) {
-					channel.close();
-				}
-				
-			} catch (final IOException e) {
-				LOG.log(Level.WARNING, "", e);
-			}
-			channel = null;
-			fis = null;
-			fos = null;
-			lock = null;
-			llock.locked = false;
-			llock.notifyAll();
+		}
+		unlock(guard, shared);
+	}
+	
+	private static void unlock(final Guard guard, final boolean shared) {
+		if (shared) {
+			guard.rw.readLock().unlock();
+		} else {
+			guard.rw.writeLock().unlock();
 		}
 	}
 	
 	/**
 	 * write properties to disk.
 	 * 
+	 * @param guard
+	 *            the guard, opened for writing
+	 * @param properties
+	 *            the properties, which become the cached map.
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	private void write() throws IOException {
-		if (channel != null) {
-			channel.position(0);
-		}
+	private void write(final Guard guard, final Map<String, JsonNode> properties)
+			throws IOException {
+		final long now = System.currentTimeMillis();
+		final FileChannel channel = guard.channel;
+		channel.position(0);
+		final OutputStream fos = new BufferedOutputStream(
+				Channels.newOutputStream(channel));
 		writer.writeValue(fos, properties);
 		fos.flush();
+		channel.truncate(channel.position());
 		
-		if (channel != null) {
-			channel.truncate(channel.position());
-		}
-		
+		guard.cache = Collections.unmodifiableMap(properties);
+		guard.modified = new File(filename).lastModified();
+		guard.length = channel.size();
+		guard.cachedAt = now;
 	}
 	
 	/**
-	 * read properties from disk.
+	 * read properties from disk, unless the file is unchanged since it was last
+	 * read or written.
 	 * 
+	 * @param guard
+	 *            the guard, opened for reading or writing
+	 * @return the properties, which may not be modified.
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
-	 * @throws ClassNotFoundException
-	 *             the class not found exception
 	 */
 	@SuppressWarnings("unchecked")
 	@JsonDeserialize(using = JsonNullAwareDeserializer.class)
-	private void read() throws IOException, ClassNotFoundException {
-		try {
-			if (channel != null) {
-				channel.position(0);
+	private Map<String, JsonNode> read(final Guard guard) throws IOException {
+		synchronized (guard) {
+			final long modified = new File(filename).lastModified();
+			final long length = guard.channel.size();
+			if (guard.cache != null && modified == guard.modified
+					&& length == guard.length
+					&& modified < guard.cachedAt - RACY) {
+				return guard.cache;
 			}
-			properties.clear();
-			properties.putAll((Map<String, JsonNode>) om
-					.readValue(fis, MAPTYPE));
-		} catch (final EOFException eof) {
-			// empty file, new agent?
-		} catch (final JsonMappingException jme) {
-			// empty file, new agent?
+			final long now = System.currentTimeMillis();
+			Map<String, JsonNode> properties = null;
+			try {
+				guard.channel.position(0);
+				properties = (Map<String, JsonNode>) om.readValue(
+						new BufferedInputStream(Channels
+								.newInputStream(guard.channel)), MAPTYPE);
+			} catch (final EOFException eof) {
+				// empty file, new agent?
+			} catch (final JsonMappingException jme) {
+				// empty file, new agent?
+			}
+			if (properties == null) {
+				properties = new HashMap<String, JsonNode>();
+			}
+			guard.cache = Collections.unmodifiableMap(properties);
+			guard.modified = modified;
+			guard.length = length;
+			guard.cachedAt = now;
+			return guard.cache;
 		}
 	}
 	
@@ -265,16 +300,18 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	@Override
 	public void clear() {
 		try {
-			openFile();
-			properties.clear();
-			write();
+			final Guard guard = openFile(false);
+			try {
+				write(guard, new HashMap<String, JsonNode>());
+			} finally {
+				closeFile(guard, false);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 	}
 	
 	/*
@@ -286,16 +323,18 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	public Set<String> keySet() {
 		Set<String> result = null;
 		try {
-			openFile();
-			read();
-			result = new HashSet<String>(properties.keySet());
+			final Guard guard = openFile(true);
+			try {
+				result = new HashSet<String>(read(guard).keySet());
+			} finally {
+				closeFile(guard, true);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return result;
 	}
 	
@@ -308,16 +347,18 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	public boolean containsKey(final String key) {
 		boolean result = false;
 		try {
-			openFile();
-			read();
-			result = properties.containsKey(key);
+			final Guard guard = openFile(true);
+			try {
+				result = read(guard).containsKey(key);
+			} finally {
+				closeFile(guard, true);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return result;
 	}
 	
@@ -331,16 +372,18 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	public JsonNode get(final String key) {
 		JsonNode result = NullNode.getInstance();
 		try {
-			openFile();
-			read();
-			result = properties.get(key);
+			final Guard guard = openFile(true);
+			try {
+				result = read(guard).get(key);
+			} finally {
+				closeFile(guard, true);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return result;
 	}
 	
@@ -353,20 +396,24 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	@Override
 	public JsonNode locPut(final String key, JsonNode value) {
 		try {
-			openFile();
-			read();
-			if (value == null) {
-				value = NullNode.getInstance();
+			final Guard guard = openFile(false);
+			try {
+				final Map<String, JsonNode> properties = new HashMap<String, JsonNode>(
+						read(guard));
+				if (value == null) {
+					value = NullNode.getInstance();
+				}
+				properties.put(key, value);
+				write(guard, properties);
+			} finally {
+				closeFile(guard, false);
 			}
-			properties.put(key, value);
-			write();
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return value;
 	}
 	
@@ -383,23 +430,30 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 			JsonNode oldVal) {
 		boolean result = false;
 		try {
-			openFile();
-			read();
-			
-			JsonNode cur = NullNode.getInstance();
-			if (properties.containsKey(key)) {
-				cur = properties.get(key);
-			}
-			if (oldVal == null) {
-				oldVal = NullNode.getInstance();
-			}
-			
-			// Poor mans equality as some Numbers are compared incorrectly: e.g.
-			// IntNode versus LongNode
-			if (oldVal.equals(cur) || oldVal.toString().equals(cur.toString())) {
-				properties.put(key, newVal);
-				write();
-				result = true;
+			final Guard guard = openFile(false);
+			try {
+				final Map<String, JsonNode> properties = read(guard);
+				
+				JsonNode cur = NullNode.getInstance();
+				if (properties.containsKey(key)) {
+					cur = properties.get(key);
+				}
+				if (oldVal == null) {
+					oldVal = NullNode.getInstance();
+				}
+				
+				// Poor mans equality as some Numbers are compared incorrectly:
+				// e.g. IntNode versus LongNode
+				if (oldVal.equals(cur)
+						|| oldVal.toString().equals(cur.toString())) {
+					final Map<String, JsonNode> changed = new HashMap<String, JsonNode>(
+							properties);
+					changed.put(key, newVal);
+					write(guard, changed);
+					result = true;
+				}
+			} finally {
+				closeFile(guard, false);
 			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
@@ -410,7 +464,6 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 			// would get into a deadlock....
 			result = true;
 		}
-		closeFile();
 		return result;
 	}
 	
@@ -423,21 +476,106 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	public Object remove(final String key) {
 		Object result = null;
 		try {
-			openFile();
-			read();
-			result = properties.remove(key);
-			
-			write();
+			final Guard guard = openFile(false);
+			try {
+				final Map<String, JsonNode> properties = new HashMap<String, JsonNode>(
+						read(guard));
+				result = properties.remove(key);
+				
+				write(guard, properties);
+			} finally {
+				closeFile(guard, false);
+			}
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING,
+					"Couldn't handle Statefile: " + e.getMessage(), e);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		return result;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	@JsonIgnore
+	public Map<String, JsonNode> getAll(final Collection<String> keys) {
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				keys.size());
+		try {
+			final Guard guard = openFile(true);
+			try {
+				final Map<String, JsonNode> properties = read(guard);
+				for (final String key : keys) {
+					result.put(key, properties.get(key));
+				}
+			} finally {
+				closeFile(guard, true);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return result;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public void putAll(final Map<String, ?> values) {
+		final Map<String, JsonNode> json = toJson(values);
+		try {
+			final Guard guard = openFile(false);
+			try {
+				final Map<String, JsonNode> properties = new HashMap<String, JsonNode>(
+						read(guard));
+				properties.putAll(json);
+				write(guard, properties);
+			} finally {
+				closeFile(guard, false);
+			}
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING,
+					"Couldn't handle Statefile: " + e.getMessage(), e);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<String> keys) {
+		try {
+			final Guard guard = openFile(false);
+			try {
+				final Map<String, JsonNode> properties = new HashMap<String, JsonNode>(
+						read(guard));
+				if (properties.keySet().removeAll(keys)) {
+					write(guard, properties);
+				}
+			} finally {
+				closeFile(guard, false);
+			}
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING,
+					"Couldn't handle Statefile: " + e.getMessage(), e);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -447,18 +585,19 @@ public class ConcurrentJsonFileState extends AbstractState<JsonNode> {
 	public int size() {
 		int result = -1;
 		try {
-			openFile();
-			read();
-			result = properties.size();
-			
+			final Guard guard = openFile(true);
+			try {
+				result = read(guard).size();
+			} finally {
+				closeFile(guard, true);
+			}
 		} catch (final IllegalStateException e) {
 			LOG.log(Level.WARNING,
 					"Couldn't handle Statefile: " + e.getMessage(), e);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "", e);
 		}
-		closeFile();
 		return result;
 	}
-	
+
 }
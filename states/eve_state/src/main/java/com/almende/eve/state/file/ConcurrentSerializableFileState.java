@@ -20,6 +20,7 @@ import java.io.Serializable;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import java.util.logging.Logger;
 
 import com.almende.eve.state.AbstractState;
 import com.almende.eve.state.file.FileStateBuilder.FileStateProvider;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -393,6 +395,86 @@ public class ConcurrentSerializableFileState extends
 		return result;
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	public synchronized Map<String, Serializable> getAll(
+			final Collection<String> keys) {
+		final Map<String, Serializable> result = new HashMap<String, Serializable>(
+				keys.size());
+		try {
+			openFile();
+			read();
+			for (final String key : keys) {
+				result.put(key, properties.get(key));
+			}
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING, "Statefile is missing: " + e.getMessage());
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		closeFile();
+		return result;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public synchronized void putAll(final Map<String, ?> values) {
+		final Map<String, Serializable> converted = new HashMap<String, Serializable>(
+				values.size());
+		for (final Map.Entry<String, ?> entry : values.entrySet()) {
+			final Object value = entry.getValue();
+			if (value instanceof JsonNode) {
+				LOG.warning("Warning, this type of State can't store JsonNodes, only Serializable objects. This JsonNode is stored as string.");
+				converted.put(entry.getKey(), value.toString());
+			} else if (value == null || value instanceof Serializable) {
+				converted.put(entry.getKey(), (Serializable) value);
+			} else {
+				LOG.severe("Can't handle input that is not Serializable nor JsonNode.");
+				throw new IllegalArgumentException("Can't handle input that is not Serializable nor JsonNode.");
+			}
+		}
+		try {
+			openFile();
+			read();
+			properties.putAll(converted);
+			write();
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING, "Statefile is missing: " + e.getMessage());
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		closeFile();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public synchronized void removeAll(final Collection<String> keys) {
+		try {
+			openFile();
+			read();
+			if (properties.keySet().removeAll(keys)) {
+				write();
+			}
+		} catch (final IllegalStateException e) {
+			LOG.log(Level.WARNING, "Statefile is missing: " + e.getMessage());
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		closeFile();
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * 
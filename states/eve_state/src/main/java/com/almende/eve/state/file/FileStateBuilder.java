@@ -75,6 +75,8 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 	class FileStateProvider implements StateService {
 		private String									path	= null;
 		private Boolean									json	= true;
+		private boolean									log		= false;
+		private JsonStore								store	= null;
 		private final Map<String, WeakReference<State>>	states	= new ConcurrentHashMap<String, WeakReference<State>>(
 																		10);
 
@@ -87,7 +89,17 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 		public FileStateProvider(final ObjectNode params) {
 			final FileStateConfig config = FileStateConfig.decorate(params);
 			json = config.getJson();
+			log = config.getLog();
 			setPath(config.getPath());
+			if (config.getStore()) {
+				try {
+					store = new JsonStore(new File(path, ".store/states"),
+							config.getCompactAfter(), config.getStoreCache());
+				} catch (final IOException e) {
+					LOG.log(Level.SEVERE, "Could not open State store!", e);
+					throw new IllegalStateException(e);
+				}
+			}
 		}
 
 		/**
@@ -186,7 +198,9 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 
 			State state = null;
 			try {
-				if (!exists(agentId)) {
+				if (store != null) {
+					store.create(agentId);
+				} else if (!exists(agentId)) {
 					final String filename = getFilename(agentId);
 					final File file = new File(filename);
 
@@ -200,7 +214,14 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 					}
 				}
 				if (state == null) {
-					if (json) {
+					if (store != null) {
+						state = new JsonStoreState(agentId, store, this,
+								params);
+					} else if (json && log) {
+						state = new JsonLogFileState(agentId,
+								getFilename(agentId), getLogPath(), this,
+								params);
+					} else if (json) {
 						state = new ConcurrentJsonFileState(agentId,
 								getFilename(agentId), this, params);
 					} else {
@@ -223,6 +244,9 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 		 * @return true, if successful
 		 */
 		public boolean exists(final String agentId) {
+			if (store != null) {
+				return store.exists(agentId);
+			}
 			final File file = new File(getFilename(agentId));
 			return file.exists();
 		}
@@ -240,6 +264,17 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 			return apath + agentId;
 		}
 
+		/**
+		 * Gets the folder of the log files, a subfolder is used to keep them
+		 * out of the state ids.
+		 * 
+		 * @return the log path
+		 */
+		private String getLogPath() {
+			final String apath = path != null ? path : "./";
+			return apath + ".log";
+		}
+
 		/*
 		 * (non-Javadoc)
 		 * @see
@@ -258,11 +293,26 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
                 @Override
                 public void delete(final State instance, final Boolean instanceOnly) {
                         final String id = instance.getId();
-                        if(!instanceOnly) {
+                        if (instance instanceof JsonLogFileState) {
+                            ((JsonLogFileState) instance).close();
+                        }
+                        if (!instanceOnly && store != null) {
+                            try {
+                                store.delete(id);
+                            } catch (final IOException e) {
+                                LOG.log(Level.WARNING, "Couldn't delete State:" + id, e);
+                            }
+                        } else if(!instanceOnly) {
                             final File file = new File(getFilename(id));
                             if (file.exists()) {
                                     file.delete();
                             }
+                            if (instance instanceof JsonLogFileState) {
+                                for (final File logFile : ((JsonLogFileState) instance)
+                                        .getLogFiles()) {
+                                    logFile.delete();
+                                }
+                            }
                         }
                         states.remove(id);
                 }
@@ -281,6 +331,9 @@ public class FileStateBuilder extends AbstractCapabilityBuilder<State> {
 
 		@Override
 		public Set<String> getStateIds() {
+			if (store != null) {
+				return store.getStateIds();
+			}
 			final Set<String> result = new HashSet<String>();
 			try {
 				Iterator<Path> iter = Files.newDirectoryStream(
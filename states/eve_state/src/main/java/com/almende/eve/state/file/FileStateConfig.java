@@ -66,6 +66,103 @@ public class FileStateConfig extends StateConfig {
 		return true;
 	}
 
+	/**
+	 * Sets the log flag. If true, JSON states are kept in memory and every
+	 * change is appended to a per-agent log, which is compacted into the state
+	 * file in the background. Only a single process should open such a state.
+	 * (Optional, default is false)
+	 * 
+	 * @param log
+	 *            the new log
+	 */
+	public void setLog(final boolean log) {
+		this.put("log", log);
+	}
+
+	/**
+	 * Gets the log flag.
+	 * 
+	 * @return the log
+	 */
+	public boolean getLog() {
+		if (this.has("log")) {
+			return this.get("log").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the number of log records after which the log is compacted into
+	 * the state file. For the store, this is the min number of superseded
+	 * records before compaction. (Optional, default is 1000)
+	 * 
+	 * @param compactAfter
+	 *            the new compact after
+	 */
+	public void setCompactAfter(final int compactAfter) {
+		this.put("compactAfter", compactAfter);
+	}
+
+	/**
+	 * Gets the compact after.
+	 * 
+	 * @return the compact after
+	 */
+	public int getCompactAfter() {
+		if (this.has("compactAfter")) {
+			return this.get("compactAfter").asInt();
+		}
+		return 1000;
+	}
+
+	/**
+	 * Sets the store flag. If true, the JSON states of all agents in the path
+	 * are kept together in a single append-only store file, instead of a file
+	 * per agent. Only a single process should open the store. (Optional,
+	 * default is false)
+	 * 
+	 * @param store
+	 *            the new store
+	 */
+	public void setStore(final boolean store) {
+		this.put("store", store);
+	}
+
+	/**
+	 * Gets the store flag.
+	 * 
+	 * @return the store
+	 */
+	public boolean getStore() {
+		if (this.has("store")) {
+			return this.get("store").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the number of values the store keeps in memory, shared by all
+	 * agents. (Optional, default is 10000)
+	 * 
+	 * @param storeCache
+	 *            the new store cache
+	 */
+	public void setStoreCache(final int storeCache) {
+		this.put("storeCache", storeCache);
+	}
+
+	/**
+	 * Gets the store cache.
+	 * 
+	 * @return the store cache
+	 */
+	public int getStoreCache() {
+		if (this.has("storeCache")) {
+			return this.get("storeCache").asInt();
+		}
+		return 10000;
+	}
+
 	/**
 	 * Sets the path. (Required)
 	 * 
@@ -0,0 +1,442 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.state.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.state.AbstractState;
+import com.almende.eve.state.file.FileStateBuilder.FileStateProvider;
+import com.almende.util.TypeUtil;
+import com.almende.util.jackson.JOM;
+import com.almende.util.threads.ThreadPool;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class JsonLogFileState, a persistent state which keeps the agent's data
+ * in memory and appends every change as a JSON record (see JsonRecords) to a
+ * per-agent log. Reads are served from memory, writes cost a single append.
+ * <p>
+ * Once the log contains compactAfter records, it is rotated and compacted in
+ * the background: the image is written to the state file (in the same format
+ * as ConcurrentJsonFileState) and the old log is removed. On open, the image
+ * is rebuilt from the state file plus any remaining logs. Replaying a log over
+ * a newer state file is harmless, so a crash during compaction doesn't lose
+ * data.
+ * </p>
+ * <p>
+ * Unlike ConcurrentJsonFileState, this state doesn't lock the file: only a
+ * single process should open the state of a given agent.
+ * </p>
+ */
+public class JsonLogFileState extends AbstractState<JsonNode> {
+	private static final Logger					LOG			= Logger.getLogger(JsonLogFileState.class
+																	.getName());
+	private static final JavaType				MAPTYPE		= JOM.getTypeFactory()
+																	.constructMapLikeType(
+																			HashMap.class,
+																			String.class,
+																			JsonNode.class);
+	private final ConcurrentHashMap<String, JsonNode>	properties	= new ConcurrentHashMap<String, JsonNode>();
+	private final File							file;
+	private final File							log;
+	private final File							oldLog;
+	private final File							tmp;
+	private final int							compactAfter;
+	private final AtomicBoolean					compacting	= new AtomicBoolean(false);
+	private final Object						compactor	= new Object();
+	private final ObjectMapper					om			= JOM.getInstance();
+	private final ObjectWriter					writer		= om.writerFor(new TypeUtil<Map<String, JsonNode>>() {}
+																	.getJavaType());
+	private OutputStream						fos			= null;
+	private int									records		= 0;
+
+	/**
+	 * Instantiates a new json log file state, rebuilding the image from the
+	 * state file and logs.
+	 *
+	 * @param agentId
+	 *            the agent id
+	 * @param filename
+	 *            the filename of the state file
+	 * @param logPath
+	 *            the folder in which the logs are kept
+	 * @param service
+	 *            the service
+	 * @param params
+	 *            the params
+	 */
+	public JsonLogFileState(final String agentId, final String filename,
+			final String logPath, final FileStateProvider service,
+			final ObjectNode params) {
+		super(agentId, service, params);
+		this.file = new File(filename);
+		this.log = new File(logPath, agentId + ".log");
+		this.oldLog = new File(logPath, agentId + ".log.old");
+		this.tmp = new File(logPath, agentId + ".tmp");
+		this.compactAfter = Math.max(1,
+				FileStateConfig.decorate(params).getCompactAfter());
+		load();
+	}
+
+	/**
+	 * Rebuild the image from the state file and the logs.
+	 */
+	private void load() {
+		try {
+			if (file.exists() && file.length() > 0) {
+				final InputStream is = new FileInputStream(file);
+				try {
+					final Map<String, JsonNode> map = om.readValue(is, MAPTYPE);
+					if (map != null) {
+						for (final Map.Entry<String, JsonNode> entry : map
+								.entrySet()) {
+							properties.put(entry.getKey(),
+									nonNull(entry.getValue()));
+						}
+					}
+				} finally {
+					is.close();
+				}
+			}
+		} catch (final JsonMappingException jme) {
+			// empty file, new agent?
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't read statefile:" + file, e);
+		}
+		if (oldLog.exists()) {
+			// Left over from an interrupted compaction, finish it first.
+			replay(oldLog);
+			try {
+				writeImage(new HashMap<String, JsonNode>(properties));
+				records = 0;
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Couldn't compact log:" + oldLog, e);
+			}
+		}
+		final long end = replay(log);
+		if (end < log.length()) {
+			// Make sure new records don't get appended to an incomplete one.
+			LOG.warning("Discarding incomplete record at the end of:" + log);
+			try {
+				final RandomAccessFile raf = new RandomAccessFile(log, "rw");
+				try {
+					raf.setLength(end);
+				} finally {
+					raf.close();
+				}
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Couldn't repair log:" + log, e);
+			}
+		}
+	}
+
+	/**
+	 * Write the image to the state file and remove the compacted log.
+	 *
+	 * @param image
+	 *            the image
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeImage(final Map<String, JsonNode> image)
+			throws IOException {
+		final OutputStream os = new FileOutputStream(tmp);
+		try {
+			writer.writeValue(os, image);
+		} finally {
+			os.close();
+		}
+		JsonRecords.replace(tmp, file);
+		if (!oldLog.delete()) {
+			LOG.warning("Couldn't remove compacted log:" + oldLog);
+		}
+	}
+
+	/**
+	 * Apply the records of the given log to the image.
+	 *
+	 * @param logfile
+	 *            the logfile
+	 * @return the position after the last complete record, the length of the
+	 *         log if it couldn't be read.
+	 */
+	private long replay(final File logfile) {
+		if (!logfile.exists()) {
+			return 0;
+		}
+		try {
+			final InputStream is = new FileInputStream(logfile);
+			try {
+				return JsonRecords.scan(is, 0, logfile.toString(),
+						new JsonRecords.Visitor() {
+							@Override
+							public void visit(final JsonNode record,
+									final long offset, final int length) {
+								apply(record);
+								records++;
+							}
+						});
+			} finally {
+				is.close();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't replay log:" + logfile, e);
+		}
+		return logfile.length();
+	}
+
+	private void apply(final JsonNode record) {
+		final String op = record.path(JsonRecords.OP).asText();
+		final String key = record.path(JsonRecords.KEY).asText();
+		if (JsonRecords.PUT.equals(op)) {
+			properties.put(key, nonNull(record.get(JsonRecords.VALUE)));
+		} else if (JsonRecords.REMOVE.equals(op)) {
+			properties.remove(key);
+		} else if (JsonRecords.CLEAR.equals(op)) {
+			properties.clear();
+		}
+	}
+
+	private static JsonNode nonNull(final JsonNode value) {
+		return value == null ? NullNode.getInstance() : value;
+	}
+
+	/**
+	 * Append a record to the log, must be called while holding the lock on
+	 * this state.
+	 *
+	 * @param op
+	 *            the operation
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	private void append(final String op, final String key, final JsonNode value) {
+		try {
+			if (fos == null) {
+				log.getParentFile().mkdirs();
+				fos = new FileOutputStream(log, true);
+			}
+			fos.write(JsonRecords.encode(JsonRecords.create(null, op, key,
+					value)));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't append to log:" + log, e);
+		}
+		if (++records >= compactAfter) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rotate the log and write the image to the state file in the background.
+	 * If the old log is still there, a previous compaction failed: the log is
+	 * not rotated again, the image is just written anew. Must be called while
+	 * holding the lock on this state.
+	 */
+	private void compact() {
+		if (compacting.get()) {
+			return;
+		}
+		final Map<String, JsonNode> image;
+		try {
+			if (!oldLog.exists()) {
+				if (fos != null) {
+					fos.close();
+					fos = null;
+				}
+				if (!log.exists() || !log.renameTo(oldLog)) {
+					return;
+				}
+			}
+			image = new HashMap<String, JsonNode>(properties);
+			records = 0;
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't rotate log:" + log, e);
+			return;
+		}
+		compacting.set(true);
+		ThreadPool.getPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (compactor) {
+					try {
+						writeImage(image);
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "Couldn't compact log:" + oldLog
+								+ ", retrying on the next change.", e);
+						synchronized (JsonLogFileState.this) {
+							records = Math.max(records, compactAfter - 1);
+						}
+					} finally {
+						compacting.set(false);
+						compactor.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Close the log, waiting for a pending compaction to finish.
+	 */
+	public void close() {
+		synchronized (compactor) {
+			while (compacting.get()) {
+				try {
+					compactor.wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			synchronized (this) {
+				if (fos != null) {
+					try {
+						fos.close();
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "", e);
+					}
+					fos = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the log files of this state.
+	 *
+	 * @return the log files
+	 */
+	protected File[] getLogFiles() {
+		return new File[] { log, oldLog, tmp };
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#clear()
+	 */
+	@Override
+	public synchronized void clear() {
+		properties.clear();
+		append(JsonRecords.CLEAR, null, null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#keySet()
+	 */
+	@Override
+	public Set<String> keySet() {
+		return new HashSet<String>(properties.keySet());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#containsKey(java.lang.String)
+	 */
+	@Override
+	public boolean containsKey(final String key) {
+		return properties.containsKey(key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#get(java.lang.String)
+	 */
+	@Override
+	@JsonIgnore
+	public JsonNode get(final String key) {
+		return properties.get(key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#locPut(java.lang.String,
+	 * com.fasterxml.jackson.databind.JsonNode)
+	 */
+	@Override
+	public synchronized JsonNode locPut(final String key, final JsonNode value) {
+		final JsonNode val = nonNull(value);
+		properties.put(key, val);
+		append(JsonRecords.PUT, key, val);
+		return val;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.almende.eve.state.AbstractState#locPutIfUnchanged(java.lang.String,
+	 * com.fasterxml.jackson.databind.JsonNode,
+	 * com.fasterxml.jackson.databind.JsonNode)
+	 */
+	@Override
+	public synchronized boolean locPutIfUnchanged(final String key,
+			final JsonNode newVal, final JsonNode oldVal) {
+		final JsonNode cur = nonNull(properties.get(key));
+		final JsonNode old = nonNull(oldVal);
+
+		// Poor mans equality as some Numbers are compared incorrectly: e.g.
+		// IntNode versus LongNode
+		if (old.equals(cur) || old.toString().equals(cur.toString())) {
+			final JsonNode val = nonNull(newVal);
+			properties.put(key, val);
+			append(JsonRecords.PUT, key, val);
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#remove(java.lang.String)
+	 */
+	@Override
+	public synchronized Object remove(final String key) {
+		final JsonNode result = properties.remove(key);
+		if (result != null) {
+			append(JsonRecords.REMOVE, key, null);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#size()
+	 */
+	@Override
+	public int size() {
+		return properties.size();
+	}
+}
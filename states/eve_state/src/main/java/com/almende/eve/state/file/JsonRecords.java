@@ -0,0 +1,190 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.state.file;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class JsonRecords, the log format of JsonLogFileState and JsonStore:
+ * every change is a JSON record on a line of its own, holding the operation,
+ * the key and the new value, and in a shared store also the agent id. An
+ * incomplete last record, written during a crash, is skipped when reading.
+ */
+final class JsonRecords {
+	private static final Logger			LOG		= Logger.getLogger(JsonRecords.class
+														.getName());
+	private static final ObjectMapper	OM		= JOM.getInstance();
+	static final String					ID		= "id";
+	static final String					OP		= "op";
+	static final String					KEY		= "key";
+	static final String					VALUE	= "value";
+	static final String					PUT		= "put";
+	static final String					REMOVE	= "remove";
+	static final String					CLEAR	= "clear";
+	static final String					DELETE	= "delete";
+
+	/**
+	 * Receives the records read by scan().
+	 */
+	interface Visitor {
+
+		/**
+		 * Called for every complete record.
+		 *
+		 * @param record
+		 *            the record
+		 * @param offset
+		 *            the position of the record
+		 * @param length
+		 *            the length of the record, excluding its line end
+		 */
+		void visit(JsonNode record, long offset, int length);
+	}
+
+	private JsonRecords() {}
+
+	/**
+	 * Create a record.
+	 *
+	 * @param id
+	 *            the agent id, null in a per-agent log
+	 * @param op
+	 *            the operation
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the record
+	 */
+	static ObjectNode create(final String id, final String op,
+			final String key, final JsonNode value) {
+		final ObjectNode record = JOM.createObjectNode();
+		if (id != null) {
+			record.put(ID, id);
+		}
+		record.put(OP, op);
+		if (key != null) {
+			record.put(KEY, key);
+		}
+		if (value != null) {
+			record.set(VALUE, value);
+		}
+		return record;
+	}
+
+	/**
+	 * Encode a record, including its line end.
+	 *
+	 * @param record
+	 *            the record
+	 * @return the bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static byte[] encode(final ObjectNode record) throws IOException {
+		return encode(Collections.singletonList(record), null);
+	}
+
+	/**
+	 * Encode records, each including its line end, to be written at once.
+	 *
+	 * @param records
+	 *            the records
+	 * @param lengths
+	 *            if not null, receives the length of every record, excluding
+	 *            its line end
+	 * @return the bytes
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static byte[] encode(final List<ObjectNode> records, final int[] lengths)
+			throws IOException {
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int i = 0; i < records.size(); i++) {
+			final byte[] record = OM.writeValueAsBytes(records.get(i));
+			data.write(record);
+			data.write('\n');
+			if (lengths != null) {
+				lengths[i] = record.length;
+			}
+		}
+		return data.toByteArray();
+	}
+
+	/**
+	 * Read the records from the stream, up to its end. Corrupt records are
+	 * skipped.
+	 *
+	 * @param in
+	 *            the stream
+	 * @param from
+	 *            the position of the stream in its file
+	 * @param source
+	 *            the name of the file, for logging
+	 * @param visitor
+	 *            the visitor
+	 * @return the position after the last complete record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static long scan(final InputStream in, final long from,
+			final String source, final Visitor visitor) throws IOException {
+		final InputStream is = new BufferedInputStream(in);
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long pos = from;
+		long start = from;
+		int b = is.read();
+		while (b >= 0) {
+			pos++;
+			if (b == '\n') {
+				if (line.size() > 0) {
+					try {
+						visitor.visit(OM.readTree(line.toByteArray()), start,
+								line.size());
+					} catch (final IOException e) {
+						LOG.warning("Skipping corrupt record in:" + source
+								+ " at:" + start);
+					}
+				}
+				line.reset();
+				start = pos;
+			} else {
+				line.write(b);
+			}
+			b = is.read();
+		}
+		return start;
+	}
+
+	/**
+	 * Atomically replace the target by the completely written tmp file.
+	 *
+	 * @param tmp
+	 *            the tmp file
+	 * @param target
+	 *            the target
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static void replace(final File tmp, final File target) throws IOException {
+		Files.move(tmp.toPath(), target.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,737 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.state.file;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.jackson.JOM;
+import com.almende.util.threads.ThreadPool;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class JsonStore, keeps the states of all agents of a FileStateProvider in
+ * a single append-only file. Every change is appended as a JSON record (see
+ * JsonRecords), holding the agent id, the key and the new value. Only the
+ * position of the latest record of every key is kept in memory; values are read
+ * from the file on demand, through a cache of recently used values which is
+ * shared by all agents.
+ * <p>
+ * Once the file holds more superseded records than live ones (and at least
+ * compactAfter of them), it is compacted in the background: the live records
+ * are copied to a new file, while new records are still appended to the old
+ * one. Those are copied over as well, after which the new file replaces the
+ * old one. An incomplete last record, written during a crash, is discarded on
+ * open. A copy of the file is therefore always a usable backup of all states.
+ * </p>
+ * <p>
+ * Only a single process should open a given store.
+ * </p>
+ */
+final class JsonStore {
+	private static final Logger	LOG	= Logger.getLogger(JsonStore.class
+											.getName());
+
+	/**
+	 * The position of a record in the file, excluding its line end.
+	 */
+	private static final class Loc {
+		private final long	offset;
+		private final int	length;
+
+		private Loc(final long offset, final int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * The records of all agents, by agent id and key.
+	 */
+	private static final class Index {
+		private final Map<String, Map<String, Loc>>	agents	= new ConcurrentHashMap<String, Map<String, Loc>>();
+		private long								live	= 0;
+		private long								garbage	= 0;
+
+		private Map<String, Loc> create(final String id) {
+			Map<String, Loc> keys = agents.get(id);
+			if (keys == null) {
+				keys = new ConcurrentHashMap<String, Loc>();
+				agents.put(id, keys);
+			}
+			return keys;
+		}
+
+		private void apply(final JsonNode record, final Loc loc) {
+			final String id = record.path(JsonRecords.ID).asText();
+			final String op = record.path(JsonRecords.OP).asText();
+			final String key = record.path(JsonRecords.KEY).asText();
+			final Map<String, Loc> keys = agents.get(id);
+			if (JsonRecords.PUT.equals(op)) {
+				if (create(id).put(key, loc) == null) {
+					live++;
+				} else {
+					garbage++;
+				}
+			} else if (JsonRecords.REMOVE.equals(op)) {
+				if (keys != null && keys.remove(key) != null) {
+					live--;
+					garbage++;
+				}
+				garbage++;
+			} else if (JsonRecords.CLEAR.equals(op)) {
+				if (keys != null) {
+					live -= keys.size();
+					garbage += keys.size() + 1;
+					keys.clear();
+				} else {
+					create(id);
+				}
+			} else if (JsonRecords.DELETE.equals(op)) {
+				if (keys != null) {
+					live -= keys.size();
+					garbage += keys.size() + 1;
+					agents.remove(id);
+				}
+				garbage++;
+			}
+		}
+	}
+
+	private final File					file;
+	private final File					tmp;
+	private final int					compactAfter;
+	private final ObjectMapper			om			= JOM.getInstance();
+	private final ReadWriteLock			lock		= new ReentrantReadWriteLock();
+	private final AtomicBoolean			compacting	= new AtomicBoolean(false);
+	private final Map<String, JsonNode>	cache;
+	private FileChannel					channel		= null;
+	private Index						index		= new Index();
+	private long						end			= 0;
+
+	/**
+	 * Instantiates a new json store, opening or creating the store file.
+	 *
+	 * @param file
+	 *            the store file
+	 * @param compactAfter
+	 *            the min number of superseded records before compaction
+	 * @param cacheSize
+	 *            the max number of cached values
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("resource")
+	JsonStore(final File file, final int compactAfter, final int cacheSize)
+			throws IOException {
+		this.file = file;
+		this.tmp = new File(file.getPath() + ".tmp");
+		this.compactAfter = Math.max(1, compactAfter);
+		this.cache = Collections
+				.synchronizedMap(new LinkedHashMap<String, JsonNode>(16, 0.75f,
+						true) {
+					private static final long	serialVersionUID	= 1L;
+
+					@Override
+					protected boolean removeEldestEntry(
+							final Map.Entry<String, JsonNode> eldest) {
+						return size() > cacheSize;
+					}
+				});
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		if (tmp.exists() && !tmp.delete()) {
+			LOG.warning("Couldn't remove interrupted compaction:" + tmp);
+		}
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		end = scan(channel, 0, index);
+		if (end < channel.size()) {
+			LOG.warning("Discarding incomplete record at the end of:" + file);
+			channel.truncate(end);
+		}
+	}
+
+	/**
+	 * Read the records from the given position up to the end of the channel
+	 * into the index.
+	 *
+	 * @param in
+	 *            the channel
+	 * @param from
+	 *            the position of the first record
+	 * @param target
+	 *            the index
+	 * @return the position after the last complete record
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long scan(final FileChannel in, final long from, final Index target)
+			throws IOException {
+		in.position(from);
+		return JsonRecords.scan(Channels.newInputStream(in), from,
+				file.toString(), new JsonRecords.Visitor() {
+					@Override
+					public void visit(final JsonNode record, final long offset,
+							final int length) {
+						target.apply(record, new Loc(offset, length));
+					}
+				});
+	}
+
+	private static byte[] read(final FileChannel in, final Loc loc,
+			final int extra) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(loc.length + extra);
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer, loc.offset + buffer.position()) < 0) {
+				throw new EOFException("Record beyond end of store");
+			}
+		}
+		return buffer.array();
+	}
+
+	private static String cacheKey(final String id, final String key) {
+		return id + '\u0000' + key;
+	}
+
+	/**
+	 * Append a record, must be called while holding the write lock.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param op
+	 *            the operation
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void append(final String id, final String op, final String key,
+			final JsonNode value) throws IOException {
+		append(Collections.singletonList(JsonRecords.create(id, op, key, value)));
+	}
+
+	/**
+	 * Append records in a single write, must be called while holding the
+	 * write lock.
+	 *
+	 * @param records
+	 *            the records
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void append(final List<ObjectNode> records) throws IOException {
+		final int[] lengths = new int[records.size()];
+		final ByteBuffer buffer = ByteBuffer.wrap(JsonRecords.encode(records,
+				lengths));
+		long pos = end;
+		while (buffer.hasRemaining()) {
+			pos += channel.write(buffer, pos);
+		}
+		long offset = end;
+		for (int i = 0; i < lengths.length; i++) {
+			index.apply(records.get(i), new Loc(offset, lengths[i]));
+			offset += lengths[i] + 1;
+		}
+		end = pos;
+		if (index.garbage >= compactAfter && index.garbage > index.live
+				&& compacting.compareAndSet(false, true)) {
+			ThreadPool.getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compact();
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "Couldn't compact store:" + file,
+								e);
+					} finally {
+						compacting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copy the live records to a new file, which replaces the current one.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@SuppressWarnings("resource")
+	private void compact() throws IOException {
+		final Map<String, Map<String, Loc>> snapshot = new HashMap<String, Map<String, Loc>>();
+		final FileChannel source;
+		final long copied;
+		lock.writeLock().lock();
+		try {
+			for (final Map.Entry<String, Map<String, Loc>> entry : index.agents
+					.entrySet()) {
+				snapshot.put(entry.getKey(),
+						new HashMap<String, Loc>(entry.getValue()));
+			}
+			source = channel;
+			copied = end;
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		final Index fresh = new Index();
+		final FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+		try {
+			out.truncate(0);
+			final OutputStream os = new BufferedOutputStream(
+					Channels.newOutputStream(out));
+			long pos = 0;
+			for (final Map.Entry<String, Map<String, Loc>> entry : snapshot
+					.entrySet()) {
+				final Map<String, Loc> keys = fresh.create(entry.getKey());
+				if (entry.getValue().isEmpty()) {
+					final byte[] data = JsonRecords.encode(JsonRecords.create(
+							entry.getKey(), JsonRecords.CLEAR, null, null));
+					os.write(data);
+					pos += data.length;
+				}
+				for (final Map.Entry<String, Loc> key : entry.getValue()
+						.entrySet()) {
+					final Loc loc = key.getValue();
+					os.write(read(source, loc, 1));
+					keys.put(key.getKey(), new Loc(pos, loc.length));
+					fresh.live++;
+					pos += loc.length + 1;
+				}
+			}
+			os.flush();
+
+			lock.writeLock().lock();
+			try {
+				// Copy and index the records appended in the meantime.
+				long from = copied;
+				while (from < end) {
+					from += source.transferTo(from, end - from, out);
+				}
+				final long newEnd = scan(out, pos, fresh);
+				out.force(false);
+				out.close();
+				JsonRecords.replace(tmp, file);
+				channel = new RandomAccessFile(file, "rw").getChannel();
+				index = fresh;
+				end = newEnd;
+				source.close();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			if (out.isOpen()) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Check if the given agent has a state in this store.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @return true, if successful
+	 */
+	boolean exists(final String id) {
+		lock.readLock().lock();
+		try {
+			return index.agents.containsKey(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the ids of the agents in this store.
+	 *
+	 * @return the state ids
+	 */
+	Set<String> getStateIds() {
+		lock.readLock().lock();
+		try {
+			return new HashSet<String>(index.agents.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Create an empty state for the given agent, if it doesn't exist yet.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void create(final String id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (!index.agents.containsKey(id)) {
+				append(id, JsonRecords.CLEAR, null, null);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove the state of the given agent.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void delete(final String id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final Map<String, Loc> keys = index.agents.get(id);
+			if (keys != null) {
+				uncache(id, keys.keySet());
+				append(id, JsonRecords.DELETE, null, null);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void uncache(final String id, final Set<String> keys) {
+		for (final String key : keys) {
+			cache.remove(cacheKey(id, key));
+		}
+	}
+
+	/**
+	 * Gets the keys of the given agent.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @return the sets the
+	 */
+	Set<String> keySet(final String id) {
+		lock.readLock().lock();
+		try {
+			final Map<String, Loc> keys = index.agents.get(id);
+			return keys == null ? new HashSet<String>() : new HashSet<String>(
+					keys.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if the given agent has a value for the given key.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @return true, if successful
+	 */
+	boolean containsKey(final String id, final String key) {
+		lock.readLock().lock();
+		try {
+			final Map<String, Loc> keys = index.agents.get(id);
+			return keys != null && keys.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of keys of the given agent.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @return the int
+	 */
+	int size(final String id) {
+		lock.readLock().lock();
+		try {
+			final Map<String, Loc> keys = index.agents.get(id);
+			return keys == null ? 0 : keys.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the value of the given key, must be called while holding a lock.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is none.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private JsonNode read(final String id, final String key)
+			throws IOException {
+		final Map<String, Loc> keys = index.agents.get(id);
+		final Loc loc = keys == null ? null : keys.get(key);
+		if (loc == null) {
+			return null;
+		}
+		final String ckey = cacheKey(id, key);
+		JsonNode result = cache.get(ckey);
+		if (result == null) {
+			result = om.readTree(read(channel, loc, 0)).get(JsonRecords.VALUE);
+			if (result == null) {
+				result = NullNode.getInstance();
+			}
+			cache.put(ckey, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the value of the given key.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @return the value, or null if there is none.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	JsonNode get(final String id, final String key) throws IOException {
+		lock.readLock().lock();
+		try {
+			return read(id, key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the values of the given keys.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param keys
+	 *            the keys
+	 * @return the values, null for keys without a value.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Map<String, JsonNode> getAll(final String id, final Collection<String> keys)
+			throws IOException {
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				keys.size());
+		lock.readLock().lock();
+		try {
+			for (final String key : keys) {
+				result.put(key, read(id, key));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Store several values, in a single write.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param values
+	 *            the values
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void putAll(final String id, final Map<String, JsonNode> values)
+			throws IOException {
+		final List<ObjectNode> records = new ArrayList<ObjectNode>(
+				values.size());
+		for (final Map.Entry<String, JsonNode> entry : values.entrySet()) {
+			records.add(JsonRecords.create(id, JsonRecords.PUT, entry.getKey(),
+					entry.getValue()));
+		}
+		lock.writeLock().lock();
+		try {
+			uncache(id, values.keySet());
+			append(records);
+			for (final Map.Entry<String, JsonNode> entry : values.entrySet()) {
+				cache.put(cacheKey(id, entry.getKey()), entry.getValue());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove several keys, in a single write.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param keys
+	 *            the keys
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void removeAll(final String id, final Collection<String> keys)
+			throws IOException {
+		lock.writeLock().lock();
+		try {
+			final Map<String, Loc> current = index.agents.get(id);
+			final List<ObjectNode> records = new ArrayList<ObjectNode>();
+			for (final String key : keys) {
+				if (current != null && current.containsKey(key)) {
+					cache.remove(cacheKey(id, key));
+					records.add(JsonRecords.create(id, JsonRecords.REMOVE, key,
+							null));
+				}
+			}
+			if (!records.isEmpty()) {
+				append(records);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Store a value.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void put(final String id, final String key, final JsonNode value)
+			throws IOException {
+		lock.writeLock().lock();
+		try {
+			write(id, key, value);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void write(final String id, final String key, final JsonNode value)
+			throws IOException {
+		final String ckey = cacheKey(id, key);
+		cache.remove(ckey);
+		append(id, JsonRecords.PUT, key, value);
+		cache.put(ckey, value);
+	}
+
+	/**
+	 * Store a value, if the current value equals the given old value.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @param newVal
+	 *            the new value
+	 * @param oldVal
+	 *            the expected current value
+	 * @return true, if successful
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	boolean putIfUnchanged(final String id, final String key,
+			final JsonNode newVal, final JsonNode oldVal) throws IOException {
+		lock.writeLock().lock();
+		try {
+			JsonNode cur = read(id, key);
+			if (cur == null) {
+				cur = NullNode.getInstance();
+			}
+			// Poor mans equality as some Numbers are compared incorrectly: e.g.
+			// IntNode versus LongNode
+			if (oldVal.equals(cur) || oldVal.toString().equals(cur.toString())) {
+				write(id, key, newVal);
+				return true;
+			}
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if there was none.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	JsonNode remove(final String id, final String key) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final JsonNode result = read(id, key);
+			if (result != null) {
+				cache.remove(cacheKey(id, key));
+				append(id, JsonRecords.REMOVE, key, null);
+			}
+			return result;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove all keys of the given agent.
+	 *
+	 * @param id
+	 *            the agent id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void clear(final String id) throws IOException {
+		lock.writeLock().lock();
+		try {
+			final Map<String, Loc> keys = index.agents.get(id);
+			if (keys != null) {
+				uncache(id, keys.keySet());
+			}
+			append(id, JsonRecords.CLEAR, null, null);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
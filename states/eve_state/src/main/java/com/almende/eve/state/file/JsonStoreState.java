@@ -0,0 +1,210 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.state.file;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.eve.state.AbstractState;
+import com.almende.eve.state.file.FileStateBuilder.FileStateProvider;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The Class JsonStoreState, the state of a single agent in a JsonStore, which
+ * is shared by all agents of a FileStateProvider.
+ */
+public class JsonStoreState extends AbstractState<JsonNode> {
+	private static final Logger	LOG	= Logger.getLogger(JsonStoreState.class
+											.getName());
+	private final JsonStore		store;
+
+	/**
+	 * Instantiates a new json store state.
+	 *
+	 * @param agentId
+	 *            the agent id
+	 * @param store
+	 *            the store
+	 * @param service
+	 *            the service
+	 * @param params
+	 *            the params
+	 */
+	JsonStoreState(final String agentId, final JsonStore store,
+			final FileStateProvider service, final ObjectNode params) {
+		super(agentId, service, params);
+		this.store = store;
+	}
+
+	private static JsonNode nonNull(final JsonNode value) {
+		return value == null ? NullNode.getInstance() : value;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#clear()
+	 */
+	@Override
+	public void clear() {
+		try {
+			store.clear(getId());
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't clear state:" + getId(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#keySet()
+	 */
+	@Override
+	public Set<String> keySet() {
+		return store.keySet(getId());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#containsKey(java.lang.String)
+	 */
+	@Override
+	public boolean containsKey(final String key) {
+		return store.containsKey(getId(), key);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#get(java.lang.String)
+	 */
+	@Override
+	@JsonIgnore
+	public JsonNode get(final String key) {
+		try {
+			return store.get(getId(), key);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't read state:" + getId(), e);
+			return null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#locPut(java.lang.String,
+	 * com.fasterxml.jackson.databind.JsonNode)
+	 */
+	@Override
+	public JsonNode locPut(final String key, final JsonNode value) {
+		final JsonNode val = nonNull(value);
+		try {
+			store.put(getId(), key, val);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't write state:" + getId(), e);
+		}
+		return val;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.almende.eve.state.AbstractState#locPutIfUnchanged(java.lang.String,
+	 * com.fasterxml.jackson.databind.JsonNode,
+	 * com.fasterxml.jackson.databind.JsonNode)
+	 */
+	@Override
+	public boolean locPutIfUnchanged(final String key, final JsonNode newVal,
+			final JsonNode oldVal) {
+		try {
+			return store.putIfUnchanged(getId(), key, nonNull(newVal),
+					nonNull(oldVal));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't write state:" + getId(), e);
+			// Don't let users loop if exception is thrown. They
+			// would get into a deadlock....
+			return true;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#remove(java.lang.String)
+	 */
+	@Override
+	public Object remove(final String key) {
+		try {
+			return store.remove(getId(), key);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't write state:" + getId(), e);
+			return null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	@JsonIgnore
+	public Map<String, JsonNode> getAll(final Collection<String> keys) {
+		try {
+			return store.getAll(getId(), keys);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't read state:" + getId(), e);
+			return new HashMap<String, JsonNode>();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public void putAll(final Map<String, ?> values) {
+		try {
+			store.putAll(getId(), toJson(values));
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't write state:" + getId(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<String> keys) {
+		try {
+			store.removeAll(getId(), keys);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't write state:" + getId(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.almende.eve.state.State#size()
+	 */
+	@Override
+	public int size() {
+		return store.size(getId());
+	}
+}
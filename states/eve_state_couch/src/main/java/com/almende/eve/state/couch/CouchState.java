@@ -4,6 +4,8 @@
  */
 package com.almende.eve.state.couch;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -157,6 +159,77 @@ public class CouchState extends AbstractState<JsonNode> implements State {
 		return result;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public void putAll(final Map<String, ?> values) {
+		final Map<String, JsonNode> json = toJson(values);
+		try {
+			synchronized (properties) {
+				for (final Map.Entry<String, JsonNode> entry : json.entrySet()) {
+					properties.put(couchify(entry.getKey()), entry.getValue());
+				}
+			}
+			db.update(this);
+		} catch (final UpdateConflictException uce) {
+			read();
+			putAll(json);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to store properties", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<String> keys) {
+		try {
+			boolean changed = false;
+			synchronized (properties) {
+				for (final String key : keys) {
+					changed |= properties.remove(couchify(key)) != null;
+				}
+			}
+			if (changed) {
+				db.update(this);
+			}
+		} catch (final UpdateConflictException uce) {
+			read();
+			removeAll(keys);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, JsonNode> getAll(final Collection<String> keys) {
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				keys.size());
+		try {
+			boolean reread = false;
+			for (final String key : keys) {
+				JsonNode value = properties.get(couchify(key));
+				if (value == null && !reread) {
+					read();
+					reread = true;
+					value = properties.get(couchify(key));
+				}
+				result.put(key, value);
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "", e);
+		}
+		return result;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.state.State#containsKey(java.lang.String)
@@ -5,8 +5,15 @@
 package com.almende.eve.state.mongo;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -28,62 +35,36 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.mongodb.MongoException;
 import com.mongodb.WriteResult;
 
 /**
  * The Class MongoState.
+ * <p>
+ * The properties are stored as a sub-document, with a field per key holding
+ * the value as JSON text. Keys are escaped, as MongoDB doesn't allow '$' and
+ * '.' in field names. Writes only send the changed fields, through $set and
+ * $unset, so writers of different keys don't interfere. Conditional writes
+ * are checked against the stored field on the server.
+ * </p>
+ * <p>
+ * States stored in the former layout, with all properties in a single JSON
+ * string, are still read; they are converted on their first write.
+ * </p>
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class MongoState extends AbstractState<JsonNode> implements State {
 
-	/**
-	 * internal exception signifying update conflict.
-	 * 
-	 * @author ronny
-	 */
-	class UpdateConflictException extends Exception {
-
-		/**
-		 * 
-		 */
-		private static final long	serialVersionUID	= -8714877645567521282L;
-
-		/**
-		 * timestamp of last update
-		 */
-		private final Long			timestamp;
-
-		/**
-		 * default constructor for class specific exception.
-		 * 
-		 * @param timestamp
-		 *            the timestamp
-		 */
-		public UpdateConflictException(final Long timestamp) {
-			this.timestamp = timestamp;
-		}
-
-		/*
-		 * (non-Javadoc)
-		 * @see java.lang.Throwable#getMessage()
-		 */
-		@Override
-		public String getMessage() {
-			return "Document updated on [" + timestamp
-					+ "] is no longer the latest version.";
-		}
-
-	}
-
 	private static final Logger		LOG				= Logger.getLogger("MongoState");
+	private static final String		PROPERTIES		= "properties.";
 
 	/* mapping object that contains variables used by the agent */
 	@JsonIgnore
 	private Map<String, JsonNode>	properties		= Collections
 															.synchronizedMap(new HashMap<String, JsonNode>());
-	@JsonProperty("properties")
+	@JsonIgnore
 	private String					propertiesJson	= null;
+	@JsonIgnore
+	private boolean					legacy			= false;
 	private Long					timestamp;
 	@JsonIgnore
 	private MongoStateProvider		provider		= null;
@@ -123,7 +104,7 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 	}
 
 	/**
-	 * Gets the timestamp.
+	 * Gets the timestamp of the last full write.
 	 * 
 	 * @return the timestamp
 	 */
@@ -145,6 +126,113 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 		}
 	}
 
+	/**
+	 * Escape a key for use as field name: everything but letters, digits, '_'
+	 * and '-' is percent-encoded.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the field name
+	 */
+	private static String encode(final String key) {
+		final StringBuilder sb = new StringBuilder(key.length());
+		for (final byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			final char c = (char) (b & 0xFF);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (c >= '0' && c <= '9') || c == '_' || c == '-') {
+				sb.append(c);
+			} else {
+				sb.append('%');
+				sb.append(Character.toUpperCase(Character.forDigit(c >> 4, 16)));
+				sb.append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String decode(final String field) {
+		try {
+			return URLDecoder.decode(field, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			// UTF-8 is always supported.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String field(final String key) {
+		return "'" + PROPERTIES + encode(key) + "'";
+	}
+
+	private static String text(final JsonNode value) {
+		return value == null ? "null" : value.toString();
+	}
+
+	private JsonNode parse(final String key, final String text) {
+		try {
+			final JsonNode result = JOM.getInstance().readTree(text);
+			return result == null ? NullNode.getInstance() : result;
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Couldn't read:" + key, e);
+			return NullNode.getInstance();
+		}
+	}
+
+	/**
+	 * Set the given fields, in a single update.
+	 * 
+	 * @param values
+	 *            the values
+	 */
+	private void set(final Map<String, JsonNode> values) {
+		while (legacy) {
+			if (convertLegacy()) {
+				return;
+			}
+			// Reloaded, apply the change again.
+			properties.putAll(values);
+		}
+		final StringBuilder modifier = new StringBuilder("{$set: {");
+		final List<Object> params = new ArrayList<Object>(values.size());
+		for (final Map.Entry<String, JsonNode> entry : values.entrySet()) {
+			if (!params.isEmpty()) {
+				modifier.append(", ");
+			}
+			modifier.append(field(entry.getKey())).append(": #");
+			params.add(text(entry.getValue()));
+		}
+		modifier.append("}}");
+		provider.getInstance().update("{_id: #}", getId())
+				.with(modifier.toString(), params.toArray());
+	}
+
+	/**
+	 * Unset the given fields, in a single update.
+	 * 
+	 * @param keys
+	 *            the keys
+	 */
+	private void unset(final Collection<String> keys) {
+		while (legacy) {
+			if (convertLegacy()) {
+				return;
+			}
+			// Reloaded, apply the change again.
+			properties.keySet().removeAll(keys);
+		}
+		final StringBuilder modifier = new StringBuilder("{$unset: {");
+		boolean first = true;
+		for (final String key : keys) {
+			if (!first) {
+				modifier.append(", ");
+			}
+			modifier.append(field(key)).append(": ''");
+			first = false;
+		}
+		modifier.append("}}");
+		provider.getInstance().update("{_id: #}", getId())
+				.with(modifier.toString());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.state.State#remove(java.lang.String)
@@ -154,7 +242,7 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 		Object result = null;
 		try {
 			result = properties.remove(key);
-			updateProperties(false);
+			unset(Collections.singleton(key));
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "remove error", e);
 		}
@@ -196,10 +284,10 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 	 * @see com.almende.eve.state.State#clear()
 	 */
 	@Override
-	public void clear() {
+	public synchronized void clear() {
 		try {
 			properties.clear();
-			updateProperties(true);
+			updateProperties();
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "clear error", e);
 		}
@@ -252,16 +340,10 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 		JsonNode result = null;
 		try {
 			result = properties.put(key, value);
-			updateProperties(false);
-		} catch (final UpdateConflictException e) {
-			LOG.log(Level.WARNING, e.getMessage() + " Adding [" + key + "="
-					+ value + "]");
-			reloadProperties();
-			// go recursive if update conflict occurs
-			result = locPut(key, value);
+			set(Collections.singletonMap(key, value));
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "locPut error: Adding [" + key + "=" + value
-					+ "] " + properties, e);
+					+ "]", e);
 		}
 		return result;
 	}
@@ -278,26 +360,47 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 			final JsonNode newVal, JsonNode oldVal) {
 		boolean result = false;
 		try {
-			JsonNode cur = NullNode.getInstance();
-			if (properties.containsKey(key)) {
-				cur = properties.get(key);
-			}
 			if (oldVal == null) {
 				oldVal = NullNode.getInstance();
 			}
-
-			// Poor man's equality as some Numbers are compared incorrectly:
-			// e.g.
-			// IntNode versus LongNode
-			if (oldVal.equals(cur) || oldVal.toString().equals(cur.toString())) {
+			if (legacy) {
+				reloadProperties();
+				while (legacy) {
+					JsonNode cur = properties.get(key);
+					if (cur == null) {
+						cur = NullNode.getInstance();
+					}
+					if (!oldVal.equals(cur)
+							&& !oldVal.toString().equals(cur.toString())) {
+						return false;
+					}
+					properties.put(key, newVal);
+					if (convertLegacy()) {
+						return true;
+					}
+				}
+			}
+			// Compared as JSON text, as some Numbers are compared incorrectly:
+			// e.g. IntNode versus LongNode
+			final String field = field(key);
+			final MongoCollection collection = provider.getInstance();
+			final WriteResult res;
+			if (oldVal.isNull()) {
+				res = collection.update(
+						"{_id: #, $or: [{" + field + ": {$exists: false}}, {"
+								+ field + ": 'null'}]}", getId()).with(
+						"{$set: {" + field + ": #}}", text(newVal));
+			} else {
+				res = collection.update("{_id: #, " + field + ": #}", getId(),
+						oldVal.toString()).with("{$set: {" + field + ": #}}",
+						text(newVal));
+			}
+			if (res.getN() == 1) {
 				properties.put(key, newVal);
-				result = updateProperties(false);
+				result = true;
+			} else {
+				reloadProperty(key);
 			}
-		} catch (final UpdateConflictException e) {
-			LOG.log(Level.WARNING, e.getMessage());
-			reloadProperties();
-			// retry if update conflict occurs
-			locPutIfUnchanged(key, newVal, oldVal);
 		} catch (final Exception e) {
 			LOG.log(Level.WARNING, "locPutIfUnchanged error", e);
 		}
@@ -305,6 +408,63 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 		return result;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	@JsonIgnore
+	public Map<String, JsonNode> getAll(final Collection<String> keys) {
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				keys.size());
+		try {
+			if (!properties.keySet().containsAll(keys)) {
+				reloadProperties();
+			}
+			for (final String key : keys) {
+				result.put(key, properties.get(key));
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "getAll error", e);
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public synchronized void putAll(final Map<String, ?> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+		final Map<String, JsonNode> json = toJson(values);
+		try {
+			properties.putAll(json);
+			set(json);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "putAll error: Adding " + json.keySet(), e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public synchronized void removeAll(final Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		try {
+			properties.keySet().removeAll(keys);
+			unset(keys);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "removeAll error", e);
+		}
+	}
+
 	/**
 	 * returns agent properties as a mapped collection of JSON nodes.
 	 * 
@@ -317,11 +477,11 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 
 	/**
 	 * Gets the serialized version of {@link MongoState#properties}.
-	 *
+	 * 
 	 * @return the properties json
 	 */
 	@SuppressWarnings("javadoc")
-	@JsonProperty("properties")
+	@JsonIgnore
 	public String getPropertiesJSON() {
 
 		if (properties != null) {
@@ -337,29 +497,77 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 	}
 
 	/**
-	 * Sets the properties.
-	 *
+	 * Sets the properties, from their serialized version.
+	 * 
 	 * @param propertiesJson
 	 *            the new properties
 	 */
-	@JsonProperty("properties")
+	@JsonIgnore
 	public void setProperties(String propertiesJson) {
 
 		try {
 			if (propertiesJson != null) {
 				this.propertiesJson = propertiesJson;
-				properties = JOM.getInstance().readValue(propertiesJson,
-						new TypeReference<Map<String, JsonNode>>() {});
+				properties = Collections.synchronizedMap(JOM.getInstance()
+						.<Map<String, JsonNode>> readValue(propertiesJson,
+								new TypeReference<Map<String, JsonNode>>() {}));
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Gets the properties as stored in the database: by escaped key, with
+	 * the values as JSON text.
+	 * 
+	 * @return the stored properties
+	 */
+	@JsonProperty("properties")
+	public Map<String, String> getStoredProperties() {
+		final Map<String, String> result = new HashMap<String, String>();
+		synchronized (properties) {
+			for (final Map.Entry<String, JsonNode> entry : properties
+					.entrySet()) {
+				result.put(encode(entry.getKey()), text(entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the properties as stored in the database, either in the current
+	 * layout or as a single JSON string.
+	 * 
+	 * @param stored
+	 *            the stored properties
+	 */
+	@JsonProperty("properties")
+	public void setStoredProperties(final JsonNode stored) {
+		if (stored == null || stored.isNull()) {
+			return;
+		}
+		if (stored.isTextual()) {
+			legacy = true;
+			setProperties(stored.asText());
+			return;
+		}
+		legacy = false;
+		final Map<String, JsonNode> result = Collections
+				.synchronizedMap(new HashMap<String, JsonNode>());
+		final Iterator<Map.Entry<String, JsonNode>> fields = stored.fields();
+		while (fields.hasNext()) {
+			final Map.Entry<String, JsonNode> entry = fields.next();
+			final String key = decode(entry.getKey());
+			result.put(key, parse(key, entry.getValue().asText()));
+		}
+		properties = result;
+	}
+
 	/**
 	 * set all property values from a collection. (Warning, keys in the
 	 * properties map should be MongoDB safe: no '$', nor '.' in the keys!)
-	 *
+	 * 
 	 * @param properties
 	 *            the properties
 	 * @throws JsonProcessingException
@@ -370,22 +578,11 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 			throws JsonProcessingException {
 		this.properties.clear();
 		this.properties.putAll(properties);
-		try {
-			updateProperties(true);
-		} catch (final UpdateConflictException e) {
-			// should never happen
-			LOG.log(Level.WARNING, "setProperties error", e);
-		}
+		updateProperties();
 	}
 
 	/**
-	 * Refreshes the state according to the latest version as a preceding step
-	 * before recursive call.
-	 * With this mechanism, changes on different State property will be safely
-	 * merged. However, with
-	 * interwoven execution order among multiple threads, multiple updates on
-	 * the same State property
-	 * is not guaranteed to be executed properly.
+	 * Refreshes the state according to the latest version in the database.
 	 */
 	private synchronized void reloadProperties() {
 
@@ -395,43 +592,71 @@ public class MongoState extends AbstractState<JsonNode> implements State {
 		if (updatedState != null) {
 			timestamp = updatedState.timestamp;
 			properties = updatedState.properties;
+			legacy = updatedState.legacy;
 		} else {
 			properties = Collections
 					.synchronizedMap(new HashMap<String, JsonNode>());
 			timestamp = System.nanoTime();
+			legacy = false;
 		}
 	}
 
 	/**
-	 * updating the entire properties object at the same time, with force flag
-	 * to allow overwriting of updates
-	 * from other instances of the state
+	 * Refreshes a single property according to the latest version in the
+	 * database.
 	 * 
-	 * @param force
-	 * @throws UpdateConflictException
-	 *             | will not throw anything when $force flag is true
+	 * @param key
+	 *            the key
 	 */
-	private synchronized boolean updateProperties(final boolean force)
-			throws UpdateConflictException {
+	private void reloadProperty(final String key) {
+		final MongoCollection collection = provider.getInstance();
+		final MongoState updatedState = collection.findOne("{_id: #}", getId())
+				.projection("{" + field(key) + ": 1}").as(MongoState.class);
+		final JsonNode value = updatedState == null ? null
+				: updatedState.properties.get(key);
+		if (value == null) {
+			properties.remove(key);
+		} else {
+			properties.put(key, value);
+		}
+	}
+
+	/**
+	 * Replaces the entire properties object, in the current layout.
+	 */
+	private synchronized void updateProperties() {
+		final Long now = System.nanoTime();
+		final MongoCollection collection = provider.getInstance();
+		collection.update("{_id: #}", getId()).with(
+				"{$set: {properties: #, timestamp: #}}", getStoredProperties(),
+				now);
+		timestamp = now;
+		legacy = false;
+	}
+
+	/**
+	 * Converts a state in the former layout, including the local changes. The
+	 * write only succeeds if the document wasn't updated since it was loaded;
+	 * otherwise the state is reloaded, so the caller can apply its change
+	 * again and retry.
+	 * 
+	 * @return true, if the state was converted.
+	 */
+	private synchronized boolean convertLegacy() {
 		final Long now = System.nanoTime();
-		propertiesJson = getPropertiesJSON();
 		final MongoCollection collection = provider.getInstance();
-		/* write to database */
-		final WriteResult result = (force) ? collection.update("{_id: #}",
-				getId()).with("{$set: {properties: #, timestamp: #}}",
-				propertiesJson, now) : collection.update(
-				"{_id: #, timestamp: #}", getId(), timestamp).with(
-				"{$set: {properties: #, timestamp: #}}", propertiesJson, now);
-		/* check results */
-		final Boolean updatedExisting = (Boolean) result
-				.getField("updatedExisting");
-		if (result.getN() == 0 && result.getError() == null) {
-			throw new UpdateConflictException(timestamp);
-		} else if (result.getN() != 1) {
-			throw new MongoException(result.getError() + " <--- "
-					+ propertiesJson);
+		final WriteResult result = collection.update("{_id: #, timestamp: #}",
+				getId(), timestamp).with(
+				"{$set: {properties: #, timestamp: #}}", getStoredProperties(),
+				now);
+		if (result.getN() == 0) {
+			LOG.warning("Document updated on [" + timestamp
+					+ "] is no longer the latest version, reloading.");
+			reloadProperties();
+			return false;
 		}
 		timestamp = now;
-		return updatedExisting;
+		legacy = false;
+		return true;
 	}
 }
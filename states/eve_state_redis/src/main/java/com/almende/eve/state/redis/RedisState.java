@@ -5,7 +5,11 @@
 package com.almende.eve.state.redis;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,17 +26,25 @@ import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
- * The Class RedisState.
+ * The Class RedisState, stores the state of an agent in a single Redis hash,
+ * with a JSON value per field. Every operation takes a single round trip,
+ * conditional updates and removals are done atomically on the server.
  */
 public class RedisState extends AbstractState<JsonNode> implements State {
-	private static final Logger			LOG		= Logger.getLogger(RedisState.class
-														.getName());
+	private static final Logger			LOG				= Logger.getLogger(RedisState.class
+																.getName());
+	private static final String			HASH			= "State";
+	private static final String			REMOVE			= "local v = redis.call('HGET', KEYS[1], ARGV[1]) "
+																+ "if v then redis.call('HDEL', KEYS[1], ARGV[1]) end "
+																+ "return v";
+	private static final String			PUTIFUNCHANGED	= "local v = redis.call('HGET', KEYS[1], ARGV[1]) "
+																+ "if not v or v == '' then v = 'null' end "
+																+ "if v == ARGV[2] then "
+																+ "redis.call('HSET', KEYS[1], ARGV[1], ARGV[3]) "
+																+ "return 1 end "
+																+ "return 0";
 	private final RedisStateProvider	provider;
-	private static final String			KEYS	= "Keys";
-
-	private String makeKey(final String key) {
-		return getId() + "_" + key;
-	}
+	private final String				hash;
 
 	/**
 	 * Instantiates a new redis state.
@@ -48,6 +60,21 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 			final RedisStateProvider redisStateProvider, final ObjectNode params) {
 		super(id, redisStateProvider, params);
 		provider = redisStateProvider;
+		hash = id + "_" + HASH;
+	}
+
+	private JsonNode parse(final String key, final String data) {
+		JsonNode res = NullNode.getInstance();
+		try {
+			if (data != null && !data.trim().isEmpty()) {
+				res = JOM.getInstance().readTree(data);
+			}
+		} catch (JsonProcessingException e) {
+			LOG.log(Level.WARNING, "Couldn't read:" + hash + "." + key, e);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Couldn't read:" + hash + "." + key, e);
+		}
+		return res;
 	}
 
 	/*
@@ -57,20 +84,11 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	@Override
 	public Object remove(String key) {
 		final Jedis redis = provider.getInstance();
-		final String nkey = makeKey(key);
-
-		JsonNode res = JOM.createNullNode();
 		try {
-			res = JOM.getInstance().readTree(redis.get(nkey));
-		} catch (JsonProcessingException e) {
-			LOG.log(Level.WARNING, "Couldn't read:" + nkey, e);
-		} catch (IOException e) {
-			LOG.log(Level.WARNING, "Couldn't read:" + nkey, e);
+			return parse(key, (String) redis.eval(REMOVE, 1, hash, key));
+		} finally {
+			provider.returnInstance(redis);
 		}
-		redis.del(nkey);
-
-		provider.returnInstance(redis);
-		return res;
 	}
 
 	/*
@@ -79,7 +97,12 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	 */
 	@Override
 	public boolean containsKey(String key) {
-		return keySet().contains(key);
+		final Jedis redis = provider.getInstance();
+		try {
+			return redis.hexists(hash, key);
+		} finally {
+			provider.returnInstance(redis);
+		}
 	}
 
 	/*
@@ -89,14 +112,11 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	@Override
 	public Set<String> keySet() {
 		final Jedis redis = provider.getInstance();
-		Set<String> keys = redis.smembers(getId()+"_"+KEYS);
-		provider.returnInstance(redis);
-		
-		final Set<String> cleanKeys = new HashSet<String>();
-		for (String key : keys){
-			cleanKeys.add(key.replaceFirst(getId()+"_", ""));
-		}
-		return cleanKeys;
+		try {
+			return redis.hkeys(hash);
+		} finally {
+			provider.returnInstance(redis);
+		}
 	}
 
 	/*
@@ -106,12 +126,11 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	@Override
 	public void clear() {
 		final Jedis redis = provider.getInstance();
-		Set<String> keys = redis.smembers(getId()+"_"+KEYS);
-		for (String key : keys) {
-			redis.del(key);
-			redis.srem(getId()+"_"+KEYS, key);
+		try {
+			redis.del(hash);
+		} finally {
+			provider.returnInstance(redis);
 		}
-		provider.returnInstance(redis);
 	}
 
 	/*
@@ -120,11 +139,12 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	 */
 	@Override
 	public int size() {
-		Long res = Long.valueOf(0);
 		final Jedis redis = provider.getInstance();
-		res = redis.scard(getId()+"_"+KEYS);
-		provider.returnInstance(redis);
-		return res.intValue();
+		try {
+			return redis.hlen(hash).intValue();
+		} finally {
+			provider.returnInstance(redis);
+		}
 	}
 
 	/*
@@ -134,21 +154,77 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 	@Override
 	public JsonNode get(String key) {
 		final Jedis redis = provider.getInstance();
-		final String nkey = makeKey(key);
+		try {
+			return parse(key, redis.hget(hash, key));
+		} finally {
+			provider.returnInstance(redis);
+		}
+	}
 
-		JsonNode res = NullNode.getInstance();
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#getAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, JsonNode> getAll(final Collection<String> keys) {
+		final Map<String, JsonNode> result = new HashMap<String, JsonNode>(
+				keys.size());
+		if (keys.isEmpty()) {
+			return result;
+		}
+		final String[] fields = keys.toArray(new String[keys.size()]);
+		final List<String> values;
+		final Jedis redis = provider.getInstance();
 		try {
-			final String data = redis.get(nkey);
-			if (data != null && !data.trim().isEmpty()) {
-				res = JOM.getInstance().readTree(data);
-			}
-		} catch (JsonProcessingException e) {
-			LOG.log(Level.WARNING, "Couldn't read:" + nkey, e);
-		} catch (IOException e) {
-			LOG.log(Level.WARNING, "Couldn't read:" + nkey, e);
+			values = redis.hmget(hash, fields);
+		} finally {
+			provider.returnInstance(redis);
+		}
+		final Iterator<String> iter = values.iterator();
+		for (final String key : fields) {
+			result.put(key, parse(key, iter.next()));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#putAll(java.util.Map)
+	 */
+	@Override
+	public void putAll(final Map<String, ?> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+		final Map<String, String> fields = new HashMap<String, String>(
+				values.size());
+		for (final Map.Entry<String, JsonNode> entry : toJson(values)
+				.entrySet()) {
+			fields.put(entry.getKey(), entry.getValue().toString());
+		}
+		final Jedis redis = provider.getInstance();
+		try {
+			redis.hmset(hash, fields);
+		} finally {
+			provider.returnInstance(redis);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.almende.eve.state.AbstractState#removeAll(java.util.Collection)
+	 */
+	@Override
+	public void removeAll(final Collection<String> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		final Jedis redis = provider.getInstance();
+		try {
+			redis.hdel(hash, keys.toArray(new String[keys.size()]));
+		} finally {
+			provider.returnInstance(redis);
 		}
-		provider.returnInstance(redis);
-		return res;
 	}
 
 	@Override
@@ -157,36 +233,38 @@ public class RedisState extends AbstractState<JsonNode> implements State {
 			value = NullNode.getInstance();
 		}
 		final Jedis redis = provider.getInstance();
-		final String nkey = makeKey(key);
-		redis.set(nkey, value.toString());
-		redis.sadd(getId()+"_"+KEYS, nkey);
-		provider.returnInstance(redis);
+		try {
+			redis.hset(hash, key, value.toString());
+		} finally {
+			provider.returnInstance(redis);
+		}
 		return value;
 	}
 
 	@Override
-	public boolean locPutIfUnchanged(final String key, final JsonNode newVal,
+	public boolean locPutIfUnchanged(final String key, JsonNode newVal,
 			JsonNode oldVal) {
 		boolean result = false;
+		if (oldVal == null) {
+			oldVal = NullNode.getInstance();
+		}
+		if (newVal == null) {
+			newVal = NullNode.getInstance();
+		}
 		final Jedis redis = provider.getInstance();
 		try {
-			JsonNode cur = get(key);
-			if (oldVal == null) {
-				oldVal = NullNode.getInstance();
-			}
-			final String nkey = makeKey(key);
-			if (oldVal.equals(cur) || oldVal.toString().equals(cur.toString())) {
-				redis.set(nkey, newVal.toString());
-				redis.sadd(getId()+"_"+KEYS, nkey);
-				result = true;
-			}
+			// Compared as JSON text, so e.g. IntNode and LongNode match.
+			result = Long.valueOf(1).equals(
+					redis.eval(PUTIFUNCHANGED, 1, hash, key,
+							oldVal.toString(), newVal.toString()));
 		} catch (Exception e) {
 			LOG.log(Level.WARNING, "", e);
 			// Don't let users loop if exception is thrown. They
 			// would get into a deadlock....
 			result = true;
+		} finally {
+			provider.returnInstance(redis);
 		}
-		provider.returnInstance(redis);
 		return result;
 	}
 }
@@ -22,6 +22,7 @@ import com.almende.eve.protocol.jsonrpc.formats.Params;
 import com.almende.util.TypeUtil;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.CallbackFuture;
 import com.almende.util.callback.SyncCallback;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -167,6 +168,29 @@ public class ExampleAgent extends Agent implements ExampleAgentInterface {
 		return super.callSync(url, method, params, type);
 	}
 
+	/**
+	 * Public version of callAsync.
+	 *
+	 * @param <T>
+	 *            the generic type
+	 * @param url
+	 *            the url
+	 * @param method
+	 *            the method
+	 * @param params
+	 *            the params
+	 * @param type
+	 *            the type
+	 * @return the future
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public <T> CallbackFuture<T> pubSendAsync(final URI url,
+			final String method, final ObjectNode params,
+			final TypeUtil<T> type) throws IOException {
+		return super.callAsync(url, method, params, type);
+	}
+
 	/**
 	 * Call other agent.
 	 *
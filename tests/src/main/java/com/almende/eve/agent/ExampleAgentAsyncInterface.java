@@ -0,0 +1,37 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.agent;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.almende.eve.protocol.jsonrpc.annotation.Name;
+import com.almende.util.callback.CallbackFuture;
+
+/**
+ * The Interface ExampleAgentAsyncInterface, an asynchronous view on the
+ * ExampleAgent.
+ */
+public interface ExampleAgentAsyncInterface {
+
+	/**
+	 * Hello world.
+	 * 
+	 * @param message
+	 *            the message
+	 * @return the future string
+	 */
+	Future<String> helloWorld(@Name("message") String message);
+
+	/**
+	 * Gets the messages.
+	 *
+	 * @param messages
+	 *            the messages
+	 * @return the future messages
+	 */
+	CallbackFuture<List<MessageContainer>> getMessages(
+			@Name("message") List<MessageContainer> messages);
+}
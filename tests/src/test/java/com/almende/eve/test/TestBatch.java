@@ -0,0 +1,71 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.protocol.auth.DefaultAuthorizor;
+import com.almende.eve.protocol.jsonrpc.JSONRpc;
+import com.almende.eve.protocol.jsonrpc.formats.JSONBatch;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
+
+/**
+ * The Class TestBatch.
+ */
+public class TestBatch extends TestCase {
+	private static final Logger	LOG	= Logger.getLogger(TestBatch.class
+											.getName());
+
+	/**
+	 * Test JSON-RPC 2.0 batch invocation.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testBatch() throws IOException {
+		final ExampleAgent agent = new ExampleAgent();
+		final String request = "["
+				+ "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"helloWorld\",\"params\":{\"message\":\"one\"}},"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"helloWorld\",\"params\":{\"message\":\"notification\"}},"
+				+ "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"helloWorld\",\"params\":{\"message\":\"two\"}},"
+				+ "1]";
+		final String result = JSONRpc.invoke(agent, request,
+				new DefaultAuthorizor());
+		LOG.info("Batch result:" + result);
+
+		final JSONMessage reply = JSONMessage.jsonConvert(result);
+		assertTrue(reply.isBatch());
+		final JSONBatch batch = (JSONBatch) reply;
+		assertEquals(3, batch.size());
+		final JSONResponse first = (JSONResponse) batch.getMessages().get(0);
+		assertEquals(1, first.getId().asInt());
+		assertEquals("You said:one", first.getResult().asText());
+		final JSONResponse second = (JSONResponse) batch.getMessages().get(1);
+		assertEquals("You said:two", second.getResult().asText());
+		final JSONResponse invalid = (JSONResponse) batch.getMessages().get(2);
+		assertNotNull(invalid.getError());
+
+		final String empty = JSONRpc.invoke(agent, "[]",
+				new DefaultAuthorizor());
+		final JSONMessage emptyReply = JSONMessage.jsonConvert(empty);
+		assertTrue(emptyReply.isResponse());
+		assertNotNull(((JSONResponse) emptyReply).getError());
+
+		// A batch of only notifications has no response at all.
+		final String notifications = JSONRpc.invoke(agent, "["
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"helloWorld\",\"params\":{\"message\":\"one\"}},"
+				+ "{\"jsonrpc\":\"2.0\",\"method\":\"helloWorld\",\"params\":{\"message\":\"two\"}}"
+				+ "]", new DefaultAuthorizor());
+		assertNull(notifications);
+	}
+}
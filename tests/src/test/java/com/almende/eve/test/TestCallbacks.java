@@ -0,0 +1,144 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.AsyncCallbackStore;
+import com.almende.util.callback.TimeoutWheel;
+
+/**
+ * The Class TestCallbacks.
+ */
+public class TestCallbacks extends TestCase {
+
+	private static class Callback extends AsyncCallback<String> {
+		private final CountDownLatch				latch		= new CountDownLatch(
+																		1);
+		private final AtomicReference<Exception>	failure		= new AtomicReference<Exception>();
+
+		@Override
+		public void onSuccess(final String result) {
+			latch.countDown();
+		}
+
+		@Override
+		public void onFailure(final Exception exception) {
+			failure.set(exception);
+			latch.countDown();
+		}
+	}
+
+	private static class Counter extends TimeoutWheel.Timeout {
+		private final AtomicInteger	count		= new AtomicInteger(0);
+		private final AtomicLong	expiredAt	= new AtomicLong(0);
+
+		@Override
+		public void expire() {
+			expiredAt.set(System.currentTimeMillis());
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Test that a callback which is never answered expires through the wheel.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testExpire() throws Exception {
+		final AsyncCallbackStore<String> store = new AsyncCallbackStore<String>(
+				"testExpire");
+		store.setTimeout(1);
+
+		final Callback callback = new Callback();
+		store.put("one", "test", callback);
+
+		assertTrue(callback.latch.await(5, TimeUnit.SECONDS));
+		assertTrue(callback.failure.get() instanceof TimeoutException);
+		// Expired callbacks are removed from the store.
+		assertNull(store.get("one"));
+	}
+
+	/**
+	 * Test that pulling a callback from the store cancels its timeout.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		final AsyncCallbackStore<String> store = new AsyncCallbackStore<String>(
+				"testCancel");
+		store.setTimeout(1);
+
+		final Callback answered = new Callback();
+		final Callback cleared = new Callback();
+		store.put("one", "test", answered);
+		store.put("two", "test", cleared);
+		assertSame(answered, store.get("one"));
+		assertNull(store.get("one"));
+		store.clear();
+
+		assertFalse(answered.latch.await(2500, TimeUnit.MILLISECONDS));
+		assertFalse(cleared.latch.await(1, TimeUnit.MILLISECONDS));
+		assertNull(answered.failure.get());
+		assertNull(cleared.failure.get());
+
+		// The id can be used again after removal.
+		final Callback again = new Callback();
+		store.put("one", "test", again);
+		assertTrue(again.latch.await(5, TimeUnit.SECONDS));
+		assertTrue(again.failure.get() instanceof TimeoutException);
+	}
+
+	/**
+	 * Test the wheel itself: expiry, cancellation and timeouts longer than one
+	 * rotation.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testWheel() throws Exception {
+		// 8 ticks of 10ms, one rotation is 80ms.
+		final TimeoutWheel wheel = new TimeoutWheel(10, 8);
+		final Counter shortTimeout = new Counter();
+		final Counter longTimeout = new Counter();
+		final Counter cancelled = new Counter();
+
+		final long start = System.currentTimeMillis();
+		wheel.add(shortTimeout, 30);
+		wheel.add(longTimeout, 300);
+		wheel.add(cancelled, 30);
+		assertTrue(cancelled.cancel());
+		assertTrue(cancelled.isCancelled());
+
+		Thread.sleep(1000);
+		assertEquals(1, shortTimeout.count.get());
+		assertEquals(1, longTimeout.count.get());
+		assertEquals(0, cancelled.count.get());
+		assertTrue(shortTimeout.expiredAt.get() - start >= 30);
+		assertTrue(longTimeout.expiredAt.get() - start >= 300);
+
+		// Expired timeouts can't be cancelled anymore.
+		assertFalse(shortTimeout.cancel());
+		try {
+			wheel.add(shortTimeout, 10);
+			fail("Timeout shouldn't be scheduled twice.");
+		} catch (final IllegalStateException e) {}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.AgentBuilder;
+import com.almende.eve.agent.AgentConfig;
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.protocol.Meta;
+import com.almende.eve.protocol.ProtocolStack;
+import com.almende.eve.protocol.jsonrpc.CodecProtocol;
+import com.almende.eve.protocol.jsonrpc.CodecProtocolConfig;
+import com.almende.eve.protocol.jsonrpc.formats.Codec;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.eve.protocol.jsonrpc.formats.JSONRequest;
+import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
+import com.almende.eve.protocol.jsonrpc.formats.Params;
+import com.almende.util.TypeUtil;
+import com.almende.util.URIUtil;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * The Class TestCodec.
+ */
+public class TestCodec extends TestCase {
+	private static final URI	ALICE	= URIUtil.create("local:alice");
+	private static final URI	BOB		= URIUtil.create("local:bob");
+
+	private ProtocolStack stack(final String id, final String... codecs) {
+		final CodecProtocolConfig config = CodecProtocolConfig.create();
+		config.setId(id);
+		config.setCodecs(Arrays.asList(codecs));
+		final ProtocolStack stack = new ProtocolStack();
+		stack.add(new CodecProtocol(config, null));
+		return stack;
+	}
+
+	private Object send(final ProtocolStack from, final ProtocolStack to,
+			final URI fromUrl, final URI toUrl, final JSONMessage message) {
+		final Meta out = from.outbound(message, toUrl, null);
+		final Object wire = out.getMsg() instanceof JSONMessage ? out
+				.getMsg().toString() : out.getMsg();
+		final Meta in = to.inbound(wire, fromUrl, null);
+		final JSONMessage received = JSONMessage.jsonConvert(in.getMsg());
+		assertEquals(message.getId(), received.getId());
+		return wire;
+	}
+
+	/**
+	 * Test codec encoding and detection.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testCodecs() throws IOException {
+		final Params params = new Params();
+		params.add("message", "Hi there");
+		final JSONRequest request = new JSONRequest("helloWorld", params);
+		for (final Codec codec : Codec.values()) {
+			final byte[] data = codec.encode(request.toJsonNode());
+			assertEquals(codec, Codec.detect(data));
+			assertEquals(request, JSONMessage.jsonConvert(data));
+
+			// As send by transports without binary support
+			final String base64 = Base64Variants.getDefaultVariant().encode(
+					data);
+			assertEquals(codec.isBinary() ? codec : Codec.JSON,
+					Codec.detect(base64));
+			if (codec.isBinary()) {
+				assertEquals(request, JSONMessage.jsonConvert(base64));
+			}
+		}
+	}
+
+	/**
+	 * Test negotiation between two protocol stacks.
+	 */
+	@Test
+	public void testNegotiation() {
+		final ProtocolStack alice = stack("alice", "cbor", "smile");
+		final ProtocolStack bob = stack("bob", "smile", "cbor");
+		final ProtocolStack carol = new ProtocolStack();
+
+		final Params params = new Params();
+		params.add("message", "Hi there");
+
+		// First request offers codecs
+		final Object first = send(alice, bob, ALICE, BOB, new JSONRequest(
+				"helloWorld", params));
+		assertTrue(first instanceof String);
+		assertTrue(((String) first).contains("cbor"));
+
+		// Bob picks Alice's first choice
+		final Object reply = send(bob, alice, BOB, ALICE, new JSONResponse(
+				JOM.getInstance().valueToTree("You said:Hi there")));
+		assertTrue(reply instanceof byte[]);
+		assertEquals(Codec.CBOR, Codec.detect((byte[]) reply));
+
+		// Alice now uses cbor as well.
+		final Object second = send(alice, bob, ALICE, BOB, new JSONRequest(
+				"helloWorld", params));
+		assertTrue(second instanceof byte[]);
+		assertEquals(Codec.CBOR, Codec.detect((byte[]) second));
+
+		// Peers without the protocol never see binary messages.
+		final Meta out = alice.outbound(new JSONRequest("helloWorld", params),
+				URIUtil.create("local:carol"), null);
+		carol.inbound(out.getMsg().toString(), ALICE, null);
+		final Meta back = alice.inbound(new JSONResponse(JOM.getInstance()
+				.valueToTree("You said:Hi there")).toString(), URIUtil
+				.create("local:carol"), null);
+		assertTrue(back.getMsg() instanceof String);
+		final Object third = alice.outbound(
+				new JSONRequest("helloWorld", params),
+				URIUtil.create("local:carol"), null).getMsg();
+		assertFalse(third instanceof byte[]);
+		assertFalse(third.toString().contains("codecs"));
+	}
+
+	/**
+	 * Test binary calls between two agents.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testAgents() throws IOException {
+		final ArrayNode protocols = JOM.createArrayNode();
+		protocols.add(CodecProtocolConfig.create());
+
+		final AgentConfig config = AgentConfig.create("codecAgent1");
+		config.setClassName(ExampleAgent.class.getName());
+		config.setProtocols(protocols);
+		final ExampleAgent agent = (ExampleAgent) new AgentBuilder()
+				.withConfig(config).build();
+
+		final AgentConfig config2 = AgentConfig.create("codecAgent2");
+		config2.setClassName(ExampleAgent.class.getName());
+		config2.setProtocols(protocols.deepCopy());
+		new AgentBuilder().withConfig(config2).build();
+
+		final Params params = new Params();
+		params.add("message", "Hi there");
+		for (int i = 0; i < 5; i++) {
+			assertEquals("You said:Hi there", agent.pubSendSync(
+					URIUtil.create("local:codecAgent2"), "helloWorld", params,
+					new TypeUtil<String>() {}));
+		}
+	}
+}
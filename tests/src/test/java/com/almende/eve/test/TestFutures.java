@@ -0,0 +1,91 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.AgentBuilder;
+import com.almende.eve.agent.AgentConfig;
+import com.almende.eve.agent.AgentProxyFactory;
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.agent.ExampleAgentAsyncInterface;
+import com.almende.eve.agent.MessageContainer;
+import com.almende.eve.protocol.jsonrpc.formats.Params;
+import com.almende.util.TypeUtil;
+import com.almende.util.URIUtil;
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.callback.CallbackFuture;
+
+/**
+ * The Class TestFutures.
+ */
+public class TestFutures extends TestCase {
+
+	private ExampleAgent create(final String id) {
+		final AgentConfig config = AgentConfig.create(id);
+		config.setClassName(ExampleAgent.class.getName());
+		return (ExampleAgent) new AgentBuilder().withConfig(config).build();
+	}
+
+	/**
+	 * Test future based calls.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testFutures() throws Exception {
+		final ExampleAgent agent = create("futureAgent1");
+		create("futureAgent2");
+
+		final List<CallbackFuture<String>> futures = new ArrayList<CallbackFuture<String>>();
+		final CountDownLatch latch = new CountDownLatch(100);
+		for (int i = 0; i < 100; i++) {
+			final Params params = new Params();
+			params.add("message", "Hi " + i);
+			final CallbackFuture<String> future = agent.pubSendAsync(
+					URIUtil.create("local:futureAgent2"), "helloWorld",
+					params, new TypeUtil<String>() {});
+			future.addCallback(new AsyncCallback<String>() {
+				@Override
+				public void onSuccess(final String result) {
+					latch.countDown();
+				}
+
+				@Override
+				public void onFailure(final Exception exception) {}
+			});
+			futures.add(future);
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 100; i++) {
+			assertTrue(futures.get(i).isDone());
+			assertEquals("You said:Hi " + i, futures.get(i).get());
+		}
+
+		final ExampleAgentAsyncInterface proxy = AgentProxyFactory.genProxy(
+				agent, URIUtil.create("local:futureAgent2"),
+				ExampleAgentAsyncInterface.class);
+		final Future<String> hello = proxy.helloWorld("proxy");
+		assertEquals("You said:proxy", hello.get(10, TimeUnit.SECONDS));
+
+		final List<MessageContainer> messages = new ArrayList<MessageContainer>();
+		final MessageContainer message = new MessageContainer();
+		message.setMessage("x");
+		messages.add(message);
+		final List<MessageContainer> result = proxy.getMessages(messages).get(
+				10, TimeUnit.SECONDS);
+		assertEquals(1, result.size());
+		assertEquals("x", result.get(0).getMessage());
+	}
+}
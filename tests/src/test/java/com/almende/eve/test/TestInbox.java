@@ -0,0 +1,172 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.AgentBuilder;
+import com.almende.eve.agent.AgentConfig;
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.protocol.InboxProtocol;
+import com.almende.eve.protocol.InboxProtocolConfig;
+import com.almende.eve.protocol.MetaImpl;
+import com.almende.eve.protocol.Protocol;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
+import com.almende.eve.protocol.jsonrpc.formats.Params;
+import com.almende.util.TypeUtil;
+import com.almende.util.URIUtil;
+import com.almende.util.callback.CallbackFuture;
+import com.almende.util.jackson.JOM;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * The Class TestInbox.
+ */
+public class TestInbox extends TestCase {
+
+	/**
+	 * The Class InboxAgent, counts concurrent calls.
+	 */
+	@Access(AccessType.PUBLIC)
+	public static class InboxAgent extends ExampleAgent {
+		private static final AtomicInteger	ACTIVE	= new AtomicInteger(0);
+		private static final AtomicInteger	MAX		= new AtomicInteger(0);
+
+		/**
+		 * Count concurrent invocations.
+		 *
+		 * @return the number of concurrent invocations seen so far.
+		 */
+		public int count() {
+			final int active = ACTIVE.incrementAndGet();
+			if (active > MAX.get()) {
+				MAX.set(active);
+			}
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {}
+			ACTIVE.decrementAndGet();
+			return MAX.get();
+		}
+	}
+
+	/**
+	 * The Class DeferredInbox, installs its looper after construction.
+	 */
+	public static class DeferredInbox extends InboxProtocol {
+
+		/**
+		 * Instantiates a new deferred inbox.
+		 */
+		public DeferredInbox() {
+			super(InboxProtocolConfig.create(), null, true);
+		}
+
+		/**
+		 * Start the default loop.
+		 */
+		@SuppressWarnings("deprecation")
+		public void start() {
+			initDefLoop();
+		}
+	}
+
+	/**
+	 * Test inbox.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testInbox() throws Exception {
+		final InboxProtocolConfig inbox = InboxProtocolConfig.create();
+		inbox.setSupportSynccalls(true);
+		inbox.setBatchSize(4);
+		final ArrayNode protocols = JOM.createArrayNode();
+		protocols.add(inbox);
+
+		final AgentConfig config = AgentConfig.create("inboxAgent");
+		config.setClassName(InboxAgent.class.getName());
+		config.setProtocols(protocols);
+		new AgentBuilder().withConfig(config).build();
+
+		final AgentConfig config2 = AgentConfig.create("inboxPeer");
+		config2.setClassName(ExampleAgent.class.getName());
+		final ExampleAgent peer = (ExampleAgent) new AgentBuilder()
+				.withConfig(config2).build();
+
+		final List<CallbackFuture<Integer>> futures = new ArrayList<CallbackFuture<Integer>>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(peer.pubSendAsync(URIUtil.create("local:inboxAgent"),
+					"count", new Params(), new TypeUtil<Integer>() {}));
+		}
+		for (final CallbackFuture<Integer> future : futures) {
+			assertEquals(Integer.valueOf(1), future.get(10, TimeUnit.SECONDS));
+		}
+
+		// Synchronous call from within the inbox, the reply needs to pass the
+		// same inbox.
+		final Params params = new Params();
+		params.put("url", "local:inboxPeer");
+		params.put("method", "helloWorld");
+		final Params inner = new Params();
+		inner.put("message", "inbox");
+		params.set("params", inner);
+		assertEquals("You said:inbox", peer.pubSendSync(
+				URIUtil.create("local:inboxAgent"), "callOtherAgent", params,
+				new TypeUtil<String>() {}));
+	}
+
+	/**
+	 * Test that the no init constructor defers handling until the subclass
+	 * installs its looper.
+	 *
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test
+	public void testDeferredInbox() throws Exception {
+		final CountDownLatch handled = new CountDownLatch(2);
+		// End of the protocol stack, counts the handled messages.
+		final Iterator<Protocol> end = new Iterator<Protocol>() {
+			@Override
+			public boolean hasNext() {
+				handled.countDown();
+				return false;
+			}
+
+			@Override
+			public Protocol next() {
+				throw new NoSuchElementException();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		final DeferredInbox inbox = new DeferredInbox();
+		inbox.inbound(new MetaImpl("one", null, null, end));
+		inbox.inbound(new MetaImpl("two", null, null, end));
+		assertFalse(handled.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, inbox.getInbox().size());
+
+		inbox.start();
+		assertTrue(handled.await(5, TimeUnit.SECONDS));
+		inbox.delete();
+	}
+}
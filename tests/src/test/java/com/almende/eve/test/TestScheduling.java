@@ -4,14 +4,21 @@
  */
 package com.almende.eve.test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import junit.framework.TestCase;
 
+import org.joda.time.DateTime;
+
 import org.junit.Test;
 
 import com.almende.eve.agent.AgentBuilder;
 import com.almende.eve.agent.AgentConfig;
 import com.almende.eve.agent.SchedulingAgent;
 import com.almende.eve.scheduling.SimpleSchedulerConfig;
+import com.almende.eve.scheduling.clock.RunnableClock;
 
 /**
  * The Class TestScheduling.
@@ -38,4 +45,53 @@ public class TestScheduling extends TestCase {
 		} catch (final InterruptedException e) {}
 
 	}
+
+	/**
+	 * Test the realtime clock: many triggers, replacement and cancellation.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testClock() throws InterruptedException {
+		final RunnableClock clock = new RunnableClock();
+		final int count = 100000;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger wrong = new AtomicInteger(0);
+		final long start = clock.now();
+		for (int i = 0; i < count; i++) {
+			final long due = start + 100 + (i % 1000);
+			clock.requestTrigger("trigger" + i, new DateTime(due),
+					new Runnable() {
+						@Override
+						public void run() {
+							if (System.currentTimeMillis() < due) {
+								wrong.incrementAndGet();
+							}
+							latch.countDown();
+						}
+					});
+		}
+		final AtomicInteger fired = new AtomicInteger(0);
+		final Runnable fire = new Runnable() {
+			@Override
+			public void run() {
+				fired.incrementAndGet();
+			}
+		};
+		// Later request is skipped, earlier request replaces.
+		clock.requestTrigger("replaced", new DateTime(start + 500), fire);
+		clock.requestTrigger("replaced", new DateTime(start + 800), fire);
+		clock.requestTrigger("replaced", new DateTime(start + 200), fire);
+		// Far away triggers are cascaded or cancelled.
+		clock.requestTrigger("far", new DateTime(start + 20000), fire);
+		clock.requestTrigger("cancelled", new DateTime(start + 300), fire);
+		clock.cancel("cancelled");
+
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, wrong.get());
+		Thread.sleep(1000);
+		assertEquals(1, fired.get());
+		clock.clear();
+	}
 }
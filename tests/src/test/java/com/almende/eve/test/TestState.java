@@ -4,6 +4,10 @@
  */
 package com.almende.eve.test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import junit.framework.TestCase;
 
 import org.junit.Test;
@@ -15,6 +19,7 @@ import com.almende.eve.state.couch.CouchState;
 import com.almende.eve.state.couch.CouchStateBuilder;
 import com.almende.eve.state.couch.CouchStateConfig;
 import com.almende.eve.state.file.FileStateBuilder;
+import com.almende.eve.state.file.FileStateConfig;
 import com.almende.eve.state.memory.MemoryStateConfig;
 import com.almende.eve.state.mongo.MongoState;
 import com.almende.eve.state.mongo.MongoStateBuilder;
@@ -43,6 +48,20 @@ public class TestState extends TestCase {
 		assertEquals("Hi There!", myState.get("msg", String.class));
 		assertEquals("Hi There!", myState2.get("msg", String.class));
 
+		final Map<String, Object> values = new HashMap<String, Object>();
+		values.put("a", "one");
+		values.put("b", "two");
+		myState.putAll(values);
+		final Map<String, String> res = myState2.getAll(
+				Arrays.asList("a", "b", "c"), String.class);
+		assertEquals("one", res.get("a"));
+		assertEquals("two", res.get("b"));
+		assertNull(res.get("c"));
+		myState.removeAll(Arrays.asList("a", "b"));
+		assertFalse(myState2.containsKey("a"));
+		assertFalse(myState2.containsKey("b"));
+		assertTrue(myState2.containsKey("msg"));
+
 		myState.delete();
 		assertNull(myState.get("msg", String.class));
 	}
@@ -91,6 +110,90 @@ public class TestState extends TestCase {
 
 	}
 
+	/**
+	 * Test file state with log.
+	 */
+	@Test
+	public void testLogFileState() {
+		final FileStateConfig params = FileStateConfig.create();
+		params.setId("TestLogAgent");
+		params.setPath(".eveagents_log");
+		params.setLog(true);
+		params.setCompactAfter(10);
+
+		State myState = new CapabilityBuilder<State>().withConfig(params)
+				.build();
+		State myState2 = new StateBuilder().withConfig(params).build();
+		runTest(myState, myState2);
+
+		// Image is rebuilt from state file and log.
+		myState = new StateBuilder().withConfig(params).build();
+		for (int i = 0; i < 25; i++) {
+			myState.put("key" + i, i);
+		}
+		myState.remove("key3");
+		assertTrue(myState.putIfUnchanged("key4", 40, 4));
+		assertFalse(myState.putIfUnchanged("key5", 50, 4));
+		myState.delete(true);
+
+		myState2 = new StateBuilder().withConfig(params).build();
+		assertNotSame(myState, myState2);
+		assertEquals(24, myState2.size());
+		assertFalse(myState2.containsKey("key3"));
+		assertEquals(Integer.valueOf(40), myState2.get("key4", Integer.class));
+		assertEquals(Integer.valueOf(24), myState2.get("key24", Integer.class));
+		myState2.delete();
+	}
+
+	/**
+	 * Test file state in a shared store.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testStoreFileState() throws InterruptedException {
+		final FileStateConfig params = FileStateConfig.create();
+		params.setId("TestStoreAgent");
+		params.setPath(".eveagents_store");
+		params.setStore(true);
+		params.setCompactAfter(10);
+		params.setStoreCache(5);
+
+		State myState = new CapabilityBuilder<State>().withConfig(params)
+				.build();
+		State myState2 = new StateBuilder().withConfig(params).build();
+		runTest(myState, myState2);
+
+		final FileStateConfig params2 = FileStateConfig.decorate(params
+				.deepCopy());
+		params2.setId("TestStoreAgent2");
+		myState = new StateBuilder().withConfig(params).build();
+		myState2 = new StateBuilder().withConfig(params2).build();
+		for (int i = 0; i < 25; i++) {
+			for (int j = 0; j < 5; j++) {
+				myState.put("key" + i, i * j);
+				myState2.put("key" + i, -i * j);
+			}
+		}
+		myState.remove("key3");
+		assertTrue(myState.putIfUnchanged("key4", 40, 16));
+		assertFalse(myState.putIfUnchanged("key5", 50, 4));
+
+		// Give the background compaction some time.
+		Thread.sleep(500);
+		assertEquals(24, myState.size());
+		assertEquals(25, myState2.size());
+		assertFalse(myState.containsKey("key3"));
+		assertEquals(Integer.valueOf(40), myState.get("key4", Integer.class));
+		assertEquals(Integer.valueOf(96), myState.get("key24", Integer.class));
+		assertEquals(Integer.valueOf(-96), myState2.get("key24", Integer.class));
+		myState.delete();
+		assertEquals(0, myState.size());
+		assertEquals(25, myState2.size());
+		myState2.delete();
+	}
+
 	/**
 	 * Test file state.
 	 */
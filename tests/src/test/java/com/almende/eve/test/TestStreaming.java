@@ -0,0 +1,62 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.almende.eve.agent.ExampleAgent;
+import com.almende.eve.protocol.auth.DefaultAuthorizor;
+import com.almende.eve.protocol.jsonrpc.JSONRpc;
+import com.almende.eve.protocol.jsonrpc.formats.JSONMessage;
+import com.almende.eve.protocol.jsonrpc.formats.JSONResponse;
+
+/**
+ * The Class TestStreaming.
+ */
+public class TestStreaming extends TestCase {
+
+	private JSONResponse call(final ExampleAgent agent, final String request)
+			throws IOException {
+		return (JSONResponse) JSONMessage.jsonConvert(JSONRpc.invoke(agent,
+				request, new DefaultAuthorizor()));
+	}
+
+	/**
+	 * Test that streamed (method before params) and tree based (params before
+	 * method) parameter binding give the same results.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testStreamingParams() throws IOException {
+		final ExampleAgent agent = new ExampleAgent();
+		final String params = "{\"message\":[{\"message\":\"x\"},{\"message\":\"y\"}],\"unused\":{\"a\":[1,2]}}";
+
+		final JSONResponse streamed = call(agent,
+				"{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"getMessages\",\"params\":"
+						+ params + "}");
+		final JSONResponse tree = call(agent, "{\"params\":" + params
+				+ ",\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"getMessages\"}");
+		assertNull(streamed.getError());
+		assertEquals(2, streamed.getResult().size());
+		assertEquals("y", streamed.getResult().get(1).get("message").asText());
+		assertEquals(tree.getResult(), streamed.getResult());
+
+		final JSONResponse missing = call(agent,
+				"{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"helloWorld\",\"params\":{}}");
+		assertEquals(2, missing.getId().asInt());
+		assertNotNull(missing.getError());
+
+		final JSONResponse wrongType = call(agent,
+				"{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"getMessages\",\"params\":{\"message\":\"wrong\"}}");
+		assertEquals(3, wrongType.getId().asInt());
+		assertNotNull(wrongType.getError());
+	}
+}
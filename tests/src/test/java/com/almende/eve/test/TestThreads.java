@@ -114,4 +114,56 @@ public class TestThreads extends TestCase {
 				+ " ms for " + nofjobs + " jobs)");
 	}
 
+	/**
+	 * Test the work stealing pool with reported blocking.
+	 */
+	@Test
+	public void testWorkStealing() {
+		ThreadPool.setWorkStealing(true);
+		int nofjobs = 5000;
+		DateTime start = DateTime.now();
+		final boolean[] flags = new boolean[nofjobs];
+
+		for (int i = 0; i < nofjobs; i++) {
+			final int j = i;
+			flags[j] = false;
+			ThreadPool.getPool().execute(new Runnable() {
+				@Override
+				public void run() {
+					if (Math.random() > 0.5) {
+						int count = 0;
+						while (count < 10000) {
+							count++;
+							String.valueOf(count);
+						}
+					} else {
+						ThreadPool.beginBlocking();
+						try {
+							Thread.sleep(1000);
+						} catch (InterruptedException e) {} finally {
+							ThreadPool.endBlocking();
+						}
+					}
+					flags[j] = true;
+				}
+			});
+		}
+		int count = 0;
+		while (count < nofjobs) {
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e) {}
+			count = 0;
+			for (int i = 0; i < nofjobs; i++) {
+				if (flags[i]) {
+					count++;
+				}
+			}
+		}
+		LOG.warning(ThreadPool.getPool().toString());
+		LOG.warning(count + " jobs took: "
+				+ (new Duration(start, DateTime.now()).getMillis()) + " ms");
+		ThreadPool.setWorkStealing(false);
+	}
+
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.joda.time.DateTimeUtils;
+import org.junit.Test;
+
+import com.almende.eve.transport.tokens.SessionTokens;
+import com.almende.eve.transport.tokens.TokenRet;
+import com.almende.eve.transport.tokens.TokenStore;
+
+/**
+ * The Class TestTokens.
+ */
+public class TestTokens extends TestCase {
+	private static final String	SENDER	= "http://localhost:8080/agents/sender";
+
+	/**
+	 * Test a session token round trip.
+	 */
+	@Test
+	public void testSessionToken() {
+		final SessionTokens tokens = new SessionTokens(60000);
+		final String token = tokens.issue(SENDER);
+		assertTrue(tokens.verify(token, SENDER));
+		assertTrue(tokens.verify(token, SENDER));
+
+		// Bound to the sender and to the issuing host.
+		assertFalse(tokens.verify(token, SENDER + "2"));
+		assertFalse(new SessionTokens(60000).verify(token, SENDER));
+
+		assertFalse(tokens.verify(null, SENDER));
+		assertFalse(tokens.verify(token, null));
+		assertFalse(tokens.verify("", SENDER));
+		assertFalse(tokens.verify("noDot", SENDER));
+		assertFalse(tokens.verify(".abcd", SENDER));
+		assertFalse(tokens.verify(
+				"soon." + token.substring(token.indexOf('.') + 1), SENDER));
+	}
+
+	/**
+	 * Test that expired session tokens are rejected.
+	 *
+	 * @throws InterruptedException
+	 *             the interrupted exception
+	 */
+	@Test
+	public void testExpiredSessionToken() throws InterruptedException {
+		final SessionTokens tokens = new SessionTokens(10);
+		final String token = tokens.issue(SENDER);
+		Thread.sleep(50);
+		assertFalse(tokens.verify(token, SENDER));
+	}
+
+	/**
+	 * Test that tampered session tokens are rejected.
+	 */
+	@Test
+	public void testTamperedSessionToken() {
+		final SessionTokens tokens = new SessionTokens(60000);
+		final String token = tokens.issue(SENDER);
+		final int dot = token.indexOf('.');
+		final String expires = token.substring(0, dot);
+		final String signature = token.substring(dot + 1);
+
+		// Extended lifetime, with the original signature.
+		final String extended = Long.toString(Long.parseLong(expires) + 3600000)
+				+ "." + signature;
+		assertFalse(tokens.verify(extended, SENDER));
+
+		// Changed signature.
+		final char last = signature.charAt(signature.length() - 1);
+		final String changed = expires + "."
+				+ signature.substring(0, signature.length() - 1)
+				+ (last == '0' ? '1' : '0');
+		assertFalse(tokens.verify(changed, SENDER));
+		assertFalse(tokens.verify(expires + "."
+				+ signature.substring(0, signature.length() - 2), SENDER));
+		assertFalse(tokens.verify(expires + "." + signature + "00", SENDER));
+		assertFalse(tokens.verify(expires + "."
+				+ signature.toUpperCase().replace('A', 'G'), SENDER));
+	}
+
+	/**
+	 * Test the handshake token store: tokens are renewed each hour, the oldest
+	 * are evicted.
+	 */
+	@Test
+	public void testTokenStore() {
+		final long start = System.currentTimeMillis();
+		try {
+			DateTimeUtils.setCurrentMillisFixed(start);
+			final TokenStore store = new TokenStore();
+			final List<TokenRet> created = new ArrayList<TokenRet>();
+			for (int i = 0; i < 10; i++) {
+				DateTimeUtils.setCurrentMillisFixed(start + i * 3600001L);
+				final TokenRet token = store.create();
+				// Within the hour, the same token is handed out.
+				assertEquals(token.getToken(), store.create().getToken());
+				assertEquals(token.getToken(), store.get(token.getTime()));
+				created.add(token);
+			}
+			for (int i = 0; i < created.size(); i++) {
+				final TokenRet token = created.get(i);
+				if (i < 3) {
+					assertNull(store.get(token.getTime()));
+				} else {
+					assertEquals(token.getToken(), store.get(token.getTime()));
+				}
+			}
+			assertNull(store.get("unknown"));
+		} finally {
+			DateTimeUtils.setCurrentMillisSystem();
+		}
+	}
+}
@@ -53,6 +53,8 @@ public abstract class AbstractTransport implements Transport {
 			final String tag, final AsyncCallback<T> callback) throws IOException {
 		if (message == null){
 			send(receiverUri, "", tag, callback);
+		} else if (message instanceof byte[]) {
+			send(receiverUri, (byte[]) message, tag, callback);
 		} else {
 			send(receiverUri, message.toString(), tag, callback);
 		}
@@ -0,0 +1,146 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.tokens;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Session tokens, issued to a sender once its identity has been verified
+ * through the {@link TokenStore} handshake. The token is signed with a key
+ * known only to this host, and can therefore be checked locally on later
+ * calls, without another round trip to the sender. A token is bound to the
+ * sender url and expires after a while, after which the sender has to do a new
+ * handshake.
+ */
+public final class SessionTokens {
+	private static final Logger			LOG			= Logger.getLogger(SessionTokens.class
+															.getCanonicalName());
+	private static final String			ALGORITHM	= "HmacSHA256";
+	private static final Charset		UTF8		= Charset.forName("UTF-8");
+	private static final long			TIMEOUT		= 15 * 60 * 1000;
+	private static final SessionTokens	INSTANCE	= new SessionTokens(TIMEOUT);
+
+	private final SecretKeySpec			key;
+	private final long					timeout;
+	private final ThreadLocal<Mac>		macs		= new ThreadLocal<Mac>();
+
+	/**
+	 * Instantiates a new session tokens issuer, with a fresh random key.
+	 *
+	 * @param timeout
+	 *            the lifetime of the issued tokens, in milliseconds.
+	 */
+	public SessionTokens(final long timeout) {
+		final byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.key = new SecretKeySpec(secret, ALGORITHM);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return the instance
+	 */
+	public static SessionTokens getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Issue a new session token for the given sender.
+	 *
+	 * @param sender
+	 *            the sender url
+	 * @return the token
+	 */
+	public String issue(final String sender) {
+		final String expires = Long.toString(System.currentTimeMillis()
+				+ timeout);
+		return expires + "." + toHex(sign(expires, sender));
+	}
+
+	/**
+	 * Verify the session token presented by the given sender.
+	 *
+	 * @param token
+	 *            the token
+	 * @param sender
+	 *            the sender url
+	 * @return true, if the token was issued by this host to this sender and
+	 *         hasn't expired yet.
+	 */
+	public boolean verify(final String token, final String sender) {
+		if (token == null || sender == null) {
+			return false;
+		}
+		final int dot = token.indexOf('.');
+		if (dot <= 0) {
+			return false;
+		}
+		final String expires = token.substring(0, dot);
+		try {
+			if (Long.parseLong(expires) < System.currentTimeMillis()) {
+				return false;
+			}
+		} catch (final NumberFormatException e) {
+			return false;
+		}
+		final byte[] signature = sign(expires, sender);
+		return signature != null
+				&& MessageDigest.isEqual(signature, fromHex(token
+						.substring(dot + 1)));
+	}
+
+	private byte[] sign(final String expires, final String sender) {
+		try {
+			Mac mac = macs.get();
+			if (mac == null) {
+				mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				macs.set(mac);
+			}
+			return mac.doFinal((expires + " " + sender).getBytes(UTF8));
+		} catch (final GeneralSecurityException e) {
+			LOG.log(Level.WARNING, "Couldn't sign session token", e);
+			return null;
+		}
+	}
+
+	private static String toHex(final byte[] bytes) {
+		if (bytes == null) {
+			return "";
+		}
+		final StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] fromHex(final String hex) {
+		if (hex.length() % 2 != 0) {
+			return new byte[0];
+		}
+		final byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			final int high = Character.digit(hex.charAt(2 * i), 16);
+			final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0) {
+				return new byte[0];
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+}
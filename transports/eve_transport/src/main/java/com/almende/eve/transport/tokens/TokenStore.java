@@ -5,7 +5,9 @@
 package com.almende.eve.transport.tokens;
 
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,7 +30,9 @@ public final class TokenStore {
 	private static final int	SIZE	= 5;
 	private Map<String, String>	tokens	= new ConcurrentHashMap<String, String>(
 												5);
-	private DateTime			last	= DateTime.now();
+	// Keys of the tokens, oldest first.
+	private Queue<String>		order	= new ConcurrentLinkedQueue<String>();
+	private volatile DateTime	last	= DateTime.now();
 
 	/**
 	 * Instantiates a new token store.
@@ -57,32 +61,32 @@ public final class TokenStore {
 	 * @return the token ret
 	 */
 	public TokenRet create() {
-		TokenRet result;
-		if (tokens.size() == 0 || tokens.get(last.toString()) == null
-				|| last.plus(3600000).isBeforeNow()) {
+		final DateTime current = last;
+		final String currentToken = tokens.get(current.toString());
+		if (currentToken != null && !current.plus(3600000).isBeforeNow()) {
+			return new TokenRet(currentToken, current);
+		}
+		synchronized (order) {
+			if (last != current) {
+				// Another thread just created a new token.
+				return new TokenRet(tokens.get(last.toString()), last);
+			}
 			final DateTime now = DateTime.now();
+			final String time = now.toString();
 			final String token = new UUID().toString();
-			result = new TokenRet(token, now);
-			tokens.put(now.toString(), token);
+			tokens.put(time, token);
+			order.add(time);
 			last = now;
 
-			if (tokens.size() > SIZE + 2) {
-				DateTime oldest = last;
-				for (final String time : tokens.keySet()) {
-					try {
-						if (DateTime.parse(time).isBefore(oldest)) {
-							oldest = DateTime.parse(time);
-						}
-					} catch (final Exception e) {
-						LOG.log(Level.WARNING, "Failed in eviction of tokens:",
-								e);
-					}
+			// Tokens are created in order, no need to parse the times.
+			while (tokens.size() > SIZE + 2) {
+				final String oldest = order.poll();
+				if (oldest == null) {
+					break;
 				}
-				tokens.remove(oldest.toString());
+				tokens.remove(oldest);
 			}
-		} else {
-			result = new TokenRet(tokens.get(last.toString()), last);
+			return new TokenRet(token, now);
 		}
-		return result;
 	}
 }
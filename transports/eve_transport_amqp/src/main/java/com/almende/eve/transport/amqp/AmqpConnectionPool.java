@@ -0,0 +1,251 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.amqp;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.almende.util.callback.AsyncCallback;
+import com.almende.util.threads.ThreadPool;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * The Class AmqpConnectionPool, shares a few connections to a broker between
+ * all AMQP transports of this JVM.
+ * <p>
+ * Publishing is done on channels which are leased by the sending thread and
+ * returned afterwards, as channels shouldn't be used for concurrent
+ * publishing. The number of publishing channels is bounded, senders wait for a
+ * free channel when all are in use. Publishing channels are in confirm mode,
+ * the broker's confirms are handled asynchronously. Each consumer gets its own
+ * channel, so it can have its own prefetch window; the channels are spread
+ * round-robin over the connections.
+ * </p>
+ */
+final class AmqpConnectionPool {
+	private static final Logger								LOG			= Logger.getLogger(AmqpConnectionPool.class
+																				.getName());
+	private static final Map<String, AmqpConnectionPool>	POOLS		= new ConcurrentHashMap<String, AmqpConnectionPool>();
+
+	private final ConnectionFactory							factory		= new ConnectionFactory();
+	private final Connection[]								connections;
+	private final BlockingQueue<Publisher>					idle		= new LinkedBlockingQueue<Publisher>();
+	private final Semaphore									leases;
+	private final AtomicInteger								next		= new AtomicInteger(0);
+
+	private AmqpConnectionPool(final String hostUri, final int connections,
+			final int channels) {
+		try {
+			factory.setUri(hostUri);
+		} catch (KeyManagementException | NoSuchAlgorithmException
+				| URISyntaxException e) {
+			LOG.log(Level.WARNING, "AMQP initialisation problem", e);
+		}
+		this.connections = new Connection[Math.max(1, connections)];
+		this.leases = new Semaphore(Math.max(1, channels));
+	}
+
+	/**
+	 * Gets the pool of the broker of the given config. The first config for a
+	 * broker determines the size of its pool.
+	 *
+	 * @param config
+	 *            the config
+	 * @return the pool
+	 */
+	static AmqpConnectionPool get(final AmqpTransportConfig config) {
+		final String hostUri = config.getHostUri();
+		AmqpConnectionPool result = POOLS.get(hostUri);
+		if (result == null) {
+			synchronized (POOLS) {
+				result = POOLS.get(hostUri);
+				if (result == null) {
+					result = new AmqpConnectionPool(hostUri,
+							config.getConnections(), config.getChannels());
+					POOLS.put(hostUri, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private Connection getConnection(final int index) throws IOException {
+		synchronized (connections) {
+			Connection connection = connections[index];
+			if (connection == null || !connection.isOpen()) {
+				connection = factory.newConnection();
+				connections[index] = connection;
+			}
+			return connection;
+		}
+	}
+
+	private Connection nextConnection() throws IOException {
+		return getConnection((next.getAndIncrement() & Integer.MAX_VALUE)
+				% connections.length);
+	}
+
+	/**
+	 * A publishing channel, in confirm mode. A nack or the loss of the channel
+	 * is reported to the callbacks of the unconfirmed messages.
+	 */
+	static final class Publisher implements ConfirmListener, ShutdownListener {
+		private final Channel								channel;
+		private final NavigableMap<Long, AsyncCallback<?>>	unconfirmed	= new ConcurrentSkipListMap<Long, AsyncCallback<?>>();
+
+		private Publisher(final Channel channel) throws IOException {
+			this.channel = channel;
+			channel.confirmSelect();
+			channel.addConfirmListener(this);
+			channel.addShutdownListener(this);
+		}
+
+		/**
+		 * Publish a message to the given queue.
+		 *
+		 * @param queue
+		 *            the queue
+		 * @param properties
+		 *            the properties
+		 * @param body
+		 *            the body
+		 * @param callback
+		 *            the callback, notified if the broker doesn't accept the
+		 *            message. May be null.
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void publish(final String queue, final AMQP.BasicProperties properties,
+				final byte[] body, final AsyncCallback<?> callback)
+				throws IOException {
+			final long seqNo = channel.getNextPublishSeqNo();
+			if (callback != null) {
+				unconfirmed.put(seqNo, callback);
+			}
+			try {
+				channel.basicPublish("", queue, properties, body);
+			} catch (final IOException e) {
+				unconfirmed.remove(seqNo);
+				throw e;
+			}
+		}
+
+		private boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		private NavigableMap<Long, AsyncCallback<?>> confirmed(
+				final long deliveryTag, final boolean multiple) {
+			return multiple ? unconfirmed.headMap(deliveryTag, true)
+					: unconfirmed.subMap(deliveryTag, true, deliveryTag, true);
+		}
+
+		@Override
+		public void handleAck(final long deliveryTag, final boolean multiple) {
+			confirmed(deliveryTag, multiple).clear();
+		}
+
+		@Override
+		public void handleNack(final long deliveryTag, final boolean multiple) {
+			fail(confirmed(deliveryTag, multiple), "AMQP broker rejected message");
+		}
+
+		@Override
+		public void shutdownCompleted(final ShutdownSignalException cause) {
+			fail(unconfirmed, "AMQP channel closed before confirm");
+		}
+
+		private static void fail(final NavigableMap<Long, AsyncCallback<?>> map,
+				final String reason) {
+			while (!map.isEmpty()) {
+				final Map.Entry<Long, AsyncCallback<?>> entry = map
+						.pollFirstEntry();
+				if (entry != null) {
+					entry.getValue().onFailure(new IOException(reason));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lease a channel for publishing, the channel must be returned through
+	 * {@link #release(Publisher)} after use.
+	 *
+	 * @return the publisher
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Publisher lease() throws IOException {
+		ThreadPool.beginBlocking();
+		try {
+			leases.acquire();
+		} catch (final InterruptedException e) {
+			throw new IOException("Interrupted while waiting for a channel", e);
+		} finally {
+			ThreadPool.endBlocking();
+		}
+		try {
+			Publisher publisher = idle.poll();
+			while (publisher != null && !publisher.isOpen()) {
+				publisher = idle.poll();
+			}
+			if (publisher == null) {
+				publisher = new Publisher(nextConnection().createChannel());
+			}
+			return publisher;
+		} catch (final IOException | RuntimeException e) {
+			leases.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a leased channel to the pool.
+	 *
+	 * @param publisher
+	 *            the publisher
+	 */
+	void release(final Publisher publisher) {
+		if (publisher != null && publisher.isOpen()) {
+			idle.add(publisher);
+		}
+		leases.release();
+	}
+
+	/**
+	 * Create a channel to consume on, on one of the shared connections.
+	 *
+	 * @param prefetch
+	 *            the max number of unacknowledged messages on this channel.
+	 * @return the channel
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	Channel createConsumerChannel(final int prefetch) throws IOException {
+		final Channel channel = nextConnection().createChannel();
+		if (prefetch > 0) {
+			channel.basicQos(prefetch);
+		}
+		return channel;
+	}
+}
@@ -6,42 +6,59 @@ package com.almende.eve.transport.amqp;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.codec.binary.Base64;
-
 import com.almende.eve.capabilities.handler.Handler;
 import com.almende.eve.transport.AbstractTransport;
 import com.almende.eve.transport.Receiver;
+import com.almende.eve.transport.amqp.AmqpConnectionPool.Publisher;
 import com.almende.eve.transport.amqp.AmqpTransportBuilder.AmqpService;
-import com.almende.eve.transport.envelop.JSONEnvelop;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.threads.ThreadPool;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 /**
  * The Class AmqpTransport.
+ * <p>
+ * Messages are published as raw bytes to the queue of the receiving agent,
+ * with the sending agent in the replyTo property. Binary messages are marked
+ * by their content type. Inbound messages are acknowledged after they have
+ * been handled, the broker sends at most prefetch unacknowledged messages.
+ * </p>
  */
 public class AmqpTransport extends AbstractTransport {
-	private static final Logger	LOG			= Logger.getLogger(AmqpTransport.class
-													.getName());
-	private ConnectionFactory	factory		= null;
-	private Connection			connection	= null;
-	private Channel				channel		= null;
-	private String				myId		= "";
+	private static final Logger					LOG			= Logger.getLogger(AmqpTransport.class
+																	.getName());
+	private static final Charset				UTF8		= Charset
+																	.forName("UTF-8");
+	private static final String					BINARY		= "application/octet-stream";
+	private static final AMQP.BasicProperties	TEXTPROPS	= new AMQP.BasicProperties.Builder()
+																	.contentType(
+																			"text/plain")
+																	.contentEncoding(
+																			"UTF-8")
+																	.build();
+	private static final AMQP.BasicProperties	BINPROPS	= new AMQP.BasicProperties.Builder()
+																	.contentType(
+																			BINARY)
+																	.build();
+	private AmqpConnectionPool					pool		= null;
+	private Channel								channel		= null;
+	private String								consumerTag	= null;
+	private String								myId		= "";
+	private final int							prefetch;
+	private final int							ackBatch;
 
 	/**
 	 * Instantiates a new AMQP transport.
@@ -58,14 +75,67 @@ public class AmqpTransport extends AbstractTransport {
 		super(URIUtil.create("amqp:" + config.getId()), newHandle, amqpService,
 				config);
 		myId = config.getId();
-		factory = new ConnectionFactory();
-		try {
-			factory.setUri(config.getHostUri());
-		} catch (KeyManagementException | NoSuchAlgorithmException
-				| URISyntaxException e) {
-			LOG.log(Level.WARNING, "AMQP initialisation problem", e);
+		pool = AmqpConnectionPool.get(config);
+		prefetch = config.getPrefetch();
+		ackBatch = Math.max(1, config.getAckBatch());
+	}
+
+	/**
+	 * Acknowledges the deliveries of a channel. Deliveries may be handled out
+	 * of order; the handled prefix is acknowledged with a single multiple-ack
+	 * once ackBatch deliveries are waiting, or once nothing is in progress
+	 * anymore. Deliveries handled ahead of a slow one are acknowledged
+	 * individually when too many of them pile up, so a slow message can't
+	 * stall the prefetch window.
+	 */
+	private static final class Acks {
+		private final Channel				channel;
+		private final int					batch;
+		private final NavigableSet<Long>	inProgress	= new TreeSet<Long>();
+		private final NavigableSet<Long>	handled		= new TreeSet<Long>();
+		private final NavigableSet<Long>	individual	= new TreeSet<Long>();
+		private long						delivered	= 0;
+		private long						acked		= 0;
+
+		private Acks(final Channel channel, final int batch) {
+			this.channel = channel;
+			this.batch = batch;
+		}
+
+		private synchronized void delivered(final long tag) {
+			inProgress.add(tag);
+			delivered = tag;
 		}
 
+		private synchronized void handled(final long tag) throws IOException {
+			inProgress.remove(tag);
+			final long prefix = inProgress.isEmpty() ? delivered : inProgress
+					.first() - 1;
+			if (tag > prefix) {
+				handled.add(tag);
+				if (handled.size() >= batch) {
+					for (final Long done : handled) {
+						channel.basicAck(done, false);
+					}
+					individual.addAll(handled);
+					handled.clear();
+				}
+			} else if (prefix > acked
+					&& (inProgress.isEmpty() || prefix - acked >= batch)) {
+				// The broker rejects a multiple-ack on a tag that has already
+				// been acknowledged on its own.
+				long last = prefix;
+				while (last > acked && individual.contains(last)) {
+					last--;
+				}
+				if (last > acked) {
+					channel.basicAck(last, true);
+				}
+				acked = prefix;
+				handled.headSet(prefix, true).clear();
+				individual.headSet(prefix, true).clear();
+			}
+		}
 	}
 
 	/*
@@ -77,14 +147,7 @@ public class AmqpTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		if (channel != null && channel.isOpen()) {
-			final String to = receiverUri.getRawSchemeSpecificPart();
-			final String msg = JSONEnvelop.wrapAsString(myId, to, message);
-			LOG.warning("Sending '" + msg + "' to:" + to);
-			channel.basicPublish("", to, null, msg.getBytes());
-		} else {
-			throw new IOException("Amqp transport not connected!");
-		}
+		publish(receiverUri, TEXTPROPS, message.getBytes(UTF8), callback);
 	}
 
 	/*
@@ -96,7 +159,24 @@ public class AmqpTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		send(receiverUri, Base64.encodeBase64String(message), tag, callback);
+		publish(receiverUri, BINPROPS, message, callback);
+	}
+
+	private void publish(final URI receiverUri,
+			final AMQP.BasicProperties properties, final byte[] body,
+			final AsyncCallback<?> callback) throws IOException {
+		if (channel != null && channel.isOpen()) {
+			final String to = receiverUri.getRawSchemeSpecificPart();
+			final Publisher publisher = pool.lease();
+			try {
+				publisher.publish(to, properties.builder().replyTo(myId)
+						.build(), body, callback);
+			} finally {
+				pool.release(publisher);
+			}
+		} else {
+			throw new IOException("Amqp transport not connected!");
+		}
 	}
 
 	/*
@@ -105,9 +185,9 @@ public class AmqpTransport extends AbstractTransport {
 	 */
 	@Override
 	public void connect() throws IOException {
-		connection = factory.newConnection();
-		channel = connection.createChannel();
+		channel = pool.createConsumerChannel(prefetch);
 		channel.queueDeclare(myId, true, true, true, null);
+		final Acks acks = new Acks(channel, ackBatch);
 
 		Consumer consumer = new DefaultConsumer(channel) {
 			@Override
@@ -115,21 +195,30 @@ public class AmqpTransport extends AbstractTransport {
 					final Envelope envelope,
 					final AMQP.BasicProperties properties, final byte[] body)
 					throws IOException {
-				final String message = new String(body, "UTF-8");
-				final JSONEnvelop.Envelop res = JSONEnvelop.unwrap(message);
-				if (myId.equals(res.getTo())) {
-					ThreadPool.getPool().execute(new Runnable() {
-						@Override
-						public void run() {
-							getHandle().get().receive(res.getMessage(),
-									URIUtil.create("amqp:" + res.getFrom()),
-									null);
+				final long deliveryTag = envelope.getDeliveryTag();
+				acks.delivered(deliveryTag);
+				final Object message = BINARY.equals(properties
+						.getContentType()) ? body : new String(body, UTF8);
+				final URI sender = URIUtil.create("amqp:"
+						+ properties.getReplyTo());
+				ThreadPool.getPool().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							getHandle().get().receive(message, sender, null);
+						} finally {
+							try {
+								acks.handled(deliveryTag);
+							} catch (final IOException e) {
+								LOG.log(Level.WARNING,
+										"Failed to acknowledge AMQP message", e);
+							}
 						}
-					});
-				}
+					}
+				});
 			}
 		};
-		channel.basicConsume(myId, true, consumer);
+		consumerTag = channel.basicConsume(myId, false, consumer);
 	}
 
 	/*
@@ -139,14 +228,17 @@ public class AmqpTransport extends AbstractTransport {
 	@Override
 	public void disconnect() {
 		try {
-			channel.close();
-			channel = null;
-
-			connection.close();
-			connection = null;
+			if (channel != null && channel.isOpen()) {
+				if (consumerTag != null) {
+					channel.basicCancel(consumerTag);
+				}
+				channel.close();
+			}
 		} catch (IOException e) {
 			// ignore
 		}
+		channel = null;
+		consumerTag = null;
 	}
 
 	/*
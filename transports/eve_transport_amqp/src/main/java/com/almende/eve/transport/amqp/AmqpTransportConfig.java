@@ -108,4 +108,96 @@ public class AmqpTransportConfig extends TransportConfig {
 	public void setHostUri(final String uri) {
 		this.put("hostUri", uri);
 	}
+
+	/**
+	 * Sets the prefetch: the max number of inbound messages which are
+	 * delivered to this agent but not yet handled. (Optional, default 100)
+	 *
+	 * @param prefetch
+	 *            the new prefetch
+	 */
+	public void setPrefetch(final int prefetch) {
+		this.put("prefetch", prefetch);
+	}
+
+	/**
+	 * Gets the prefetch.
+	 *
+	 * @return the prefetch
+	 */
+	public int getPrefetch() {
+		if (this.has("prefetch")) {
+			return this.get("prefetch").asInt();
+		}
+		return 100;
+	}
+
+	/**
+	 * Sets the ack batch: the number of handled inbound messages which are
+	 * acknowledged together. (Optional, default 10)
+	 *
+	 * @param ackBatch
+	 *            the new ack batch
+	 */
+	public void setAckBatch(final int ackBatch) {
+		this.put("ackBatch", ackBatch);
+	}
+
+	/**
+	 * Gets the ack batch.
+	 *
+	 * @return the ack batch
+	 */
+	public int getAckBatch() {
+		if (this.has("ackBatch")) {
+			return this.get("ackBatch").asInt();
+		}
+		return 10;
+	}
+
+	/**
+	 * Sets the number of connections to the broker, shared by all AMQP
+	 * transports. (Optional, default 2)
+	 *
+	 * @param connections
+	 *            the new number of connections
+	 */
+	public void setConnections(final int connections) {
+		this.put("connections", connections);
+	}
+
+	/**
+	 * Gets the number of connections to the broker.
+	 *
+	 * @return the number of connections
+	 */
+	public int getConnections() {
+		if (this.has("connections")) {
+			return this.get("connections").asInt();
+		}
+		return 2;
+	}
+
+	/**
+	 * Sets the max number of publishing channels to the broker, shared by all
+	 * AMQP transports. (Optional, default twice the number of processors)
+	 *
+	 * @param channels
+	 *            the new max number of channels
+	 */
+	public void setChannels(final int channels) {
+		this.put("channels", channels);
+	}
+
+	/**
+	 * Gets the max number of publishing channels to the broker.
+	 *
+	 * @return the max number of channels
+	 */
+	public int getChannels() {
+		if (this.has("channels")) {
+			return this.get("channels").asInt();
+		}
+		return 2 * Runtime.getRuntime().availableProcessors();
+	}
 }
@@ -10,6 +10,7 @@ import java.net.URISyntaxException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -20,9 +21,11 @@ import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
 
+import com.almende.eve.transport.tokens.SessionTokens;
 import com.almende.util.ApacheHttpClient;
 import com.almende.util.StringUtil;
 import com.almende.util.URIUtil;
+import com.almende.util.callback.AsyncCallback;
 import com.almende.util.jackson.JOM;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -199,13 +202,22 @@ public class EveServlet extends HttpServlet {
 			final boolean doAuthentication = HttpService
 					.doAuthentication(myUrl);
 			if (doAuthentication) {
-				final Handshake hs = doHandShake(req);
-				if (hs.equals(Handshake.INVALID)) {
-					return false;
-				}
+				final String sender = req.getHeader("X-Eve-SenderUrl");
+				// A valid session token saves the handshake roundtrip.
+				if (!SessionTokens.getInstance().verify(
+						req.getHeader("X-Eve-Session"), sender)) {
+					final Handshake hs = doHandShake(req);
+					if (hs.equals(Handshake.INVALID)) {
+						return false;
+					}
 
-				if (hs.equals(Handshake.NAK) && !req.authenticate(res)) {
-					return false;
+					if (hs.equals(Handshake.NAK) && !req.authenticate(res)) {
+						return false;
+					}
+					if (hs.equals(Handshake.OK)) {
+						res.setHeader("X-Eve-Session", SessionTokens
+								.getInstance().issue(sender));
+					}
 				}
 			}
 
@@ -272,7 +284,44 @@ public class EveServlet extends HttpServlet {
 			LOG.log(Level.WARNING, "Couldn't parse senderUrl:" + sender, e);
 		}
 		final HttpTransport transport = HttpService.get(myUrl, id);
-		if (transport != null) {
+		if (transport != null && req.isAsyncSupported()) {
+			// Don't park the container thread until the agent replies.
+			final AsyncContext async = req.startAsync();
+			// The callback store times out the call itself.
+			async.setTimeout(0);
+			transport.receive(body, senderUrl, new AsyncCallback<String>() {
+
+				@Override
+				public void onSuccess(final String response) {
+					final HttpServletResponse res = (HttpServletResponse) async
+							.getResponse();
+					try {
+						res.addHeader("Content-Type", "application/json");
+						res.getWriter().println(response);
+						res.getWriter().close();
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "Couldn't write response", e);
+					}
+					async.complete();
+				}
+
+				@Override
+				public void onFailure(final Exception exception) {
+					final HttpServletResponse res = (HttpServletResponse) async
+							.getResponse();
+					try {
+						res.sendError(
+								HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+								"Receiver raised exception:"
+										+ exception.getMessage());
+					} catch (final IOException e) {
+						LOG.log(Level.WARNING, "Couldn't write response", e);
+					}
+					async.complete();
+				}
+			});
+			return;
+		} else if (transport != null) {
 			try {
 				final String response = transport.receive(body, senderUrl);
 				// TODO: It doesn't need to be json, should we handle mime-types
@@ -8,18 +8,22 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 
@@ -28,6 +32,7 @@ import com.almende.eve.transport.AbstractTransport;
 import com.almende.eve.transport.Receiver;
 import com.almende.eve.transport.TransportService;
 import com.almende.eve.transport.tokens.TokenStore;
+import com.almende.util.ApacheHttpAsyncClient;
 import com.almende.util.ApacheHttpClient;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.callback.AsyncCallbackStore;
@@ -46,7 +51,10 @@ public class HttpTransport extends AbstractTransport {
 																	.newCachedThreadPool(ThreadPool
 																			.getFactory());
 	private final AsyncCallbackStore<String>	callbacks;
+	private final boolean						async;
 	private final TokenStore					tokenstore	= new TokenStore();
+	// Session tokens received from the remote hosts, by scheme and authority.
+	private final Map<String, String>			sessions	= new ConcurrentHashMap<String, String>();
 	private final List<String>					protocols	= Arrays.asList(
 																	"http",
 																	"https",
@@ -68,6 +76,7 @@ public class HttpTransport extends AbstractTransport {
 			final TransportService service, final ObjectNode params) {
 		super(address, handle, service, params);
 		callbacks = new AsyncCallbackStore<String>("HttpTags_" + address);
+		async = HttpTransportConfig.decorate(params).getAsync();
 	}
 
 	/*
@@ -100,6 +109,40 @@ public class HttpTransport extends AbstractTransport {
 		}
 		final String senderUrl = super.getAddress().toASCIIString();
 		final Handler<Receiver> handle = super.getHandle();
+		if (async) {
+			final HttpPost httpPost = createPost(receiverUri, message,
+					senderUrl);
+			ApacheHttpAsyncClient.get().execute(httpPost,
+					HttpClientContext.create(),
+					new FutureCallback<HttpResponse>() {
+
+						@Override
+						public void completed(final HttpResponse webResp) {
+							try {
+								handleResponse(webResp, receiverUri, handle,
+										exceptionCallback);
+							} catch (final Exception e) {
+								failed(e);
+							}
+						}
+
+						@Override
+						public void failed(final Exception e) {
+							LOG.log(Level.WARNING,
+									"HTTP roundtrip resulted in exception!", e);
+							if (exceptionCallback != null) {
+								exceptionCallback.onFailure(new Exception(
+										"HTTP roundtrip resulted in exception!"));
+							}
+						}
+
+						@Override
+						public void cancelled() {
+							failed(new IOException("HTTP request cancelled"));
+						}
+					});
+			return;
+		}
 		// Use fresh Executor instead of the RunQueue, as this thread will sleep
 		// most of its run.
 		RUNNER.execute(new Runnable() {
@@ -107,43 +150,11 @@ public class HttpTransport extends AbstractTransport {
 			public void run() {
 				HttpPost httpPost = null;
 				try {
-					httpPost = new HttpPost(receiverUri);
-					// invoke via Apache HttpClient request:
-					httpPost.setEntity(new StringEntity(message, "UTF-8"));
-					httpPost.setProtocolVersion(HttpVersion.HTTP_1_1);
-
-					// // Add token for HTTP handshake
-					httpPost.addHeader("X-Eve-Token", tokenstore.create()
-							.toString());
-					httpPost.addHeader("X-Eve-SenderUrl", senderUrl);
+					httpPost = createPost(receiverUri, message, senderUrl);
 					final HttpResponse webResp = ApacheHttpClient.get()
 							.execute(httpPost, HttpClientContext.create());
-					final HttpEntity entity = webResp.getEntity();
-					final String result = EntityUtils.toString(entity, "UTF-8");
-					EntityUtils.consumeQuietly(entity);
-					if (webResp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-						LOG.warning("Received HTTP Error Status:"
-								+ webResp.getStatusLine().getStatusCode() + ":"
-								+ webResp.getStatusLine().getReasonPhrase());
-						LOG.warning(result);
-						// TODO: should we send back a JSONRPCException? (Which
-						// is not a known type at this point!)
-						if (exceptionCallback != null) {
-							exceptionCallback.onFailure(new Exception(
-									"Received HTTP Error Status:"
-											+ webResp.getStatusLine()
-													.getStatusCode()
-											+ ":"
-											+ webResp.getStatusLine()
-													.getReasonPhrase()));
-						}
-					} else {
-						ThreadPool.getPool().execute(new Runnable() {
-							public void run() {
-								handle.get().receive(result, receiverUri, null);
-							}
-						});
-					}
+					handleResponse(webResp, receiverUri, handle,
+							exceptionCallback);
 				} catch (final Exception e) {
 					LOG.log(Level.WARNING,
 							"HTTP roundtrip resulted in exception!", e);
@@ -161,6 +172,62 @@ public class HttpTransport extends AbstractTransport {
 		});
 	}
 
+	private HttpPost createPost(final URI receiverUri, final String message,
+			final String senderUrl) throws IOException {
+		final HttpPost httpPost = new HttpPost(receiverUri);
+		// invoke via Apache HttpClient request:
+		httpPost.setEntity(new StringEntity(message, "UTF-8"));
+		httpPost.setProtocolVersion(HttpVersion.HTTP_1_1);
+
+		// // Add token for HTTP handshake
+		httpPost.addHeader("X-Eve-Token", tokenstore.create().toString());
+		httpPost.addHeader("X-Eve-SenderUrl", senderUrl);
+		// If the receiver issued us a session, it can skip the handshake.
+		final String session = sessions.get(getHost(receiverUri));
+		if (session != null) {
+			httpPost.addHeader("X-Eve-Session", session);
+		}
+		return httpPost;
+	}
+
+	private static String getHost(final URI uri) {
+		return uri.getScheme() + "://" + uri.getRawAuthority();
+	}
+
+	private <T> void handleResponse(final HttpResponse webResp,
+			final URI receiverUri, final Handler<Receiver> handle,
+			final AsyncCallback<T> exceptionCallback) throws IOException {
+		final HttpEntity entity = webResp.getEntity();
+		final String result = EntityUtils.toString(entity, "UTF-8");
+		EntityUtils.consumeQuietly(entity);
+		final Header session = webResp.getLastHeader("X-Eve-Session");
+		if (session != null) {
+			sessions.put(getHost(receiverUri), session.getValue());
+		} else if (webResp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+			sessions.remove(getHost(receiverUri));
+		}
+		if (webResp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+			LOG.warning("Received HTTP Error Status:"
+					+ webResp.getStatusLine().getStatusCode() + ":"
+					+ webResp.getStatusLine().getReasonPhrase());
+			LOG.warning(result);
+			// TODO: should we send back a JSONRPCException? (Which
+			// is not a known type at this point!)
+			if (exceptionCallback != null) {
+				exceptionCallback.onFailure(new Exception(
+						"Received HTTP Error Status:"
+								+ webResp.getStatusLine().getStatusCode() + ":"
+								+ webResp.getStatusLine().getReasonPhrase()));
+			}
+		} else {
+			ThreadPool.getPool().execute(new Runnable() {
+				public void run() {
+					handle.get().receive(result, receiverUri, null);
+				}
+			});
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.almende.eve.transport.Transport#send(java.net.URI, byte[],
@@ -199,6 +266,25 @@ public class HttpTransport extends AbstractTransport {
 		}
 	}
 
+	/**
+	 * Receive, without blocking the calling thread: the response is passed to
+	 * the callback once the agent replies.
+	 * 
+	 * @param body
+	 *            the body
+	 * @param senderUrl
+	 *            the sender url
+	 * @param callback
+	 *            the callback
+	 */
+	public void receive(final String body, final URI senderUrl,
+			final AsyncCallback<String> callback) {
+		final String tag = new UUID().toString();
+		callbacks.put(tag, "inbound http call", callback);
+
+		super.getHandle().get().receive(body, senderUrl, tag);
+	}
+
 	/**
 	 * Gets the tokenstore of this transport
 	 * 
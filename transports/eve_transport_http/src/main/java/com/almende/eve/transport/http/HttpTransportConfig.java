@@ -132,6 +132,30 @@ public class HttpTransportConfig extends TransportConfig {
 		return EveServlet.class.getName();
 	}
 
+	/**
+	 * Sets the async flag. If true, outbound calls use the non-blocking HTTP
+	 * client, which handles all requests with a few I/O threads instead of a
+	 * thread per request in flight. (Optional, default is false)
+	 * 
+	 * @param async
+	 *            the new async
+	 */
+	public void setAsync(final boolean async) {
+		this.put("async", async);
+	}
+
+	/**
+	 * Gets the async flag.
+	 * 
+	 * @return the async
+	 */
+	public boolean getAsync() {
+		if (this.has("async")) {
+			return this.get("async").asBoolean();
+		}
+		return false;
+	}
+
 	/**
 	 * Gets the do authentication. (Overriden to change the default to false)
 	 * 
@@ -0,0 +1,93 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContextBuilder;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.HttpAsyncClient;
+
+/**
+ * The Class ApacheHttpAsyncClient, the non-blocking counterpart of
+ * {@link ApacheHttpClient}. All requests are handled by a fixed number of I/O
+ * threads (one per processor), regardless of the number of requests in flight.
+ */
+public final class ApacheHttpAsyncClient {
+	private static final Logger					LOG			= Logger.getLogger(ApacheHttpAsyncClient.class
+																	.getCanonicalName());
+	private static CloseableHttpAsyncClient	httpClient	= null;
+	static {
+		new ApacheHttpAsyncClient();
+	}
+
+	/**
+	 * Instantiates a new apache http async client.
+	 */
+	private ApacheHttpAsyncClient() {
+
+		final HttpAsyncClientBuilder builder = HttpAsyncClients.custom();
+
+		// Allow self-signed SSL certificates:
+		try {
+			final SSLContext sslContext = new SSLContextBuilder()
+					.loadTrustMaterial(null, new TrustStrategy() {
+
+						@Override
+						public boolean isTrusted(
+								java.security.cert.X509Certificate[] arg0,
+								String arg1)
+								throws java.security.cert.CertificateException {
+							return true;
+						}
+					}).build();
+			builder.setSSLContext(sslContext);
+			builder.setHostnameVerifier(SSLConnectionSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Couldn't init SSL strategy", e);
+		}
+
+		// Make sure we have enough connections available for outbound
+		// traffic....
+		builder.setMaxConnPerRoute(1000);
+		builder.setMaxConnTotal(1000);
+
+		builder.setDefaultIOReactorConfig(IOReactorConfig.custom()
+				.setIoThreadCount(Runtime.getRuntime().availableProcessors())
+				.setConnectTimeout(20000).setSoTimeout(60000)
+				.setTcpNoDelay(true).build());
+
+		builder.setDefaultCookieStore(new BasicCookieStore());
+		final RequestConfig globalConfig = RequestConfig.custom()
+				.setCookieSpec(CookieSpecs.BROWSER_COMPATIBILITY)
+				.setConnectTimeout(20000).build();
+		builder.setDefaultRequestConfig(globalConfig);
+
+		// generate httpclient
+		httpClient = builder.build();
+		httpClient.start();
+	}
+
+	/**
+	 * Gets the.
+	 *
+	 * @return the default http async client
+	 */
+	public static HttpAsyncClient get() {
+		return httpClient;
+	}
+
+}
@@ -8,10 +8,13 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpPost;
@@ -39,6 +42,8 @@ public class HttpTransport extends AbstractTransport {
 																	.getName());
 	private final AsyncCallbackStore<String>	callbacks;
 	private final TokenStore					tokenstore	= new TokenStore();
+	// Session tokens received from the remote hosts, by scheme and authority.
+	private final Map<String, String>			sessions	= new ConcurrentHashMap<String, String>();
 	private final List<String>					protocols	= Arrays.asList(
 																	"http",
 																	"https",
@@ -114,8 +119,22 @@ public class HttpTransport extends AbstractTransport {
 					httpPost.addHeader("X-Eve-Token", tokenstore.create()
 							.toString());
 					httpPost.addHeader("X-Eve-SenderUrl", senderUrl);
+					// If the receiver issued us a session, it can skip the
+					// handshake.
+					final String host = receiverUri.getScheme() + "://"
+							+ receiverUri.getRawAuthority();
+					final String session = sessions.get(host);
+					if (session != null) {
+						httpPost.addHeader("X-Eve-Session", session);
+					}
 					final HttpResponse webResp = ApacheHttpClient.get()
 							.execute(httpPost);
+					final Header reply = webResp.getLastHeader("X-Eve-Session");
+					if (reply != null) {
+						sessions.put(host, reply.getValue());
+					} else if (webResp.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+						sessions.remove(host);
+					}
 					final String result = EntityUtils.toString(webResp
 							.getEntity());
 					if (webResp.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
@@ -189,6 +208,25 @@ public class HttpTransport extends AbstractTransport {
 					"Receiver raised exception:" + e.getMessage(), e);
 		}
 	}
+
+	/**
+	 * Receive, without blocking the calling thread: the response is passed to
+	 * the callback once the agent replies.
+	 * 
+	 * @param body
+	 *            the body
+	 * @param senderUrl
+	 *            the sender url
+	 * @param callback
+	 *            the callback
+	 */
+	public void receive(final String body, final URI senderUrl,
+			final AsyncCallback<String> callback) {
+		final String tag = new UUID().toString();
+		callbacks.put(tag, "inbound http call", callback);
+
+		super.getHandle().get().receive(body, senderUrl, tag);
+	}
 	
 	/*
 	 * (non-Javadoc)
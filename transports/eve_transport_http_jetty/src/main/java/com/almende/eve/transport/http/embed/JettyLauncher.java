@@ -115,6 +115,7 @@ public class JettyLauncher implements ServletLauncher {
 		}
 		LOG.info("Registering servlet:" + servletPath.getPath());
 		ServletHolder sh = new ServletHolder(servlet);
+		sh.setAsyncSupported(true);
 
 		if (config.has("initParams")) {
 			ArrayNode params = (ArrayNode) config.get("initParams");
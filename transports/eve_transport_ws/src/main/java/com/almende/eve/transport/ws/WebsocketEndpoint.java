@@ -8,6 +8,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +29,9 @@ public class WebsocketEndpoint extends Endpoint {
 	private static final Logger	LOG			= Logger.getLogger(WebsocketEndpoint.class
 													.getName());
 	private WebsocketTransport	transport	= null;
+	private WsMultiplexer		mux			= null;
+	private boolean				multiplexed	= false;
+	private WsBatcher			remote		= null;
 	
 	/*
 	 * (non-Javadoc)
@@ -38,8 +42,7 @@ public class WebsocketEndpoint extends Endpoint {
 	@Override
 	public void onOpen(final Session session, final EndpointConfig config) {
 		final RemoteEndpoint.Async remote = session.getAsyncRemote();
-		final URI address = (URI) config.getUserProperties().get("address");
-		transport = WebsocketTransportBuilder.get(address);
+		mux = (WsMultiplexer) config.getUserProperties().get("mux");
 		
 		Map<String, List<String>> queryparms = session.getRequestParameterMap();
 		String remoteId = null;
@@ -47,6 +50,15 @@ public class WebsocketEndpoint extends Endpoint {
 			if (param.getKey().equals("id")) {
 				remoteId = param.getValue().get(0);
 			}
+			if (param.getKey().equals("mux")) {
+				multiplexed = Boolean.parseBoolean(param.getValue().get(0));
+			}
+		}
+		final URI address = (URI) config.getUserProperties().get("address");
+		transport = WebsocketTransportBuilder.get(address);
+		if (mux != null || multiplexed) {
+			openMultiplexed(session, remote);
+			return;
 		}
 		if (remoteId != null) {
 			session.getUserProperties().put("remoteId", remoteId);
@@ -64,29 +76,85 @@ public class WebsocketEndpoint extends Endpoint {
 		session.addMessageHandler(new MessageHandler.Whole<String>() {
 			@Override
 			public void onMessage(final String text) {
-				
-				new Thread(new Runnable() {
-					
-					@Override
-					public void run() {
-						try {
-							if (!transport.isConnected()){
-								LOG.warning("Strange, received message from unconnected source? Reopening!");
-								transport.registerRemote(id, remote);
-								transport.setConnected(true);
-							}
-							transport.receive(text, id);
-						} catch (final IOException e) {
-							LOG.log(Level.WARNING, "Failed to receive message",
-									e);
-						}
-					}
-				}).start();
+				receive(text, id, remote);
+			}
+			
+		});
+		session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+			@Override
+			public void onMessage(final ByteBuffer buffer) {
+				final byte[] data = new byte[buffer.remaining()];
+				buffer.get(data);
+				receive(data, id, remote);
 			}
 			
 		});
 	}
 	
+	private void openMultiplexed(final Session session,
+			final RemoteEndpoint.Async remote) {
+		multiplexed = true;
+		try {
+			remote.setBatchingAllowed(true);
+		} catch (IOException e1) {
+			LOG.log(Level.WARNING, "Failed to switch on Batching", e1);
+		}
+		final WsBatcher batcher;
+		if (mux != null) {
+			batcher = mux.onOpen(remote);
+		} else if (transport != null) {
+			batcher = transport.createBatcher(remote);
+		} else {
+			batcher = new WsBatcher(remote, WebsocketTransportConfig.create());
+		}
+		this.remote = batcher;
+		// Without a mux, this is the server side of the connection.
+		final boolean server = mux == null;
+		session.addMessageHandler(new MessageHandler.Whole<String>() {
+			@Override
+			public void onMessage(final String text) {
+				WsMultiplexer.receive(text, batcher, server);
+			}
+			
+		});
+		session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+			@Override
+			public void onMessage(final ByteBuffer buffer) {
+				WsMultiplexer.receive(buffer, batcher, server);
+			}
+			
+		});
+	}
+	
+	private void closeMultiplexed() {
+		if (mux != null) {
+			mux.onClose();
+		} else {
+			WsMultiplexer.removeRoutes(remote);
+		}
+	}
+	
+	private void receive(final Object body, final String id,
+			final RemoteEndpoint.Async remote) {
+		new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					if (!transport.isConnected()){
+						LOG.warning("Strange, received message from unconnected source? Reopening!");
+						transport.registerRemote(id, remote);
+						transport.setConnected(true);
+					}
+					transport.receive(body, id);
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Failed to receive message",
+							e);
+				}
+			}
+		}).start();
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -95,6 +163,10 @@ public class WebsocketEndpoint extends Endpoint {
 	 */
 	@Override
 	public void onClose(final Session session, final CloseReason closeReason) {
+		if (multiplexed) {
+			closeMultiplexed();
+			return;
+		}
 		transport.onClose(session, closeReason);
 	}
 	
@@ -107,6 +179,13 @@ public class WebsocketEndpoint extends Endpoint {
 	@Override
 	public void onError(final Session session, final Throwable throwable) {
 		LOG.log(Level.WARNING, "Websocket connection error:", throwable);
+		if (multiplexed) {
+			if (throwable instanceof SocketTimeoutException
+					|| throwable instanceof EOFException) {
+				closeMultiplexed();
+			}
+			return;
+		}
 		if (throwable instanceof SocketTimeoutException) {
 			transport.onClose(session, new CloseReason(
 					CloseReason.CloseCodes.CLOSED_ABNORMALLY,
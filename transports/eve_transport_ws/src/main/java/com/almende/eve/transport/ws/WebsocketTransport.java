@@ -47,19 +47,49 @@ public abstract class WebsocketTransport extends AbstractTransport {
 	
 	protected abstract void registerRemote(String key, Async remote);
 	
+	/**
+	 * Wrap the remote in a batcher, configured by this transport's params.
+	 * 
+	 * @param remote
+	 *            the remote
+	 * @return the batcher
+	 */
+	WsBatcher createBatcher(final Async remote) {
+		return new WsBatcher(remote,
+				WebsocketTransportConfig.decorate(getParams()));
+	}
+	
 	/**
 	 * Receive.
 	 * 
 	 * @param body
-	 *            the body
+	 *            the body, a String for text messages or a byte[] for binary
+	 *            messages.
 	 * @param id
 	 *            the id
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	public abstract void receive(final String body, final String id)
+	public abstract void receive(final Object body, final String id)
 			throws IOException;
 	
+	/**
+	 * Receive a message from a multiplexed connection, which carries the
+	 * address of the sender in the frame.
+	 * 
+	 * @param body
+	 *            the body, a String for text messages or a byte[] for binary
+	 *            messages.
+	 * @param senderUrl
+	 *            the sender url
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void receive(final Object body, final URI senderUrl)
+			throws IOException {
+		super.getHandle().get().receive(body, senderUrl, null);
+	}
+	
 	/**
 	 * On close.
 	 * 
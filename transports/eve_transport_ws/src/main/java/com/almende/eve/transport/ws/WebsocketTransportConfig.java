@@ -142,6 +142,77 @@ public class WebsocketTransportConfig extends TransportConfig {
 		return null;
 	}
 
+	/**
+	 * Share a single websocket with all other multiplexing clients of the same
+	 * server host. (Optional, client, default false) The client can then send
+	 * to any agent on that host, not just the server agent.
+	 * 
+	 * @param multiplex
+	 *            the new multiplex
+	 */
+	public void setMultiplex(final boolean multiplex) {
+		this.put("multiplex", multiplex);
+	}
+
+	/**
+	 * Is this client sharing its websocket? (client)
+	 * 
+	 * @return true, if multiplexing
+	 */
+	public boolean isMultiplex() {
+		if (this.has("multiplex")) {
+			return this.get("multiplex").asBoolean();
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the batch linger: the max time an outbound message may wait for
+	 * more messages to be batched with. (Optional, default 0: no batching)
+	 * 
+	 * @param batchLinger
+	 *            the new batch linger, in milliseconds
+	 */
+	public void setBatchLinger(final long batchLinger) {
+		this.put("batchLinger", batchLinger);
+	}
+
+	/**
+	 * Gets the batch linger.
+	 * 
+	 * @return the batch linger, in milliseconds
+	 */
+	public long getBatchLinger() {
+		if (this.has("batchLinger")) {
+			return this.get("batchLinger").asLong();
+		}
+		return 0;
+	}
+
+	/**
+	 * Sets the batch size: the number of pending outbound bytes at which the
+	 * batch is flushed without waiting for the linger. (Optional, default
+	 * 65536)
+	 * 
+	 * @param batchSize
+	 *            the new batch size
+	 */
+	public void setBatchSize(final int batchSize) {
+		this.put("batchSize", batchSize);
+	}
+
+	/**
+	 * Gets the batch size.
+	 * 
+	 * @return the batch size
+	 */
+	public int getBatchSize() {
+		if (this.has("batchSize")) {
+			return this.get("batchSize").asInt();
+		}
+		return 65536;
+	}
+
 	/**
 	 * Sets the server url. (client)
 	 * 
@@ -0,0 +1,134 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.ws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.websocket.RemoteEndpoint.Async;
+
+import com.almende.util.threads.ThreadPool;
+
+/**
+ * The Class WsBatcher, batches the outbound messages of a websocket session.
+ * Messages are written through Tyrus's batching remote, and flushed once
+ * batchSize bytes are pending or, at the latest, batchLinger milliseconds after
+ * the first pending message. A message on an idle session is flushed right
+ * away, so batching only kicks in during bursts. With a linger of 0, every
+ * message is flushed immediately.
+ */
+final class WsBatcher {
+	private static final Logger	LOG				= Logger.getLogger(WsBatcher.class
+														.getName());
+	private final Async			remote;
+	private final long			linger;
+	private final int			batchSize;
+	private final Runnable		flusher			= new Runnable() {
+													@Override
+													public void run() {
+														flushScheduled();
+													}
+												};
+	private int					pending			= 0;
+	private boolean				scheduled		= false;
+	private long				lastFlush		= 0;
+
+	/**
+	 * Instantiates a new batcher.
+	 *
+	 * @param remote
+	 *            the remote, which should allow batching.
+	 * @param linger
+	 *            the max time a message may wait for a flush, in milliseconds.
+	 * @param batchSize
+	 *            the number of pending bytes that triggers a flush.
+	 */
+	WsBatcher(final Async remote, final long linger, final int batchSize) {
+		this.remote = remote;
+		this.linger = linger;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Instantiates a new batcher, with the settings of the given config.
+	 *
+	 * @param remote
+	 *            the remote
+	 * @param config
+	 *            the config
+	 */
+	WsBatcher(final Async remote, final WebsocketTransportConfig config) {
+		this(remote, config.getBatchLinger(), config.getBatchSize());
+	}
+
+	/**
+	 * Gets the remote.
+	 *
+	 * @return the remote
+	 */
+	Async getRemote() {
+		return remote;
+	}
+
+	/**
+	 * Send a text message.
+	 *
+	 * @param message
+	 *            the message
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	synchronized void sendText(final String message) throws IOException {
+		remote.sendText(message);
+		sent(message.length());
+	}
+
+	/**
+	 * Send a binary message.
+	 *
+	 * @param message
+	 *            the message
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	synchronized void sendBinary(final ByteBuffer message) throws IOException {
+		final int size = message.remaining();
+		remote.sendBinary(message);
+		sent(size);
+	}
+
+	private void sent(final int size) throws IOException {
+		pending += size;
+		final long now = System.currentTimeMillis();
+		if (linger <= 0 || pending >= batchSize
+				|| (!scheduled && now - lastFlush >= linger)) {
+			flush(now);
+		} else if (!scheduled) {
+			scheduled = true;
+			ThreadPool.getScheduledPool().schedule(flusher, linger,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void flush(final long now) throws IOException {
+		pending = 0;
+		lastFlush = now;
+		remote.flushBatch();
+	}
+
+	private synchronized void flushScheduled() {
+		scheduled = false;
+		if (pending > 0) {
+			try {
+				flush(System.currentTimeMillis());
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Failed to flush websocket batch", e);
+			}
+		}
+	}
+}
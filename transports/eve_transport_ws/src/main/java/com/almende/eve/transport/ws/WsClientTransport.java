@@ -34,12 +34,13 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 public class WsClientTransport extends WebsocketTransport {
 	private static final Logger	LOG			= Logger.getLogger(WsClientTransport.class
 													.getName());
-	private Async				remote		= null;
+	private WsBatcher			remote		= null;
 	private URI					serverUrl	= null;
 	private String				myId		= null;
 	private ClientManager		client		= null;
 	private Session				session		= null;
 	private Boolean				shouldClose	= false;
+	private WsMultiplexer		mux			= null;
 
 	/**
 	 * Instantiates a new websocket transport.
@@ -70,6 +71,9 @@ public class WsClientTransport extends WebsocketTransport {
 			LOG.warning("'serverUrl' parameter is required!");
 		}
 		myId = config.getId();
+		if (config.isMultiplex() && serverUrl != null) {
+			mux = WsMultiplexer.getClient(serverUrl, config);
+		}
 	}
 
 	/**
@@ -80,17 +84,17 @@ public class WsClientTransport extends WebsocketTransport {
 	 */
 	@Override
 	protected void registerRemote(final String key, final Async remote) {
-		this.remote = remote;
+		this.remote = createBatcher(remote);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * @see
-	 * com.almende.eve.transport.ws.WebsocketTransport#receive(java.lang.String,
-	 * java.net.URI)
+	 * com.almende.eve.transport.ws.WebsocketTransport#receive(java.lang.Object,
+	 * java.lang.String)
 	 */
 	@Override
-	public void receive(final String body, final String id) throws IOException {
+	public void receive(final Object body, final String id) throws IOException {
 		super.getHandle().get().receive(body, serverUrl, null);
 	}
 
@@ -126,6 +130,10 @@ public class WsClientTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
+		if (mux != null && isMultiplexed(receiverUri)) {
+			mux.send(receiverUri, getAddress(), message);
+			return;
+		}
 		if (!receiverUri.equals(serverUrl)) {
 			throw new IOException(
 					"Currently it's only possible to send to the server agent directly, not other agents:"
@@ -139,7 +147,6 @@ public class WsClientTransport extends WebsocketTransport {
 		if (remote != null) {
 			try {
 				remote.sendText(message);
-				remote.flushBatch();
 			} catch (RuntimeException rte) {
 				if (rte.getMessage().equals("Socket is not connected.")) {
 					remote = null;
@@ -160,6 +167,10 @@ public class WsClientTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> callback) throws IOException {
+		if (mux != null && isMultiplexed(receiverUri)) {
+			mux.send(receiverUri, getAddress(), message);
+			return;
+		}
 		if (!receiverUri.equals(serverUrl)) {
 			throw new IOException(
 					"Currently it's only possible to send to the server agent directly, not other agents:"
@@ -171,7 +182,6 @@ public class WsClientTransport extends WebsocketTransport {
 		if (remote != null) {
 			try {
 				remote.sendBinary(ByteBuffer.wrap(message));
-				remote.flushBatch();
 			} catch (RuntimeException rte) {
 				if (rte.getMessage().equals("Socket is not connected.")) {
 					remote = null;
@@ -184,6 +194,11 @@ public class WsClientTransport extends WebsocketTransport {
 		}
 	}
 
+	private boolean isMultiplexed(final URI receiverUri) {
+		return WsMultiplexer.getHost(receiverUri).equals(
+				WsMultiplexer.getHost(serverUrl));
+	}
+
 	@Override
 	public void onClose(final Session session, final CloseReason closeReason) {
 		if (!shouldClose) {
@@ -204,6 +219,10 @@ public class WsClientTransport extends WebsocketTransport {
 	 */
 	@Override
 	public void connect() throws IOException {
+		if (mux != null) {
+			mux.attach(myId);
+			return;
+		}
 		if (session != null) {
 			return;
 		}
@@ -232,6 +251,10 @@ public class WsClientTransport extends WebsocketTransport {
 	 */
 	@Override
 	public void disconnect() {
+		if (mux != null) {
+			mux.detach(myId);
+			return;
+		}
 		try {
 			shouldClose = true;
 
@@ -266,7 +289,12 @@ public class WsClientTransport extends WebsocketTransport {
 		} else {
 			LOG.warning("'serverUrl' parameter is required!");
 		}
+		if (mux != null) {
+			mux.detach(myId);
+		}
 		myId = config.getId();
+		mux = config.isMultiplex() && serverUrl != null ? WsMultiplexer
+				.getClient(serverUrl, config) : null;
 		connect();
 	}
 
@@ -0,0 +1,398 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.ws;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.DeploymentException;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.Session;
+
+import org.glassfish.tyrus.client.ClientManager;
+
+import com.almende.util.URIUtil;
+import com.almende.util.threads.ThreadPool;
+
+/**
+ * The Class WsMultiplexer, carries the messages of many agents over a single
+ * websocket between two hosts. Each frame starts with the address of the
+ * receiving and the sending agent, the receiving side routes the frame to the
+ * transport with that address.
+ * <p>
+ * Text frames are encoded as "to\nfrom\nbody", binary frames as two
+ * length-prefixed UTF-8 addresses followed by the body. A frame with an empty
+ * receiver announces the sending client, so the server can reach it before it
+ * has sent anything.
+ * </p>
+ * <p>
+ * On the client side there is one connection per server host, shared by all
+ * {@link WsClientTransport}s which have multiplexing enabled. On the server
+ * side, the connection of each client is learned from its frames and shared by
+ * all {@link WsServerTransport}s. A client address is bound to the connection
+ * it was first seen on, until that connection closes: the server only accepts
+ * frames from "wsclient:" addresses bound to the connection they arrive on.
+ * </p>
+ */
+final class WsMultiplexer {
+	private static final Logger							LOG			= Logger.getLogger(WsMultiplexer.class
+																			.getName());
+	private static final Charset						UTF8		= Charset
+																			.forName("UTF-8");
+	private static final Map<String, WsMultiplexer>		CONNECTIONS	= new ConcurrentHashMap<String, WsMultiplexer>();
+	private static final ConcurrentMap<URI, WsBatcher>	ROUTES		= new ConcurrentHashMap<URI, WsBatcher>();
+
+	private final URI									serverUrl;
+	private final WebsocketTransportConfig				config;
+	private final Set<String>							clients		= Collections
+																			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private ClientManager								client		= null;
+	private volatile Session							session		= null;
+	private volatile WsBatcher							remote		= null;
+
+	/**
+	 * A decoded frame.
+	 */
+	static final class Frame {
+		private final String	to;
+		private final String	from;
+		private final Object	body;
+
+		private Frame(final String to, final String from, final Object body) {
+			this.to = to;
+			this.from = from;
+			this.body = body;
+		}
+	}
+
+	private WsMultiplexer(final URI serverUrl,
+			final WebsocketTransportConfig config) {
+		this.serverUrl = serverUrl;
+		this.config = config;
+	}
+
+	/**
+	 * Gets the shared client connection to the host of the given server url.
+	 *
+	 * @param serverUrl
+	 *            the server url
+	 * @param config
+	 *            the config of the client, the first client of a host
+	 *            determines the batch settings of the connection.
+	 * @return the multiplexer
+	 */
+	static WsMultiplexer getClient(final URI serverUrl,
+			final WebsocketTransportConfig config) {
+		final String key = getHost(serverUrl);
+		WsMultiplexer result = CONNECTIONS.get(key);
+		if (result == null) {
+			synchronized (CONNECTIONS) {
+				result = CONNECTIONS.get(key);
+				if (result == null) {
+					result = new WsMultiplexer(serverUrl, config);
+					CONNECTIONS.put(key, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the host of the given url.
+	 *
+	 * @param url
+	 *            the url
+	 * @return the scheme and authority of the url.
+	 */
+	static String getHost(final URI url) {
+		return url.getScheme() + "://" + url.getRawAuthority();
+	}
+
+	/**
+	 * Attach a client agent to this connection.
+	 *
+	 * @param id
+	 *            the client id
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void attach(final String id) throws IOException {
+		final WsBatcher remote = this.remote;
+		if (remote == null) {
+			clients.add(id);
+			connect();
+		} else if (clients.add(id)) {
+			announce(remote, id);
+		}
+	}
+
+	/**
+	 * Detach a client agent from this connection.
+	 *
+	 * @param id
+	 *            the client id
+	 */
+	void detach(final String id) {
+		clients.remove(id);
+	}
+
+	private synchronized void connect() throws IOException {
+		if (remote != null) {
+			return;
+		}
+		if (client == null) {
+			client = ClientManager.createClient();
+			client.setDefaultMaxSessionIdleTimeout(-1);
+		}
+		try {
+			final ClientEndpointConfig cec = ClientEndpointConfig.Builder
+					.create().build();
+			cec.getUserProperties().put("mux", this);
+			session = client.connectToServer(WebsocketEndpoint.class, cec,
+					URIUtil.parse(serverUrl + "?mux=true"));
+		} catch (final DeploymentException e) {
+			throw new IOException("Can't connect to server", e);
+		} catch (final URISyntaxException e) {
+			throw new IOException("Can't parse server address", e);
+		}
+	}
+
+	/**
+	 * Called by the endpoint once the connection is open.
+	 *
+	 * @param remote
+	 *            the remote
+	 * @return the batcher wrapping the remote
+	 */
+	WsBatcher onOpen(final Async remote) {
+		final WsBatcher batcher = new WsBatcher(remote, config);
+		this.remote = batcher;
+		for (final String id : clients) {
+			announce(batcher, id);
+		}
+		return batcher;
+	}
+
+	/**
+	 * Called by the endpoint once the connection is closed, the next send
+	 * reconnects.
+	 */
+	void onClose() {
+		remote = null;
+		session = null;
+	}
+
+	/**
+	 * Send a message from a client agent to a server agent.
+	 *
+	 * @param to
+	 *            the receiver address
+	 * @param from
+	 *            the sender address
+	 * @param body
+	 *            the body, a String or a byte[]
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	void send(final URI to, final URI from, final Object body)
+			throws IOException {
+		WsBatcher remote = this.remote;
+		if (remote == null) {
+			connect();
+			remote = this.remote;
+		}
+		if (remote == null) {
+			throw new IOException("Not connected to " + getHost(serverUrl));
+		}
+		send(remote, to.toASCIIString(), from.toASCIIString(), body);
+	}
+
+	private static void announce(final WsBatcher remote, final String id) {
+		try {
+			send(remote, "", "wsclient:" + id, "");
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Failed to announce client:" + id, e);
+		}
+	}
+
+	/**
+	 * Send a message to a client agent, through the connection it was last
+	 * seen on.
+	 *
+	 * @param to
+	 *            the client address
+	 * @param from
+	 *            the sender address
+	 * @param body
+	 *            the body, a String or a byte[]
+	 * @return true, if the client is connected through a multiplexer.
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static boolean sendToClient(final URI to, final URI from,
+			final Object body) throws IOException {
+		final WsBatcher remote = ROUTES.get(to);
+		if (remote == null) {
+			return false;
+		}
+		send(remote, to.toASCIIString(), from.toASCIIString(), body);
+		return true;
+	}
+
+	private static void send(final WsBatcher remote, final String to,
+			final String from, final Object body) throws IOException {
+		if (body instanceof byte[]) {
+			remote.sendBinary(encode(to, from, (byte[]) body));
+		} else {
+			remote.sendText(to + "\n" + from + "\n" + body);
+		}
+	}
+
+	private static ByteBuffer encode(final String to, final String from,
+			final byte[] body) {
+		final byte[] toBytes = to.getBytes(UTF8);
+		final byte[] fromBytes = from.getBytes(UTF8);
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + toBytes.length
+				+ fromBytes.length + body.length);
+		buffer.putShort((short) toBytes.length).put(toBytes);
+		buffer.putShort((short) fromBytes.length).put(fromBytes);
+		buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decode a frame.
+	 *
+	 * @param frame
+	 *            the frame, a String or a ByteBuffer
+	 * @return the frame, or null if it is malformed.
+	 */
+	static Frame decode(final Object frame) {
+		if (frame instanceof ByteBuffer) {
+			final ByteBuffer buffer = (ByteBuffer) frame;
+			try {
+				final byte[] to = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(to);
+				final byte[] from = new byte[buffer.getShort() & 0xFFFF];
+				buffer.get(from);
+				final byte[] body = new byte[buffer.remaining()];
+				buffer.get(body);
+				return new Frame(new String(to, UTF8), new String(from, UTF8),
+						body);
+			} catch (final RuntimeException e) {
+				return null;
+			}
+		}
+		final String text = (String) frame;
+		final int first = text.indexOf('\n');
+		final int second = first < 0 ? -1 : text.indexOf('\n', first + 1);
+		if (second < 0) {
+			return null;
+		}
+		return new Frame(text.substring(0, first), text.substring(first + 1,
+				second), text.substring(second + 1));
+	}
+
+	/**
+	 * Route an inbound frame to its receiving transport.
+	 *
+	 * @param data
+	 *            the frame, a String or a ByteBuffer
+	 * @param remote
+	 *            the remote the frame arrived on
+	 * @param server
+	 *            true if this is the server side of the connection, the sender
+	 *            of the frame then has to be a client bound to this
+	 *            connection.
+	 */
+	static void receive(final Object data, final WsBatcher remote,
+			final boolean server) {
+		final Frame frame = decode(data);
+		if (frame == null) {
+			LOG.warning("Dropping malformed multiplexed frame.");
+			return;
+		}
+		final URI from;
+		try {
+			from = URIUtil.create(frame.from);
+		} catch (final IllegalArgumentException e) {
+			LOG.warning("Dropping multiplexed frame with malformed sender:"
+					+ frame.from);
+			return;
+		}
+		if (server && !bind(from, remote)) {
+			LOG.warning("Dropping multiplexed frame, sender not bound to this connection:"
+					+ frame.from);
+			return;
+		}
+		if (frame.to.isEmpty()) {
+			// Just an announcement.
+			return;
+		}
+		final WebsocketTransport transport = WebsocketTransportBuilder
+				.get(URIUtil.create(frame.to));
+		if (transport == null) {
+			LOG.warning("Received message for unknown agent:" + frame.to);
+			return;
+		}
+		ThreadPool.getPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					transport.receive(frame.body, from);
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Failed to receive message", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Bind a client address to the connection it sent a frame on, replies to
+	 * this client go through the same connection. Only "wsclient:" addresses
+	 * can be bound, and only to a single connection at a time.
+	 *
+	 * @param from
+	 *            the client address
+	 * @param remote
+	 *            the remote
+	 * @return true, if the address is bound to this remote.
+	 */
+	private static boolean bind(final URI from, final WsBatcher remote) {
+		if (!"wsclient".equals(from.getScheme())) {
+			return false;
+		}
+		final WsBatcher existing = ROUTES.putIfAbsent(from, remote);
+		return existing == null || existing == remote;
+	}
+
+	/**
+	 * Remove all routes through the given (closed) remote.
+	 *
+	 * @param remote
+	 *            the remote
+	 */
+	static void removeRoutes(final WsBatcher remote) {
+		final Iterator<WsBatcher> iter = ROUTES.values().iterator();
+		while (iter.hasNext()) {
+			if (iter.next() == remote) {
+				iter.remove();
+			}
+		}
+	}
+}
@@ -8,10 +8,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.websocket.CloseReason;
 import javax.websocket.RemoteEndpoint.Async;
@@ -28,7 +28,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * The Class WebsocketTransport.
  */
 public class WsServerTransport extends WebsocketTransport {
-	private final Map<URI, Async>	remotes	= new HashMap<URI, Async>();
+	private final Map<URI, WsBatcher>	remotes	= new ConcurrentHashMap<URI, WsBatcher>();
 	
 	/**
 	 * Instantiates a new websocket transport.
@@ -85,18 +85,18 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	protected void registerRemote(final String id, final Async remote) {
 		final URI key = URI.create("wsclient:" + id);
-		remotes.put(key, remote);
+		remotes.put(key, createBatcher(remote));
 	}
 	
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see
-	 * com.almende.eve.transport.ws.WebsocketTransport#receive(java.lang.String,
-	 * java.net.URI)
+	 * com.almende.eve.transport.ws.WebsocketTransport#receive(java.lang.Object,
+	 * java.lang.String)
 	 */
 	@Override
-	public void receive(final String body, final String id) throws IOException {
+	public void receive(final Object body, final String id) throws IOException {
 		final URI senderUrl = URI.create("wsclient:" + id);
 		super.getHandle().get().receive(body, senderUrl, null);
 	}
@@ -110,11 +110,11 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final String message,
 			final String tag, final AsyncCallback<T> calback) throws IOException {
-		if (remotes.containsKey(receiverUri)) {
-			final Async remote = remotes.get(receiverUri);
+		final WsBatcher remote = remotes.get(receiverUri);
+		if (remote != null) {
 			remote.sendText(message);
-			remote.flushBatch();
-		} else {
+		} else if (!WsMultiplexer.sendToClient(receiverUri, getAddress(),
+				message)) {
 			throw new IOException("Remote: " + receiverUri.toASCIIString()
 					+ " is currently not connected. (" + getAddress() + " / "
 					+ remotes.keySet() + ")");
@@ -130,11 +130,11 @@ public class WsServerTransport extends WebsocketTransport {
 	@Override
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> calback) throws IOException {
-		if (remotes.containsKey(receiverUri)) {
-			final Async remote = remotes.get(receiverUri);
+		final WsBatcher remote = remotes.get(receiverUri);
+		if (remote != null) {
 			remote.sendBinary(ByteBuffer.wrap(message));
-			remote.flushBatch();
-		} else {
+		} else if (!WsMultiplexer.sendToClient(receiverUri, getAddress(),
+				message)) {
 			throw new IOException("Remote: " + receiverUri.toASCIIString()
 					+ " is currently not connected.");
 		}
@@ -0,0 +1,174 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.xmpp;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.Roster;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.Presence;
+
+/**
+ * The Class XmppSharedConnection, a single XMPP connection per server and
+ * account, shared by all agents of that account which have multiplexing
+ * enabled. The connection logs in once, with its own resource. Inbound
+ * messages are dispatched to the agent whose resource is in the recipient
+ * address; the server delivers messages for resources without a session of
+ * their own to this connection. Outbound messages carry the address of the
+ * sending agent in the {@link #FROM} property, as the stanza's from attribute
+ * holds the resource of the shared connection.
+ */
+final class XmppSharedConnection implements PacketListener {
+	private static final Logger								LOG			= Logger.getLogger(XmppSharedConnection.class
+																				.getSimpleName());
+	/** The message property holding the address of the sending agent. */
+	static final String										FROM		= "eve-from";
+	private static final String								RESOURCE	= "eve";
+	private static final Map<String, XmppSharedConnection>	SHARED		= new ConcurrentHashMap<String, XmppSharedConnection>();
+
+	private final String									host;
+	private final int										port;
+	private final String									serviceName;
+	private final String									username;
+	private final String									password;
+	private final Map<String, XmppTransport>				agents		= new ConcurrentHashMap<String, XmppTransport>();
+	private volatile XMPPConnection							conn		= null;
+
+	private XmppSharedConnection(final String host,
+			final int port, final String serviceName, final String username,
+			final String password) {
+		this.host = host;
+		this.port = port;
+		this.serviceName = serviceName;
+		this.username = username;
+		this.password = password;
+	}
+
+	/**
+	 * Gets the shared connection of the given account.
+	 *
+	 * @param host
+	 *            the host
+	 * @param port
+	 *            the port
+	 * @param serviceName
+	 *            the service name
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @return the shared connection
+	 */
+	static XmppSharedConnection get(final String host, final int port,
+			final String serviceName, final String username,
+			final String password) {
+		final String key = username + "@" + host + ":" + port;
+		synchronized (SHARED) {
+			XmppSharedConnection result = SHARED.get(key);
+			if (result == null) {
+				result = new XmppSharedConnection(host, port, serviceName,
+						username, password);
+				SHARED.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Register an agent and make sure the connection is open.
+	 *
+	 * @param resource
+	 *            the resource of the agent
+	 * @param transport
+	 *            the transport of the agent
+	 * @return the connection
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	XMPPConnection register(final String resource,
+			final XmppTransport transport) throws IOException {
+		agents.put(resource, transport);
+		return connect();
+	}
+
+	/**
+	 * Unregister an agent, the connection is closed once no agents are left.
+	 *
+	 * @param resource
+	 *            the resource of the agent
+	 */
+	void unregister(final String resource) {
+		agents.remove(resource);
+		synchronized (this) {
+			if (agents.isEmpty()) {
+				final XMPPConnection conn = this.conn;
+				this.conn = null;
+				if (conn != null && conn.isConnected()) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	private synchronized XMPPConnection connect() throws IOException {
+		XMPPConnection conn = this.conn;
+		if (conn != null && conn.isConnected()) {
+			return conn;
+		}
+		final ConnectionConfiguration connConfig = new ConnectionConfiguration(
+				host, port, serviceName);
+
+		connConfig.setSASLAuthenticationEnabled(true);
+		connConfig.setReconnectionAllowed(true);
+		connConfig.setCompressionEnabled(true);
+		connConfig.setRosterLoadedAtLogin(false);
+
+		conn = new XMPPConnection(connConfig);
+		try {
+			conn.connect();
+			conn.login(username, password, RESOURCE);
+			conn.addPacketListener(this, new PacketTypeFilter(Message.class));
+
+			conn.sendPacket(new Presence(Presence.Type.available));
+			conn.getRoster().setSubscriptionMode(
+					Roster.SubscriptionMode.accept_all);
+		} catch (final XMPPException e) {
+			LOG.log(Level.WARNING, "", e);
+			throw new IOException("Failed to connect to messenger", e);
+		}
+		this.conn = conn;
+		return conn;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * org.jivesoftware.smack.PacketListener#processPacket(org.jivesoftware.
+	 * smack.packet.Packet)
+	 */
+	@Override
+	public void processPacket(final Packet packet) {
+		final String to = packet.getTo();
+		final int index = to == null ? -1 : to.indexOf('/');
+		final XmppTransport transport = index > 0 ? agents.get(to
+				.substring(index + 1)) : null;
+		if (transport == null) {
+			LOG.warning("Received stanza for unknown agent, disregarding. "
+					+ to);
+			return;
+		}
+		transport.processPacket(packet);
+	}
+}
@@ -20,6 +20,7 @@ import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.util.StringUtils;
 
 import com.almende.eve.capabilities.handler.Handler;
 import com.almende.eve.transport.AbstractTransport;
@@ -43,6 +44,7 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	private int					port		= 0;
 	private String				resource	= null;
 	private String				password	= null;
+	private XmppSharedConnection	shared		= null;
 	
 	/**
 	 * Instantiates a new xmpp transport.
@@ -71,6 +73,10 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 			serviceName = host;
 		}
 		password = config.getPassword();
+		if (config.isMultiplex() && resource != null && !resource.isEmpty()) {
+			shared = XmppSharedConnection.get(host, port, serviceName,
+					username, password);
+		}
 	}
 	
 	/*
@@ -91,6 +97,11 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 			final Message msg = new Message();
 			msg.setTo(receiverUri.toASCIIString().replace("xmpp:", ""));
 			msg.setBody(message);
+			if (shared != null) {
+				// The shared connection has its own resource.
+				msg.setProperty(XmppSharedConnection.FROM, super.getAddress()
+						.toASCIIString());
+			}
 			conn.sendPacket(msg);
 		} else {
 			throw new IOException("Cannot send request, not connected");
@@ -125,6 +136,10 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 			return;
 		}
 		LOG.warning("Connect called:" + toString());
+		if (shared != null) {
+			conn = shared.register(resource, this);
+			return;
+		}
 		// configure and connect
 		final ConnectionConfiguration connConfig = new ConnectionConfiguration(
 				host, port, serviceName);
@@ -138,10 +153,6 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 		try {
 			conn.connect();
 			
-			try {
-				Thread.sleep(500);
-			} catch (final InterruptedException e) {
-			}
 			// login
 			if (resource == null) {
 				conn.login(username, password);
@@ -172,6 +183,11 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 	 */
 	@Override
 	public void disconnect() {
+		if (shared != null) {
+			shared.unregister(resource);
+			conn = null;
+			return;
+		}
 		if (isConnected()) {
 			conn.disconnect();
 			conn = null;
@@ -204,10 +220,54 @@ public class XmppTransport extends AbstractTransport implements PacketListener {
 			}
 		}
 		final String body = message.getBody();
-		final URI senderUrl = URIUtil.create("xmpp:" + message.getFrom());
 		if (body != null) {
-			super.getHandle().get().receive(body, senderUrl, null);
+			super.getHandle().get().receive(body, getSender(message), null);
+		}
+	}
+
+	/**
+	 * Gets the sender of the message. Agents behind a shared connection put
+	 * their address in the message; this is only trusted if it belongs to the
+	 * same account as the (server checked) from attribute of the stanza. The
+	 * receiving side may use a dedicated connection, replies must still reach
+	 * the sending agent instead of the shared resource.
+	 *
+	 * @param message
+	 *            the message
+	 * @return the sender url
+	 */
+	private URI getSender(final Message message) {
+		final String jid = message.getFrom();
+		final Object from = message.getProperty(XmppSharedConnection.FROM);
+		if (jid != null && from instanceof String) {
+			try {
+				final URI senderUrl = URIUtil.create((String) from);
+				if (StringUtils.parseBareAddress(jid).equalsIgnoreCase(
+						getBareAddress(senderUrl))) {
+					return senderUrl;
+				}
+			} catch (final IllegalArgumentException e) {
+				LOG.log(Level.FINE, "Malformed sender address:" + from, e);
+			}
+			LOG.warning("Ignoring sender address " + from
+					+ " of message from " + jid);
+		}
+		return URIUtil.create("xmpp:" + jid);
+	}
+
+	/**
+	 * Gets the bare address (user@host) of an agent's xmpp url, either of the
+	 * form "xmpp://user@host:port/resource" or "xmpp:user@host/resource".
+	 *
+	 * @param url
+	 *            the url
+	 * @return the bare address
+	 */
+	private static String getBareAddress(final URI url) {
+		if (url.getUserInfo() != null && url.getHost() != null) {
+			return url.getUserInfo() + "@" + url.getHost();
 		}
+		return StringUtils.parseBareAddress(url.getSchemeSpecificPart());
 	}
 	
 	/**
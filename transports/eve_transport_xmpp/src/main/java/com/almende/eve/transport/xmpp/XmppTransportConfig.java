@@ -99,4 +99,28 @@ public class XmppTransportConfig extends TransportConfig {
 	public void setPassword(final String password) {
 		this.put("password", password);
 	}
+
+	/**
+	 * Share a single connection with all other multiplexing agents of the same
+	 * server and account. (Optional, default false) Each agent is then
+	 * addressed by the resource of its address.
+	 * 
+	 * @param multiplex
+	 *            the new multiplex
+	 */
+	public void setMultiplex(final boolean multiplex) {
+		this.put("multiplex", multiplex);
+	}
+
+	/**
+	 * Is this agent sharing its connection?
+	 * 
+	 * @return true, if multiplexing
+	 */
+	public boolean isMultiplex() {
+		if (this.has("multiplex")) {
+			return this.get("multiplex").asBoolean();
+		}
+		return false;
+	}
 }
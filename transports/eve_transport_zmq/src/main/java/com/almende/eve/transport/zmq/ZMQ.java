@@ -25,6 +25,11 @@ public class ZMQ extends org.zeromq.ZMQ {
 															.valueOf(2)
 															.byteValue() };
 	
+	/** The Constant BINARY, a normal message with a binary body. */
+	public static final byte[]	BINARY				= new byte[] { Integer
+															.valueOf(3)
+															.byteValue() };
+	
 	/**
 	 * Gets the single instance of ZMQ.
 	 * 
@@ -0,0 +1,211 @@
+/*
+ * Copyright: Almende B.V. (2014), Rotterdam, The Netherlands
+ * License: The Apache Software License, Version 2.0
+ */
+package com.almende.eve.transport.zmq;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMQ.Socket;
+
+import com.almende.util.callback.AsyncCallback;
+
+/**
+ * The Class ZmqSocketPool, keeps a long-lived PUSH socket per destination.
+ * ZMQ sockets are not thread-safe, therefore all pooled sockets are owned by a
+ * single sender thread; other threads hand over their messages through a
+ * queue. The pool is bounded, the least recently used socket is closed first,
+ * and sockets which have been idle for a while are closed as well.
+ */
+final class ZmqSocketPool {
+	private static final Logger			LOG			= Logger.getLogger(ZmqSocketPool.class
+															.getName());
+	private static final int			MAXSOCKETS	= 1024;
+	private static final long			IDLETIMEOUT	= 60000;
+	private static final ZmqSocketPool	INSTANCE	= new ZmqSocketPool(
+															MAXSOCKETS,
+															IDLETIMEOUT);
+
+	private final long					idleTimeout;
+	private final BlockingQueue<Outbound>	queue		= new LinkedBlockingQueue<Outbound>();
+	private final Map<String, Pooled>	sockets;
+	private final Thread				sender;
+	private volatile boolean			started		= false;
+
+	private static final class Outbound {
+		private final String			addr;
+		private final byte[][]			frames;
+		private final AsyncCallback<?>	callback;
+
+		private Outbound(final String addr, final byte[][] frames,
+				final AsyncCallback<?> callback) {
+			this.addr = addr;
+			this.frames = frames;
+			this.callback = callback;
+		}
+	}
+
+	private static final class Pooled {
+		private final Socket	socket;
+		private long			lastUsed;
+
+		private Pooled(final Socket socket) {
+			this.socket = socket;
+		}
+	}
+
+	private ZmqSocketPool(final int maxSockets, final long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		// Access ordered, so the eldest entry is the least recently used.
+		this.sockets = new LinkedHashMap<String, Pooled>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<String, Pooled> eldest) {
+				if (size() > maxSockets) {
+					close(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "ZmqSender");
+		this.sender.setDaemon(true);
+	}
+
+	/**
+	 * Gets the shared instance.
+	 *
+	 * @return the instance
+	 */
+	static ZmqSocketPool getInstance() {
+		return INSTANCE;
+	}
+
+	private void start() {
+		if (!started) {
+			synchronized (sender) {
+				if (!started) {
+					sender.start();
+					started = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send a multipart message to the given address, through the pooled
+	 * socket for that address. Failures are reported to the callback.
+	 *
+	 * @param addr
+	 *            the zmq address
+	 * @param callback
+	 *            the callback, may be null
+	 * @param frames
+	 *            the frames
+	 */
+	void send(final String addr, final AsyncCallback<?> callback,
+			final byte[]... frames) {
+		start();
+		queue.add(new Outbound(addr, frames, callback));
+	}
+
+	private void loop() {
+		long lastEviction = System.currentTimeMillis();
+		for (;;) {
+			try {
+				final Outbound out = queue.poll(idleTimeout,
+						TimeUnit.MILLISECONDS);
+				if (out != null) {
+					send(out);
+				}
+				final long now = System.currentTimeMillis();
+				if (now - lastEviction > 1000) {
+					evict(now);
+					lastEviction = now;
+				}
+			} catch (final InterruptedException e) {
+				// Just retry.
+			} catch (final RuntimeException e) {
+				LOG.log(Level.WARNING, "ZMQ sender caught exception", e);
+			}
+		}
+	}
+
+	private void send(final Outbound out) {
+		Pooled pooled = sockets.get(out.addr);
+		try {
+			if (pooled == null) {
+				final Socket socket = ZMQ.getSocket(org.zeromq.ZMQ.PUSH);
+				socket.setLinger(-1);
+				pooled = new Pooled(socket);
+				socket.connect(out.addr);
+				sockets.put(out.addr, pooled);
+			}
+			pooled.lastUsed = System.currentTimeMillis();
+
+			final int last = out.frames.length - 1;
+			// Never block the sender on a single slow destination, the other
+			// frames of a multipart message are queued once the first is.
+			if (!pooled.socket.send(out.frames[0], org.zeromq.ZMQ.DONTWAIT
+					| (last > 0 ? org.zeromq.ZMQ.SNDMORE : 0))) {
+				fail(out, new IOException("ZMQ send queue to " + out.addr
+						+ " is full"));
+				return;
+			}
+			for (int i = 1; i <= last; i++) {
+				pooled.socket.send(out.frames[i], i < last ? org.zeromq.ZMQ.SNDMORE
+						: 0);
+			}
+		} catch (final Exception e) {
+			LOG.log(Level.WARNING, "Failed to send JSON through ZMQ", e);
+			if (pooled != null) {
+				sockets.remove(out.addr);
+				close(pooled);
+			}
+			fail(out, new IOException("Failed to send JSON through ZMQ, e: "
+					+ e.getMessage()));
+		}
+	}
+
+	private void fail(final Outbound out, final Exception exception) {
+		if (out.callback != null) {
+			out.callback.onFailure(exception);
+		}
+	}
+
+	private void evict(final long now) {
+		final Iterator<Pooled> iter = sockets.values().iterator();
+		while (iter.hasNext()) {
+			final Pooled pooled = iter.next();
+			if (now - pooled.lastUsed < idleTimeout) {
+				// Access ordered: all other sockets are used more recently.
+				break;
+			}
+			iter.remove();
+			close(pooled);
+		}
+	}
+
+	private static void close(final Pooled pooled) {
+		try {
+			pooled.socket.close();
+		} catch (final RuntimeException e) {
+			LOG.log(Level.FINE, "Failed to close ZMQ socket", e);
+		}
+	}
+}
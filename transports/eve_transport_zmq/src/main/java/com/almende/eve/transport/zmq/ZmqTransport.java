@@ -9,8 +9,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,12 +32,22 @@ import com.almende.util.ObjectCache;
 import com.almende.util.URIUtil;
 import com.almende.util.callback.AsyncCallback;
 import com.almende.util.callback.AsyncCallbackStore;
-import com.almende.util.callback.SyncCallback;
 import com.almende.util.jackson.JOM;
 import com.almende.util.threads.ThreadPool;
 
 /**
  * The Class ZmqTransport.
+ * <p>
+ * A single I/O thread owns the listening socket and only reads frames, which
+ * are handed to "decoders" shards, each handled by at most one thread of the
+ * ThreadPool at a time. Frames are sharded by sender url, so messages from the
+ * same sender are still delivered in the order they were received, while
+ * different senders are decoded in parallel. Handshakes don't block either:
+ * messages from unauthenticated senders are parked until the handshake
+ * response arrives. That response comes from the same sender url, so it is
+ * handled in the same shard and the parked messages are delivered before any
+ * later message of that sender.
+ * </p>
  */
 public class ZmqTransport extends AbstractTransport {
 	private static final Logger						LOG					= Logger.getLogger(ZmqTransport.class
@@ -40,8 +56,10 @@ public class ZmqTransport extends AbstractTransport {
 	private Thread									listeningThread;
 	private boolean									doesAuthentication	= false;
 	private boolean									doDisconnect		= false;
-	private static final AsyncCallbackStore<String>	CALLBACKS			= new AsyncCallbackStore<String>(
+	private final AsyncCallbackStore<String>		callbacks			= new AsyncCallbackStore<String>(
 																				"ZMQ");
+	private final Shard[]							shards;
+	private final Map<String, List<ByteBuffer[]>>	handshakes			= new HashMap<String, List<ByteBuffer[]>>();
 	private final TokenStore						tokenstore			= new TokenStore();
 	private final List<String>						protocols			= Arrays.asList("zmq");
 
@@ -60,6 +78,10 @@ public class ZmqTransport extends AbstractTransport {
 		super(config.getAddress(), handle, service, config);
 		zmqUrl = super.getAddress().toString().replaceFirst("^zmq:/?/?", "");
 		doesAuthentication = config.getDoAuthentication();
+		shards = new Shard[Math.max(1, config.getDecoders())];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard();
+		}
 	}
 
 	/**
@@ -84,35 +106,9 @@ public class ZmqTransport extends AbstractTransport {
 			final URI receiverUrl, final byte[] message, final String tag,
 			final AsyncCallback<T> callback) {
 		final String senderUrl = super.getAddress().toString();
-		ThreadPool.getPool().execute(new Runnable() {
-
-			/*
-			 * (non-Javadoc)
-			 * @see java.lang.Runnable#run()
-			 */
-			@Override
-			public void run() {
-				final String addr = receiverUrl.toString().replaceFirst(
-						"zmq:/?/?", "");
-				final Socket socket = ZMQ.getSocket(org.zeromq.ZMQ.PUSH);
-				try {
-					socket.connect(addr);
-					socket.send(zmqType, org.zeromq.ZMQ.SNDMORE);
-					socket.send(senderUrl, org.zeromq.ZMQ.SNDMORE);
-					socket.send(token, org.zeromq.ZMQ.SNDMORE);
-					socket.send(message, 0);
-
-				} catch (final Exception e) {
-					LOG.log(Level.WARNING, "Failed to send JSON through ZMQ", e);
-					callback.onFailure(new IOException(
-							"Failed to send JSON through ZMQ, e: "
-									+ e.getMessage()));
-				}
-				socket.setTCPKeepAlive(-1);
-				socket.setLinger(-1);
-				socket.close();
-			}
-		});
+		final String addr = receiverUrl.toString().replaceFirst("zmq:/?/?", "");
+		ZmqSocketPool.getInstance().send(addr, callback, zmqType,
+				senderUrl.getBytes(), token.getBytes(), message);
 	}
 
 	/*
@@ -137,7 +133,7 @@ public class ZmqTransport extends AbstractTransport {
 	public <T> void send(final URI receiverUri, final byte[] message,
 			final String tag, final AsyncCallback<T> callback)
 			throws IOException {
-		sendAsync(ZMQ.NORMAL, tokenstore.create().toString(), receiverUri,
+		sendAsync(ZMQ.BINARY, tokenstore.create().toString(), receiverUri,
 				message, tag, callback);
 	}
 
@@ -208,7 +204,7 @@ public class ZmqTransport extends AbstractTransport {
 						final ByteBuffer[] msg = getRequest(socket);
 
 						if (msg[0] != null) {
-							handleMsg(msg);
+							shard(msg).add(msg);
 							continue;
 						}
 						if (doDisconnect) {
@@ -225,6 +221,58 @@ public class ZmqTransport extends AbstractTransport {
 		listeningThread.start();
 	}
 
+	/**
+	 * Get the shard of the sender of the given message.
+	 *
+	 * @param msg
+	 *            the msg
+	 * @return the shard
+	 */
+	private Shard shard(final ByteBuffer[] msg) {
+		return shards[(Arrays.hashCode(msg[1].array()) & Integer.MAX_VALUE)
+				% shards.length];
+	}
+
+	/**
+	 * A queue of received messages, handled in order by at most one thread at
+	 * a time.
+	 */
+	private final class Shard implements Runnable {
+		private final Queue<ByteBuffer[]>	queue		= new ConcurrentLinkedQueue<ByteBuffer[]>();
+		private final AtomicBoolean			scheduled	= new AtomicBoolean(
+																false);
+
+		private void add(final ByteBuffer[] msg) {
+			queue.add(msg);
+			if (scheduled.compareAndSet(false, true)) {
+				ThreadPool.getPool().execute(this);
+			}
+		}
+
+		/**
+		 * Handle received messages, until the queue is empty.
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				ByteBuffer[] msg = queue.poll();
+				while (msg != null) {
+					try {
+						handleMsg(msg);
+					} catch (final Exception e) {
+						LOG.log(Level.SEVERE, "Caught error:", e);
+					}
+					msg = queue.poll();
+				}
+				scheduled.set(false);
+				// Don't miss messages added while exiting.
+				if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+					return;
+				}
+			}
+		}
+	}
+
 	/**
 	 * Handle msg.
 	 * 
@@ -251,6 +299,7 @@ public class ZmqTransport extends AbstractTransport {
 
 		// Receive
 		// ZMQ.NORMAL|senderUrl|tokenJson|body
+		// ZMQ.BINARY|senderUrl|tokenJson|bytes
 		// ZMQ.HANDSHAKE|senderUrl|tokenJson|timestamp
 		// ZMQ.HANDSHAKE_RESPONSE|senderUrl|tokenJson|null
 
@@ -268,7 +317,7 @@ public class ZmqTransport extends AbstractTransport {
 			return;
 		} else if (Arrays.equals(msg[0].array(), ZMQ.HANDSHAKE_RESPONSE)) {
 			// post response to callback for handling by other thread
-			final AsyncCallback<String> callback = CALLBACKS.get(key);
+			final AsyncCallback<String> callback = callbacks.get(key);
 			if (callback != null) {
 				callback.onSuccess(body);
 			} else {
@@ -279,26 +328,77 @@ public class ZmqTransport extends AbstractTransport {
 		} else {
 			final ObjectCache sessionCache = ObjectCache.get("ZMQSessions");
 			if (!sessionCache.containsKey(key) && doesAuthentication) {
-				final SyncCallback<String> callback = new SyncCallback<String>() {};
-				CALLBACKS.put(key, "", callback);
-				sendAsync(ZMQ.HANDSHAKE, token.toString(), senderUrl, token
-						.getTime().getBytes(), null, null);
+				handshake(key, senderUrl, token, msg);
+				return;
+			}
+		}
+		deliver(msg, senderUrl);
+	}
 
-				String retToken = null;
-				try {
-					retToken = callback.get();
-				} catch (final Exception e) {}
+	private void deliver(final ByteBuffer[] msg, final URI senderUrl) {
+		if (Arrays.equals(msg[0].array(), ZMQ.BINARY)) {
+			super.getHandle().get().receive(msg[3].array(), senderUrl, null);
+		} else {
+			super.getHandle().get()
+					.receive(new String(msg[3].array()), senderUrl, null);
+		}
+	}
+
+	/**
+	 * Start a handshake with the sender, the message is delivered once the
+	 * sender has confirmed the token. Messages arriving during the handshake
+	 * are parked with it.
+	 *
+	 * @param key
+	 *            the session key
+	 * @param senderUrl
+	 *            the sender url
+	 * @param token
+	 *            the token
+	 * @param msg
+	 *            the msg
+	 */
+	private void handshake(final String key, final URI senderUrl,
+			final TokenRet token, final ByteBuffer[] msg) {
+		synchronized (handshakes) {
+			final List<ByteBuffer[]> parked = handshakes.get(key);
+			if (parked != null) {
+				parked.add(msg);
+				return;
+			}
+			final List<ByteBuffer[]> list = new ArrayList<ByteBuffer[]>(1);
+			list.add(msg);
+			handshakes.put(key, list);
+		}
+		callbacks.put(key, "", new AsyncCallback<String>() {
+
+			@Override
+			public void onSuccess(final String retToken) {
+				final List<ByteBuffer[]> parked = unpark(key);
 				if (token.getToken().equals(retToken)) {
-					sessionCache.put(key, true);
+					ObjectCache.get("ZMQSessions").put(key, true);
+					for (final ByteBuffer[] message : parked) {
+						deliver(message, senderUrl);
+					}
 				} else {
 					LOG.warning("Failed to complete handshake!");
-					return;
 				}
 			}
-		}
 
-		if (body != null) {
-			super.getHandle().get().receive(body, senderUrl, null);
+			@Override
+			public void onFailure(final Exception exception) {
+				unpark(key);
+				LOG.log(Level.WARNING, "Failed to complete handshake!",
+						exception);
+			}
+		});
+		sendAsync(ZMQ.HANDSHAKE, token.toString(), senderUrl, token.getTime()
+				.getBytes(), null, null);
+	}
+
+	private List<ByteBuffer[]> unpark(final String key) {
+		synchronized (handshakes) {
+			return handshakes.remove(key);
 		}
 	}
 
@@ -79,6 +79,31 @@ public class ZmqTransportConfig extends TransportConfig {
 		this.put("address", address);
 	}
 
+	/**
+	 * Sets the number of decoders, the maximum number of threads handling
+	 * received messages in parallel. Messages are divided over the decoders
+	 * by sender, messages of the same sender are handled in order. (Optional,
+	 * default is the number of processors)
+	 *
+	 * @param decoders
+	 *            the new decoders
+	 */
+	public void setDecoders(final int decoders) {
+		this.put("decoders", decoders);
+	}
+
+	/**
+	 * Gets the number of decoders.
+	 *
+	 * @return the decoders
+	 */
+	public int getDecoders() {
+		if (this.has("decoders")) {
+			return this.get("decoders").asInt();
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
 	/**
 	 * Sets the id.
 	 * 